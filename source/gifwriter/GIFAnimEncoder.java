@@ -0,0 +1,746 @@
+// GIFAnimEncoder.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package gifwriter;
+
+import java.io.*;
+import java.util.Arrays;
+import java.awt.image.*;
+
+
+// Encoder for animated GIFs, writing frames to the output as they are added.
+//
+// All frames share one global color table, built from the colors in the first
+// frame. After the first frame only the rectangle that changed since the
+// previous frame is encoded, with unchanged pixels inside it made transparent
+// so they compress into long runs. Colors that aren't in the global table get
+// a local color table for that frame. When there are more colors than fit in
+// a GIF color table, they are reduced by median cut, keeping the most common
+// color of each box, and every color is mapped to the nearest of those.
+//
+// Colors are looked up with an open-addressing hash table of primitive ints,
+// and the LZW compressor uses the usual hashed string table (as in the classic
+// GIFEncoder by Jef Poskanzer), so no objects are allocated per pixel.
+
+public class GIFAnimEncoder {
+    // palette index reserved for transparent pixels
+    protected static final int TRANSPARENT = 255;
+    protected static final int MAX_COLORS = 255;
+
+    // size of the buffer in front of the output stream, in bytes
+    protected static final int OUTPUT_BUFFER_SIZE = 16384;
+
+    protected OutputStream os;
+    protected int width;
+    protected int height;
+    protected int delay;  // in hundredths of a second
+    protected int loops;
+    protected int numframes;
+
+    protected int[] cur;  // pixels of the current and previous frames
+    protected int[] prev;
+    protected byte[] indexed;  // palette indices of the rectangle to encode
+
+    protected int[] palette;  // global color table
+    protected int numcolors;
+    protected ColorMap colormap;
+    protected int[] localpalette;
+    protected ColorMap localmap;
+    protected ColorMap histogram;
+
+    protected byte[] outbuf;
+    protected int outcount;
+
+
+    // The delay between frames is in hundredths of a second. `loops` is the
+    // number of times to play the animation, with 0 meaning forever.
+    public GIFAnimEncoder(OutputStream os, int width, int height, int delay, int loops) {
+        this.os = os;
+        this.width = width;
+        this.height = height;
+        this.delay = delay;
+        this.loops = loops;
+
+        cur = new int[width * height];
+        prev = new int[width * height];
+        indexed = new byte[width * height];
+        palette = new int[256];
+        localpalette = new int[256];
+        colormap = new ColorMap();
+        localmap = new ColorMap();
+        histogram = new ColorMap();
+        outbuf = new byte[OUTPUT_BUFFER_SIZE];
+    }
+
+    public GIFAnimEncoder(OutputStream os, int width, int height, int delay) {
+        this(os, width, height, delay, 0);
+    }
+
+    public int getNumberOfFrames() {
+        return numframes;
+    }
+
+    // Add a frame to the animation. The image must be the size given in the
+    // constructor; any alpha channel is ignored.
+    public void addFrame(BufferedImage image) throws IOException {
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IOException("GIFAnimEncoder: frame size doesn't match animation");
+
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+            image.getRaster().getDataElements(0, 0, width, height, cur);
+        else
+            image.getRGB(0, 0, width, height, cur, 0, width);
+        for (int i = 0; i < cur.length; i++)
+            cur[i] &= 0xffffff;
+
+        if (numframes == 0) {
+            writeHeader();
+            encodeFrame(0, 0, width, height, false);
+        } else {
+            // find the rectangle that changed since the last frame
+            int top = 0;
+            while (top < height && rowEquals(top))
+                top++;
+
+            if (top == height) {
+                // nothing changed; still need a frame for the timing
+                encodeFrame(0, 0, 1, 1, true);
+            } else {
+                int bottom = height - 1;
+                while (rowEquals(bottom))
+                    bottom--;
+
+                int left = width - 1;
+                int right = 0;
+                for (int y = top; y <= bottom; y++) {
+                    int row = y * width;
+                    for (int x = 0; x < left; x++) {
+                        if (cur[row + x] != prev[row + x]) {
+                            left = x;
+                            break;
+                        }
+                    }
+                    for (int x = width - 1; x > right; x--) {
+                        if (cur[row + x] != prev[row + x]) {
+                            right = x;
+                            break;
+                        }
+                    }
+                }
+                if (right < left)
+                    right = left;
+
+                encodeFrame(left, top, right - left + 1, bottom - top + 1, true);
+            }
+        }
+
+        int[] temp = prev;
+        prev = cur;
+        cur = temp;
+        numframes++;
+    }
+
+    // Write the end of the animation and flush the output. This doesn't close
+    // the output stream.
+    public void finish() throws IOException {
+        if (numframes == 0)
+            throw new IOException("GIFAnimEncoder: no frames");
+        writeByte(0x3b);  // trailer
+        flush();
+    }
+
+    // Send everything written so far to the output stream
+    public void flush() throws IOException {
+        if (outcount > 0) {
+            os.write(outbuf, 0, outcount);
+            outcount = 0;
+        }
+        os.flush();
+    }
+
+    protected boolean rowEquals(int y) {
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+            if (cur[row + x] != prev[row + x])
+                return false;
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Palettes
+    //-------------------------------------------------------------------------
+
+    // Choose a color table for the given rectangle of `cur` (only the pixels
+    // changed from `prev` if `transparent` is true), and fill in `map` for
+    // every color in it. This is the colors themselves if there are at most
+    // MAX_COLORS of them, otherwise a median cut palette, with every color
+    // mapped to the nearest entry. Returns the number of colors in `pal`.
+    protected int buildPalette(int x0, int y0, int w, int h, boolean transparent,
+                               ColorMap map, int[] pal) {
+        histogram.clear();
+        for (int y = 0; y < h; y++) {
+            int row = (y0 + y) * width + x0;
+            for (int x = 0; x < w; x++) {
+                int i = row + x;
+                if (!transparent || cur[i] != prev[i])
+                    histogram.increment(cur[i]);
+            }
+        }
+
+        map.clear();
+        int n = 0;
+
+        if (histogram.size() <= MAX_COLORS) {
+            // keep them in order of first appearance
+            for (int y = 0; y < h; y++) {
+                int row = (y0 + y) * width + x0;
+                for (int x = 0; x < w; x++) {
+                    int i = row + x;
+                    if ((!transparent || cur[i] != prev[i]) && map.get(cur[i]) < 0) {
+                        map.put(cur[i], n);
+                        pal[n++] = cur[i];
+                    }
+                }
+            }
+            return n;
+        }
+
+        // too many colors: divide them into boxes by median cut, weighted by
+        // pixel count, and use the most common color in each box
+        long[] entries = new long[histogram.size()];
+        int num = 0;
+        for (int i = 0; i < histogram.capacity(); i++) {
+            int rgb = histogram.getKey(i);
+            if (rgb >= 0)
+                entries[num++] = ((long)histogram.getValue(i) << 24) | rgb;
+        }
+
+        int[] start = new int[MAX_COLORS];
+        int[] end = new int[MAX_COLORS];
+        int[] range = new int[MAX_COLORS];
+        long[] count = new long[MAX_COLORS];
+        int nboxes = 1;
+        start[0] = 0;
+        end[0] = num;
+        range[0] = findRange(entries, 0, num);
+        count[0] = boxCount(entries, 0, num);
+
+        while (nboxes < MAX_COLORS) {
+            // split the box with the widest spread of colors, favoring ones
+            // with more pixels
+            int b = -1;
+            double bestscore = 0.0;
+            for (int i = 0; i < nboxes; i++) {
+                if (end[i] - start[i] < 2)
+                    continue;
+                double score = (double)(range[i] >>> 2) * count[i];
+                if (b < 0 || score > bestscore) {
+                    b = i;
+                    bestscore = score;
+                }
+            }
+            if (b < 0)
+                break;
+
+            int mid = splitBox(entries, start[b], end[b], range[b] & 3);
+            start[nboxes] = mid;
+            end[nboxes] = end[b];
+            range[nboxes] = findRange(entries, mid, end[b]);
+            count[nboxes] = boxCount(entries, mid, end[b]);
+            end[b] = mid;
+            range[b] = findRange(entries, start[b], mid);
+            count[b] -= count[nboxes];
+            nboxes++;
+        }
+
+        for (int i = 0; i < nboxes; i++) {
+            long best = entries[start[i]];
+            for (int k = start[i] + 1; k < end[i]; k++) {
+                if ((entries[k] >>> 24) > (best >>> 24))
+                    best = entries[k];
+            }
+            pal[n] = (int)(best & 0xffffff);
+            map.put(pal[n], n);
+            n++;
+        }
+        for (int k = 0; k < num; k++) {
+            int rgb = (int)(entries[k] & 0xffffff);
+            if (map.get(rgb) < 0)
+                map.put(rgb, findNearest(rgb, pal, n));
+        }
+        return n;
+    }
+
+    // Returns the largest extent of the colors in `entries[from..to)` along
+    // any of the red, green and blue axes, times 4, plus the axis
+    // (0 = blue, 1 = green, 2 = red)
+    protected static int findRange(long[] entries, int from, int to) {
+        int best = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            int shift = 8 * axis;
+            int lo = 255;
+            int hi = 0;
+            for (int k = from; k < to; k++) {
+                int c = (int)(entries[k] >> shift) & 0xff;
+                lo = Math.min(lo, c);
+                hi = Math.max(hi, c);
+            }
+            int r = (hi - lo) * 4 + axis;
+            if (r > best)
+                best = r;
+        }
+        return best;
+    }
+
+    protected static long boxCount(long[] entries, int from, int to) {
+        long count = 0;
+        for (int k = from; k < to; k++)
+            count += entries[k] >>> 24;
+        return count;
+    }
+
+    // Sort `entries[from..to)` along the given axis and return the index that
+    // divides their pixels most evenly, leaving both sides nonempty
+    protected static int splitBox(long[] entries, int from, int to, int axis) {
+        int shift = 8 * axis;
+        // put the axis component above the count and color, to sort by it
+        for (int k = from; k < to; k++)
+            entries[k] |= ((entries[k] >> shift) & 0xffL) << 55;
+        Arrays.sort(entries, from, to);
+        for (int k = from; k < to; k++)
+            entries[k] &= (1L << 55) - 1;
+
+        long half = boxCount(entries, from, to) / 2;
+        long count = 0;
+        int mid = from + 1;
+        for (int k = from; k < to - 1; k++) {
+            count += entries[k] >>> 24;
+            mid = k + 1;
+            if (count >= half)
+                break;
+        }
+        return mid;
+    }
+
+    protected static int findNearest(int rgb, int[] pal, int n) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        int best = 0;
+        int bestdist = Integer.MAX_VALUE;
+
+        for (int i = 0; i < n; i++) {
+            int dr = ((pal[i] >> 16) & 0xff) - r;
+            int dg = ((pal[i] >> 8) & 0xff) - g;
+            int db = (pal[i] & 0xff) - b;
+            int dist = dr * dr + dg * dg + db * db;
+            if (dist < bestdist) {
+                bestdist = dist;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    //-------------------------------------------------------------------------
+    // Writing the GIF blocks
+    //-------------------------------------------------------------------------
+
+    protected void writeHeader() throws IOException {
+        numcolors = buildPalette(0, 0, width, height, false, colormap, palette);
+
+        writeByte('G');
+        writeByte('I');
+        writeByte('F');
+        writeByte('8');
+        writeByte('9');
+        writeByte('a');
+
+        // logical screen descriptor, with a 256-entry global color table
+        writeShort(width);
+        writeShort(height);
+        writeByte(0xf7);
+        writeByte(0);  // background color index
+        writeByte(0);  // pixel aspect ratio
+        writeColorTable(palette, numcolors);
+
+        // Netscape application extension, for looping
+        writeByte(0x21);
+        writeByte(0xff);
+        writeByte(11);
+        for (char c : "NETSCAPE2.0".toCharArray())
+            writeByte(c);
+        writeByte(3);
+        writeByte(1);
+        writeShort(loops);
+        writeByte(0);
+    }
+
+    protected void writeColorTable(int[] pal, int n) throws IOException {
+        for (int i = 0; i < 256; i++) {
+            int rgb = (i < n ? pal[i] : 0);
+            writeByte((rgb >> 16) & 0xff);
+            writeByte((rgb >> 8) & 0xff);
+            writeByte(rgb & 0xff);
+        }
+    }
+
+    // Encode the given rectangle of `cur`. If `transparent` is true then
+    // pixels unchanged from `prev` are made transparent.
+    protected void encodeFrame(int x0, int y0, int w, int h, boolean transparent)
+                            throws IOException {
+        int n = w * h;
+        boolean local = false;
+
+        if (!indexPixels(x0, y0, w, h, transparent, colormap, null)) {
+            // colors not in the global table: use a local table with the
+            // extra colors added if they fit, otherwise one for this frame
+            local = true;
+            localmap.copyFrom(colormap);
+            System.arraycopy(palette, 0, localpalette, 0, numcolors);
+            if (!indexPixels(x0, y0, w, h, transparent, localmap, localpalette)) {
+                buildPalette(x0, y0, w, h, transparent, localmap, localpalette);
+                indexPixels(x0, y0, w, h, transparent, localmap, null);
+            }
+        }
+
+        // graphic control extension
+        writeByte(0x21);
+        writeByte(0xf9);
+        writeByte(4);
+        writeByte((1 << 2) | (transparent ? 1 : 0));  // do not dispose
+        writeShort(delay);
+        writeByte(transparent ? TRANSPARENT : 0);
+        writeByte(0);
+
+        // image descriptor
+        writeByte(0x2c);
+        writeShort(x0);
+        writeShort(y0);
+        writeShort(w);
+        writeShort(h);
+        if (local) {
+            writeByte(0x87);
+            writeColorTable(localpalette, 256);
+        } else
+            writeByte(0);
+
+        compress(n, 8);
+    }
+
+    // Fill `indexed` with the palette indices of the given rectangle of `cur`,
+    // looking up colors in `map`. If `pal` is non-null then missing colors are
+    // added to `map` and `pal`. Returns false if a color is missing and can't
+    // be added.
+    protected boolean indexPixels(int x0, int y0, int w, int h, boolean transparent,
+                                  ColorMap map, int[] pal) {
+        int n = 0;
+        for (int y = 0; y < h; y++) {
+            int row = (y0 + y) * width + x0;
+            for (int x = 0; x < w; x++) {
+                int i = row + x;
+                if (transparent && cur[i] == prev[i]) {
+                    indexed[n++] = (byte)TRANSPARENT;
+                    continue;
+                }
+                int index = map.get(cur[i]);
+                if (index < 0) {
+                    // maps only hold colors other than their palette entries
+                    // when they're already full (with nearest-color entries
+                    // beyond MAX_COLORS), so otherwise this is the next free one
+                    index = map.size();
+                    if (pal == null || index >= MAX_COLORS)
+                        return false;
+                    map.put(cur[i], index);
+                    pal[index] = cur[i];
+                }
+                indexed[n++] = (byte)index;
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // LZW compression of `indexed`
+    //-------------------------------------------------------------------------
+
+    protected static final int BITS = 12;
+    protected static final int MAXMAXCODE = 1 << BITS;
+    protected static final int HSIZE = 5003;  // 80% occupancy
+
+    protected int[] htab = new int[HSIZE];
+    protected int[] codetab = new int[HSIZE];
+    protected int n_bits;
+    protected int maxcode;
+    protected int init_bits;
+    protected int clear_code;
+    protected int eof_code;
+    protected int free_ent;
+    protected boolean clear_flg;
+    protected int cur_accum;
+    protected int cur_bits;
+    protected byte[] packet = new byte[256];
+    protected int packetcount;
+
+
+    protected void compress(int count, int codesize) throws IOException {
+        writeByte(codesize);
+
+        init_bits = codesize + 1;
+        n_bits = init_bits;
+        maxcode = (1 << n_bits) - 1;
+        clear_code = 1 << codesize;
+        eof_code = clear_code + 1;
+        free_ent = clear_code + 2;
+        clear_flg = false;
+        cur_accum = 0;
+        cur_bits = 0;
+        packetcount = 0;
+
+        int hshift = 0;
+        for (int fcode = HSIZE; fcode < 65536; fcode *= 2)
+            hshift++;
+        hshift = 8 - hshift;
+
+        clearHash();
+        output(clear_code);
+
+        int ent = indexed[0] & 0xff;
+
+        outer:
+        for (int k = 1; k < count; k++) {
+            int c = indexed[k] & 0xff;
+            int fcode = (c << BITS) + ent;
+            int i = (c << hshift) ^ ent;
+
+            if (htab[i] == fcode) {
+                ent = codetab[i];
+                continue;
+            } else if (htab[i] >= 0) {
+                // secondary hash
+                int disp = (i == 0 ? 1 : HSIZE - i);
+                do {
+                    if ((i -= disp) < 0)
+                        i += HSIZE;
+                    if (htab[i] == fcode) {
+                        ent = codetab[i];
+                        continue outer;
+                    }
+                } while (htab[i] >= 0);
+            }
+
+            output(ent);
+            ent = c;
+            if (free_ent < MAXMAXCODE) {
+                codetab[i] = free_ent++;
+                htab[i] = fcode;
+            } else {
+                clearHash();
+                free_ent = clear_code + 2;
+                clear_flg = true;
+                output(clear_code);
+            }
+        }
+
+        output(ent);
+        output(eof_code);
+
+        writeByte(0);  // block terminator
+    }
+
+    protected void clearHash() {
+        for (int i = 0; i < HSIZE; i++)
+            htab[i] = -1;
+    }
+
+    protected void output(int code) throws IOException {
+        cur_accum |= code << cur_bits;
+        cur_bits += n_bits;
+
+        while (cur_bits >= 8) {
+            addToPacket(cur_accum & 0xff);
+            cur_accum >>>= 8;
+            cur_bits -= 8;
+        }
+
+        // increase the code size if needed
+        if (free_ent > maxcode || clear_flg) {
+            if (clear_flg) {
+                n_bits = init_bits;
+                maxcode = (1 << n_bits) - 1;
+                clear_flg = false;
+            } else {
+                n_bits++;
+                maxcode = (n_bits == BITS ? MAXMAXCODE : (1 << n_bits) - 1);
+            }
+        }
+
+        if (code == eof_code) {
+            while (cur_bits > 0) {
+                addToPacket(cur_accum & 0xff);
+                cur_accum >>>= 8;
+                cur_bits -= 8;
+            }
+            flushPacket();
+        }
+    }
+
+    protected void addToPacket(int b) throws IOException {
+        packet[packetcount++] = (byte)b;
+        if (packetcount == 255)
+            flushPacket();
+    }
+
+    protected void flushPacket() throws IOException {
+        if (packetcount > 0) {
+            writeByte(packetcount);
+            writeBytes(packet, packetcount);
+            packetcount = 0;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Buffered output
+    //-------------------------------------------------------------------------
+
+    protected void writeByte(int b) throws IOException {
+        if (outcount == outbuf.length) {
+            os.write(outbuf, 0, outcount);
+            outcount = 0;
+        }
+        outbuf[outcount++] = (byte)b;
+    }
+
+    protected void writeShort(int s) throws IOException {
+        writeByte(s & 0xff);
+        writeByte((s >> 8) & 0xff);
+    }
+
+    protected void writeBytes(byte[] b, int len) throws IOException {
+        if (outcount + len > outbuf.length) {
+            os.write(outbuf, 0, outcount);
+            outcount = 0;
+        }
+        System.arraycopy(b, 0, outbuf, outcount, len);
+        outcount += len;
+    }
+
+    //-------------------------------------------------------------------------
+    // Hash map from 24-bit RGB colors to palette indices
+    //-------------------------------------------------------------------------
+
+    protected static class ColorMap {
+        protected int[] keys;
+        protected int[] values;
+        protected int size;
+
+
+        public ColorMap() {
+            keys = new int[1024];
+            values = new int[1024];
+            clear();
+        }
+
+        public void clear() {
+            Arrays.fill(keys, -1);
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int capacity() {
+            return keys.length;
+        }
+
+        // key at position `i` of the table, or -1 if empty
+        public int getKey(int i) {
+            return keys[i];
+        }
+
+        public int getValue(int i) {
+            return values[i];
+        }
+
+        // Returns the value for `rgb`, or -1 if none
+        public int get(int rgb) {
+            int mask = keys.length - 1;
+            int i = hash(rgb) & mask;
+            while (true) {
+                int k = keys[i];
+                if (k == rgb)
+                    return values[i];
+                if (k < 0)
+                    return -1;
+                i = (i + 1) & mask;
+            }
+        }
+
+        public void put(int rgb, int value) {
+            // find() may grow the table, so look up the position first
+            int i = find(rgb);
+            values[i] = value;
+        }
+
+        // Add one to the value for `rgb`, starting from 0
+        public void increment(int rgb) {
+            int i = find(rgb);
+            values[i]++;
+        }
+
+        public void copyFrom(ColorMap other) {
+            if (keys.length != other.keys.length) {
+                keys = new int[other.keys.length];
+                values = new int[other.keys.length];
+            }
+            System.arraycopy(other.keys, 0, keys, 0, keys.length);
+            System.arraycopy(other.values, 0, values, 0, keys.length);
+            size = other.size;
+        }
+
+        // Returns the position of `rgb` in the table, adding it with value 0
+        // if it isn't there
+        protected int find(int rgb) {
+            int mask = keys.length - 1;
+            int i = hash(rgb) & mask;
+            while (keys[i] >= 0) {
+                if (keys[i] == rgb)
+                    return i;
+                i = (i + 1) & mask;
+            }
+
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                return find(rgb);
+            }
+            keys[i] = rgb;
+            values[i] = 0;
+            size++;
+            return i;
+        }
+
+        protected void grow() {
+            int[] oldkeys = keys;
+            int[] oldvalues = values;
+            keys = new int[2 * oldkeys.length];
+            values = new int[2 * oldkeys.length];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldkeys.length; i++) {
+                if (oldkeys[i] >= 0) {
+                    int j = find(oldkeys[i]);
+                    values[j] = oldvalues[i];
+                }
+            }
+        }
+
+        protected static int hash(int rgb) {
+            int h = rgb * 0x9e3779b1;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -52,6 +52,9 @@ public class JugglingLab {
     // Command line arguments as an ArrayList that we trim as portions are parsed
     private static ArrayList<String> jlargs;
 
+    // Default port for `jlab serve`
+    private static final int DEFAULT_SERVER_PORT = 8765;
+
     static {
         guistrings = JLLocale.getBundle("GUIStrings");
         errorstrings = JLLocale.getBundle("ErrorStrings");
@@ -148,7 +151,8 @@ public class JugglingLab {
         if (!isCLI)
             return;
 
-        List<String> modes = Arrays.asList("gen", "trans", "verify", "anim", "togif", "tojml");
+        List<String> modes = Arrays.asList("gen", "trans", "verify", "bench", "batch",
+                                           "serve", "anim", "togif", "toframes", "tojml");
         boolean show_help = !modes.contains(firstarg);
 
         if (show_help) {
@@ -159,6 +163,12 @@ public class JugglingLab {
         // Try to parse an optional output path and/or animation preferences
         Path outpath = parse_outpath();
         AnimationPrefs jc = parse_animprefs();
+        int format = FrameEncoder.FORMAT_Y4M;
+        if (firstarg.equals("toframes")) {
+            format = parse_frameformat();
+            if (format < 0)
+                return;
+        }
 
         if (firstarg.equals("gen")) {
             doGen(outpath, jc);
@@ -175,6 +185,21 @@ public class JugglingLab {
             return;
         }
 
+        if (firstarg.equals("bench")) {
+            doBench(outpath, jc);
+            return;
+        }
+
+        if (firstarg.equals("batch")) {
+            doBatch(outpath, jc);
+            return;
+        }
+
+        if (firstarg.equals("serve")) {
+            doServe(outpath, jc);
+            return;
+        }
+
         // All remaining modes require a pattern as input
         JMLPattern pat = parse_pattern();
         if (pat == null)
@@ -201,6 +226,11 @@ public class JugglingLab {
             return;
         }
 
+        if (firstarg.equals("toframes")) {
+            doToframes(pat, outpath, jc, format);
+            return;
+        }
+
         if (firstarg.equals("tojml")) {
             doTojml(pat, outpath, jc);
             return;
@@ -534,6 +564,105 @@ public class JugglingLab {
         }
     }
 
+    // Run performance benchmarks over the patterns in the JML file(s) whose
+    // paths are given as command-line arguments.
+    private static void doBench(Path outpath, AnimationPrefs jc) {
+        System.setProperty("java.awt.headless", "true");
+        ArrayList<File> files = parse_filelist();
+        if (files == null)
+            return;
+        if (jc != null)
+            System.out.println("Note: Animator prefs not used in bench mode; ignored\n");
+
+        PrintStream ps = System.out;
+        try {
+            if (outpath != null)
+                ps = new PrintStream(outpath.toFile());
+        } catch (FileNotFoundException fnfe) {
+            System.out.println("Error: Problem writing to file path " + outpath.toString());
+            return;
+        }
+
+        Benchmark bench = new Benchmark(ps);
+        bench.loadFiles(files);
+        bench.run();
+    }
+
+    // Look in jlargs to see if a video frame format is specified, and if so
+    // then trim it out of jlargs. Returns the format (Y4M by default), or -1
+    // on error.
+    private static int parse_frameformat() {
+        for (int i = 0; i < jlargs.size(); i++) {
+            if (jlargs.get(i).equalsIgnoreCase("-format")) {
+                jlargs.remove(i);
+
+                if (i == jlargs.size()) {
+                    System.out.println("Error: No format specified after -format flag");
+                    return -1;
+                }
+
+                String name = jlargs.remove(i);
+                int format = FrameEncoder.getFormat(name);
+                if (format < 0)
+                    System.out.println("Error: Unrecognized frame format: " + name);
+                return format;
+            }
+        }
+        return FrameEncoder.FORMAT_Y4M;
+    }
+
+    // Render animated GIFs of all the patterns in the file(s) whose paths are
+    // given as command-line arguments, into the output directory.
+    private static void doBatch(Path outpath, AnimationPrefs jc) {
+        System.setProperty("java.awt.headless", "true");
+        if (outpath == null) {
+            System.out.println("Error: No output directory specified for batch mode");
+            return;
+        }
+        ArrayList<File> files = parse_filelist();
+        if (files == null)
+            return;
+
+        BatchRenderer batch = new BatchRenderer(System.out, outpath, jc);
+        batch.loadFiles(files);
+        batch.run();
+    }
+
+    // Run a local HTTP server that renders animated GIFs on request, caching
+    // them in the output directory if one is given.
+    private static void doServe(Path outpath, AnimationPrefs jc) {
+        System.setProperty("java.awt.headless", "true");
+        int port = DEFAULT_SERVER_PORT;
+
+        for (int i = 0; i < jlargs.size(); i++) {
+            if (jlargs.get(i).equalsIgnoreCase("-port")) {
+                jlargs.remove(i);
+                try {
+                    port = Integer.parseInt(jlargs.remove(i));
+                } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                    System.out.println("Error: Expected port number after -port flag");
+                    return;
+                }
+                break;
+            }
+        }
+        if (jlargs.size() > 0) {
+            System.out.println("Error: Unrecognized input: " + String.join(", ", jlargs));
+            return;
+        }
+
+        try {
+            RenderServer server = new RenderServer(port, outpath, jc);
+            server.start();
+            System.out.println("Serving animated GIFs at http://localhost:" +
+                               server.getPort() + "/gif?pattern=<pattern>");
+            if (outpath != null)
+                System.out.println("Caching GIFs in " + outpath.toString());
+        } catch (IOException ioe) {
+            System.out.println("Error: Could not start server: " + ioe.getMessage());
+        }
+    }
+
     // Look at beginning of jlargs to see if there's a pattern, and if so then
     // parse it and return it. Otherwise print an error message and return null.
     private static JMLPattern parse_pattern() {
@@ -640,6 +769,64 @@ public class JugglingLab {
         }
     }
 
+    // Output the pattern animation as video frames, for an external encoder.
+    // With no output path the frames go to stdout, so messages go to stderr.
+    private static void doToframes(JMLPattern pat, Path outpath, AnimationPrefs jc,
+                                   int format) {
+        PrintStream msg = (outpath == null ? System.err : System.out);
+
+        try {
+            Animator anim = new Animator();
+            if (jc == null) {
+                jc = anim.getAnimationPrefs();
+                jc.fps = 30.0;  // default frames per sec for video
+            }
+            anim.setDimension(new Dimension(jc.width, jc.height));
+            anim.restartAnimator(pat, jc);
+
+            if (outpath == null) {
+                OutputStream os = new BufferedOutputStream(
+                        new FileOutputStream(FileDescriptor.out), 65536);
+                anim.writeFrames(os, format, null, jc.fps);
+            } else if (format == FrameEncoder.FORMAT_PNG) {
+                anim.writeFrames(png_pathformat(outpath), null, jc.fps);
+            } else {
+                anim.writeFrames(new FileOutputStream(outpath.toFile()), format,
+                                 null, jc.fps);
+            }
+
+            if (format == FrameEncoder.FORMAT_RAW) {
+                // no header, so the reader needs to be told the frame format
+                msg.println("Wrote rgb24 frames, size " + jc.width + "x" + jc.height +
+                            ", " + String.format("%.3f", anim.getExportFrameRate(jc.fps)) +
+                            " fps");
+            }
+        } catch (JuggleExceptionUser jeu) {
+            msg.println("Error: " + jeu.getMessage());
+        } catch (JuggleExceptionInternal jei) {
+            msg.println("Internal Error: " + jei.getMessage());
+        } catch (IOException ioe) {
+            msg.println("Error: Problem writing frames" +
+                        (outpath == null ? "" : " to path " + outpath.toString()));
+        }
+    }
+
+    // File name format for a numbered PNG sequence. A name containing a
+    // format specifier like %04d is used as is; otherwise a five-digit frame
+    // number is added before the extension.
+    private static String png_pathformat(Path outpath) {
+        String path = outpath.toString();
+        if (path.indexOf('%') >= 0)
+            return path;
+
+        String name = outpath.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0)
+            return path + "%05d.png";
+        int cut = path.length() - name.length() + dot;
+        return path.substring(0, cut) + "%05d" + path.substring(cut);
+    }
+
     // Output pattern to JML
     private static void doTojml(JMLPattern pat, Path outpath, AnimationPrefs jc) {
         if (outpath == null)
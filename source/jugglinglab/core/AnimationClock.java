@@ -0,0 +1,227 @@
+// AnimationClock.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+import jugglinglab.util.ErrorDialog;
+
+
+// The single clock that drives every animation on screen.
+//
+// Each running FrameScheduler is registered here, and one thread wakes up at
+// the earliest frame deadline among them, advances every animation that is
+// due, and posts a single task to the event dispatch thread that paints all
+// of them. Frame deadlines are aligned to a grid shared by all animations, so
+// panels with the same frame rate (e.g., the nine in Selection view) are
+// served by one wakeup per frame. Animations that aren't showing on screen
+// are skipped entirely.
+//
+// This keeps the number of threads and wakeups the same no matter how many
+// animations are open. An animation that fails while advancing is dropped
+// and reported, so the others keep going.
+
+public class AnimationClock {
+    protected static final long STATS_INTERVAL_NANOS = 10000000000L;
+
+    protected static AnimationClock instance;
+
+    protected ScheduledExecutorService executor;
+    protected long epoch;  // origin of the frame deadline grid
+
+    // the following are guarded by `this`
+    protected ArrayList<FrameScheduler> schedulers = new ArrayList<FrameScheduler>();
+    protected ScheduledFuture<?> future;
+    protected long wakeup_nanos;
+    protected int generation;  // changes each time a wakeup is scheduled
+    protected ArrayList<FrameScheduler> paint_queue = new ArrayList<FrameScheduler>();
+    protected boolean paint_posted;
+
+    // counters
+    protected long wakeups;
+    protected long paint_passes;
+    protected long last_stats_nanos;
+
+
+    protected AnimationClock() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Juggling Lab animation clock");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        epoch = System.nanoTime();
+        last_stats_nanos = epoch;
+    }
+
+    public static synchronized AnimationClock getInstance() {
+        if (instance == null)
+            instance = new AnimationClock();
+        return instance;
+    }
+
+    // First frame deadline after `now` for animations with the given frame
+    // interval
+    public long getNextDeadline(long now, long interval_nanos) {
+        return epoch + ((now - epoch) / interval_nanos + 1) * interval_nanos;
+    }
+
+    // Start driving `fs`, and paint its current frame
+    public synchronized void add(FrameScheduler fs) {
+        if (!schedulers.contains(fs))
+            schedulers.add(fs);
+        requestPaint(fs);
+        reschedule();
+    }
+
+    public synchronized void remove(FrameScheduler fs) {
+        schedulers.remove(fs);
+        paint_queue.remove(fs);
+        reschedule();
+    }
+
+    // Called when the deadline of `fs` has changed (e.g., it has just come
+    // on screen), to paint its current frame and reschedule
+    public synchronized void update(FrameScheduler fs) {
+        if (!schedulers.contains(fs))
+            return;
+        requestPaint(fs);
+        reschedule();
+    }
+
+    // Call with `this` locked
+    protected void reschedule() {
+        long next = Long.MAX_VALUE;
+        for (FrameScheduler fs : schedulers)
+            next = Math.min(next, fs.getDeadline());
+
+        if (future != null) {
+            if (next == wakeup_nanos)
+                return;
+            future.cancel(false);
+            future = null;
+        }
+        if (next == Long.MAX_VALUE)
+            return;
+
+        wakeup_nanos = next;
+        final int gen = ++generation;
+        future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick(gen);
+            }
+        }, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    // `gen` detects wakeups that were replaced after they started running
+    protected void tick(int gen) {
+        long now = System.nanoTime();
+        ArrayList<FrameScheduler> due = new ArrayList<FrameScheduler>();
+        ArrayList<Integer> steps = new ArrayList<Integer>();
+
+        synchronized (this) {
+            if (gen != generation)
+                return;
+            future = null;
+            wakeups++;
+
+            for (FrameScheduler fs : schedulers) {
+                int n = fs.takeSteps(now);
+                if (n > 0) {
+                    due.add(fs);
+                    steps.add(n);
+                }
+            }
+        }
+
+        try {
+            // outside the lock, since this can take a while (e.g., to set up
+            // prerendering at the end of a loop)
+            for (int i = 0; i < due.size(); i++) {
+                FrameScheduler fs = due.get(i);
+                try {
+                    fs.advance(steps.get(i));
+                } catch (RuntimeException re) {
+                    remove(fs);
+                    ErrorDialog.handleFatalException(re);
+                }
+            }
+
+            synchronized (this) {
+                for (FrameScheduler fs : due) {
+                    if (schedulers.contains(fs))
+                        requestPaint(fs);
+                }
+
+                if (Constants.DEBUG_FRAME_PACING &&
+                            now - last_stats_nanos >= STATS_INTERVAL_NANOS) {
+                    System.out.println("animation clock: " + getStatistics());
+                    for (FrameScheduler fs : schedulers)
+                        System.out.println(fs.getName() + ": " + fs.getStatistics());
+                    last_stats_nanos = now;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                reschedule();
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Painting, batched into one pass on the event dispatch thread
+    //-------------------------------------------------------------------------
+
+    // Call with `this` locked
+    protected void requestPaint(FrameScheduler fs) {
+        if (paint_queue.contains(fs)) {
+            // the queued paint will show this frame instead
+            fs.frameDropped();
+            return;
+        }
+        paint_queue.add(fs);
+
+        if (!paint_posted) {
+            paint_posted = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    paintQueued();
+                }
+            });
+        }
+    }
+
+    protected void paintQueued() {
+        ArrayList<FrameScheduler> queue;
+        synchronized (this) {
+            queue = new ArrayList<FrameScheduler>(paint_queue);
+            paint_queue.clear();
+            paint_posted = false;
+            paint_passes++;
+        }
+
+        for (FrameScheduler fs : queue)
+            fs.paint();
+    }
+
+    public synchronized int getNumberOfAnimations() {
+        return schedulers.size();
+    }
+
+    public synchronized String getStatistics() {
+        return String.format("%d animations, %d wakeups, %d paint passes",
+                             schedulers.size(), wakeups, paint_passes);
+    }
+}
@@ -218,7 +218,7 @@ public class AnimationEditPanel extends AnimationPanel
             return;
         if (writingGIF)
             return;
-        if (!engineAnimating && engine != null && engine.isAlive()) {
+        if (!engineAnimating && engineRunning) {
             setPaused(!enginePaused);
             return;
         }
@@ -239,7 +239,7 @@ public class AnimationEditPanel extends AnimationPanel
             dragging_xz = dragging_y = false;
 
             if (ladder instanceof EditLadderDiagram)
-                ((EditLadderDiagram)ladder).activeEventChanged();
+                ((EditLadderDiagram)ladder).activeEventChanged(master);
         }
 
         if (position_active && dragging && mouse_moved) {
@@ -262,7 +262,7 @@ public class AnimationEditPanel extends AnimationPanel
                 ((EditLadderDiagram)ladder).activePositionChanged();
         }
 
-        if (!mouse_moved && !dragging && engine != null && engine.isAlive())
+        if (!mouse_moved && !dragging && engineRunning)
             setPaused(!enginePaused);
 
         dragging_camera = false;
@@ -483,6 +483,17 @@ public class AnimationEditPanel extends AnimationPanel
             createPositionView();
     }
 
+    // the pattern can change while editing, and we draw on top of it
+    @Override
+    protected boolean isPrerenderAllowed() {
+        return false;
+    }
+
+    @Override
+    protected boolean isPartialPaintAllowed() {
+        return false;
+    }
+
     // set position of tracker bar in ladder diagram as we animate
     @Override
     public void setTime(double time) {
@@ -1122,6 +1133,7 @@ public class AnimationEditPanel extends AnimationPanel
         if (message != null)
             drawString(message, g);
         else if (engineRunning && !writingGIF) {
+            long start = System.nanoTime();
             try {
                 anim.drawBackground(g);
                 drawGrid(g);
@@ -1129,10 +1141,11 @@ public class AnimationEditPanel extends AnimationPanel
                 drawEvent(g);
                 drawPosition(g);
             } catch (JuggleExceptionInternal jei) {
-                killAnimationThread();
+                stopAnimation();
                 System.out.println(jei.getMessage());
                 System.exit(0);
             }
+            framePainted(start);
         }
     }
 }
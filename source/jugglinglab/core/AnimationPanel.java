@@ -6,6 +6,7 @@ package jugglinglab.core;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
 import java.util.ResourceBundle;
@@ -22,11 +23,12 @@ import jugglinglab.renderer.Renderer2D;
 import jugglinglab.util.*;
 
 
-// This class creates the juggling animation on screen. It spawns a thread
-// that loops over time and draws frames. It also interprets some mouse
-// interactions such as camera drag and click to pause.
+// This class creates the juggling animation on screen. A FrameScheduler
+// advances the animation in time and requests each frame to be drawn. It
+// also interprets some mouse interactions such as camera drag and click to
+// pause.
 
-public class AnimationPanel extends JPanel implements Runnable {
+public class AnimationPanel extends JPanel {
     static final ResourceBundle guistrings = jugglinglab.JugglingLab.guistrings;
     static final ResourceBundle errorstrings = jugglinglab.JugglingLab.errorstrings;
     static final double snapangle = Math.toRadians(8.0);
@@ -34,7 +36,7 @@ public class AnimationPanel extends JPanel implements Runnable {
     protected Animator anim;
     protected AnimationPrefs jc;
 
-    protected Thread engine;
+    protected FrameScheduler scheduler;
     protected boolean engineRunning;
     protected boolean enginePaused;
     protected boolean engineAnimating;
@@ -42,6 +44,21 @@ public class AnimationPanel extends JPanel implements Runnable {
     public boolean writingGIF;
     public String message;
 
+    // frames rendered ahead of time, if available
+    protected volatile PrerenderedAnimation prerender;
+    protected final Object prerender_lock = new Object();  // for the following
+    protected boolean prerender_held;  // no prerendering while set
+
+    // for painting only what changes between frames; see paintFrame()
+    protected boolean full_paint_needed = true;
+    protected boolean painting_frame;
+    protected double paint_time;
+    protected PrerenderedAnimation paint_prerender;
+    protected int paint_index;
+    // prerendered frame on screen, or -1 if it was drawn live
+    protected PrerenderedAnimation screen_prerender;
+    protected int screen_index = -1;
+
     protected Clip catchclip;
     protected Clip bounceclip;
 
@@ -62,6 +79,7 @@ public class AnimationPanel extends JPanel implements Runnable {
         setOpaque(true);
         loadAudioClips();
         initHandlers();
+        initShowingHandler();
     }
 
     protected void loadAudioClips() {
@@ -121,12 +139,11 @@ public class AnimationPanel extends JPanel implements Runnable {
                     return;
                 dragging_camera = false;
 
-                if (!engineAnimating && engine != null && engine.isAlive()) {
+                if (!engineAnimating && engineRunning) {
                     setPaused(!enginePaused);
                     return;
                 }
-                if (me.getX() == startx && me.getY() == starty &&
-                                engine != null && engine.isAlive()) {
+                if (me.getX() == startx && me.getY() == starty && engineRunning) {
                     setPaused(!enginePaused);
                     getParent().dispatchEvent(me);
                 }
@@ -223,6 +240,21 @@ public class AnimationPanel extends JPanel implements Runnable {
         });
     }
 
+    // Pause the animation while it isn't showing on screen (e.g., its window
+    // is closed or it's in a hidden tab)
+    protected void initShowingHandler() {
+        addHierarchyListener(new HierarchyListener() {
+            @Override
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) == 0)
+                    return;
+                FrameScheduler fs = scheduler;
+                if (fs != null)
+                    fs.setShowing(isShowing());
+            }
+        });
+    }
+
     protected double[] snapCamera(double[] ca) {
         double[] result = new double[2];
         result[0] = ca[0];
@@ -266,12 +298,24 @@ public class AnimationPanel extends JPanel implements Runnable {
     public void restartJuggle(JMLPattern pat, AnimationPrefs newjc)
                     throws JuggleExceptionUser, JuggleExceptionInternal {
         // Do pattern layout first so if there's an error we don't disrupt the
-        // current animation
-        if (pat != null)
-            pat.layoutPattern();
+        // current animation. Prerendering reads the pattern, so it has to
+        // stop (and not start again) until the layout is done.
+        if (pat != null) {
+            synchronized (prerender_lock) {
+                prerender_held = true;
+                disposePrerender(true);
+            }
+            try {
+                pat.layoutPattern();
+            } finally {
+                synchronized (prerender_lock) {
+                    prerender_held = false;
+                }
+            }
+        }
 
-        // stop the current animation thread, if one is running
-        killAnimationThread();
+        // stop the current animation, if one is running
+        stopAnimation();
 
         if (newjc != null)
             jc = newjc;
@@ -281,150 +325,193 @@ public class AnimationPanel extends JPanel implements Runnable {
 
         setBackground(anim.getBackground());
 
-        engine = new Thread(this);
-        engine.start();
+        startAnimation();
     }
 
     public void restartJuggle() throws JuggleExceptionUser, JuggleExceptionInternal {
         restartJuggle(null, null);
     }
 
-    @Override
-    public void run()  {
-        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-
+    protected synchronized void startAnimation() {
         engineRunning = true;       // ok to start painting
         engineAnimating = false;
 
         if (jc.mousePause)
             waspaused = jc.startPause;
 
-        try {
-            if (jc.startPause) {
-                message = guistrings.getString("Message_click_to_start");
-                repaint();
-                enginePaused = true;
-                while (enginePaused) {
-                    synchronized (this) {
-                        wait();
-                    }
-                }
-            }
+        if (jc.startPause) {
+            // beginAnimating() is called when unpaused
+            message = guistrings.getString("Message_click_to_start");
+            enginePaused = true;
+            repaint();
+            return;
+        }
 
-            message = null;
+        beginAnimating();
+    }
 
-            long real_time_start = System.currentTimeMillis();
-            long real_time_wait;
-            double oldtime, newtime;
+    // Call with `this` locked
+    protected void beginAnimating() {
+        message = null;
 
-            if (jc.mousePause) {
-                if (outside_valid)
-                    setPaused(outside);
-                else
-                    setPaused(true);    // assume mouse is outside animator, if not known
-                waspaused = false;
-            }
+        if (jc.mousePause) {
+            // assume mouse is outside animator, if not known
+            enginePaused = (outside_valid ? outside : true);
+            waspaused = false;
+        }
 
-            engineAnimating = true;
+        engineAnimating = true;
+        setTime(anim.pat.getLoopStartTime());
+        updatePrerender();
 
-            while (true)  {
-                setTime(anim.pat.getLoopStartTime());
+        scheduler = new FrameScheduler(this, anim.real_interval_millis);
+        if (enginePaused)
+            repaint();
+        else
+            scheduler.start();
+    }
 
-                for (int i = 0; getTime() < (anim.pat.getLoopEndTime() -
-                                    0.5 * anim.sim_interval_secs); i++) {
-                    repaint();
-                    real_time_wait = anim.real_interval_millis -
-                                (System.currentTimeMillis() - real_time_start);
-
-                    if (real_time_wait > 0)
-                        Thread.sleep(real_time_wait);
-                    else if (engine == null || engine.interrupted())
-                        throw new InterruptedException();
-
-                    real_time_start = System.currentTimeMillis();
-
-                    while (enginePaused) {
-                        synchronized (this) {
-                            wait();
-                        }
-                    }
-
-                    oldtime = getTime();
-                    setTime(getTime() + anim.sim_interval_secs);
-                    newtime = getTime();
-
-                    if (jc.catchSound && catchclip != null) {
-                        // use synchronized here to prevent editing actions in
-                        // EditLadderDiagram from creating data consistency problems
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathCatchVolume(path, oldtime, newtime) > 0.0) {
-                                    // do audio playback on the EDT -- not strictly
-                                    // necessary but it seems to work better on Linux
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (catchclip.isActive())
-                                                catchclip.stop();
-                                            catchclip.setFramePosition(0);
-                                            catchclip.start();
-                                        }
-                                    });
-                                }
-                            }
-                        }
-                    }
-                    if (jc.bounceSound && bounceclip != null) {
-                        synchronized (anim.pat) {
-                            for (int path = 1; path <= anim.pat.getNumberOfPaths(); path++) {
-                                if (anim.pat.getPathBounceVolume(path, oldtime, newtime) > 0.0) {
-                                    SwingUtilities.invokeLater(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (bounceclip.isActive())
-                                                bounceclip.stop();
-                                            bounceclip.setFramePosition(0);
-                                            bounceclip.start();
-                                        }
-                                    });
-                                }
-                            }
-                        }
-                    }
-                }
-                anim.advanceProps();
-            }
-        } catch (InterruptedException ie) {
-            return;
+    // Advance the animation by one frame. Called from the FrameScheduler.
+    protected void advanceFrame() {
+        double oldtime = getTime();
+        setTime(getTime() + anim.sim_interval_secs);
+        boolean endofloop = (getTime() >= anim.pat.getLoopEndTime() -
+                                           0.5 * anim.sim_interval_secs);
+
+        AudioTimeline audio = anim.getAudioTimeline();
+        if (audio != null) {
+            // at the end of a loop, include everything up to the start of
+            // the next one
+            double newtime = (endofloop ? audio.getLoopEndTime() : getTime());
+            int events = audio.getEvents(oldtime, newtime);
+
+            if (jc.catchSound && (events & AudioTimeline.EVENT_CATCH) != 0)
+                playClip(catchclip);
+            if (jc.bounceSound && (events & AudioTimeline.EVENT_BOUNCE) != 0)
+                playClip(bounceclip);
+        }
+
+        // start the next loop of the pattern
+        if (endofloop) {
+            anim.advanceProps();
+            setTime(anim.pat.getLoopStartTime());
+            updatePrerender();
         }
     }
 
-    // stop the current animation thread, if one is running
-    protected void killAnimationThread() {
-        try {
-            if (engine != null && engine.isAlive()) {
-                engine.interrupt();
-                engine.join();
-            }
-        } catch (InterruptedException ie) {
+    protected void playClip(final Clip clip) {
+        if (clip == null)
             return;
-        } finally {
-            engine = null;
-            engineRunning = false;
-            enginePaused = false;
-            engineAnimating = false;
-            message = null;
+
+        // do audio playback on the EDT -- not strictly
+        // necessary but it seems to work better on Linux
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (clip.isActive())
+                    clip.stop();
+                clip.setFramePosition(0);
+                clip.start();
+            }
+        });
+    }
+
+    // Start rendering frames ahead of time if they're missing or out of date,
+    // and we can. Called from the animation thread at the start of each loop,
+    // so that the frames aren't restarted on every change while the view is
+    // being adjusted.
+    protected void updatePrerender() {
+        synchronized (prerender_lock) {
+            PrerenderedAnimation pr = prerender;
+            if (pr != null) {
+                if (pr.isValidFor(anim))
+                    return;
+                prerender = null;
+                pr.dispose();
+            }
+
+            if (prerender_held || !isPrerenderAllowed())
+                return;
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            if (gc == null)
+                return;
+            prerender = PrerenderedAnimation.start(anim, gc);
+        }
+    }
+
+    // Subclasses that change the pattern or draw more than the animation
+    // should return false
+    protected boolean isPrerenderAllowed() {
+        return (Constants.PRERENDER_ANIMATION && !writingGIF && !dragging_camera);
+    }
+
+    // Returns the prerendered frames if they can be shown now, or null to
+    // draw live
+    protected PrerenderedAnimation getPrerender() {
+        PrerenderedAnimation pr = prerender;
+        if (pr == null || dragging_camera || !pr.isValidFor(anim))
+            return null;
+        return pr;
+    }
+
+    protected int getPrerenderedIndex(PrerenderedAnimation pr, double time) {
+        return (pr == null ? -1 : pr.getFrameIndex(time, anim.getAnimPropNum()));
+    }
+
+    // Discard the prerendered frames, waiting for the rendering thread to stop
+    // working on them if `wait` is true
+    protected void disposePrerender(boolean wait) {
+        synchronized (prerender_lock) {
+            PrerenderedAnimation pr = prerender;
+            prerender = null;
+            if (pr == null)
+                return;
+            if (wait)
+                pr.disposeAndWait();
+            else
+                pr.dispose();
         }
     }
 
+    // stop the current animation, if one is running
+    protected synchronized void stopAnimation() {
+        if (scheduler != null) {
+            scheduler.stop();
+            if (Constants.DEBUG_FRAME_PACING)
+                System.out.println(getName() + ": " + scheduler.getStatistics());
+        }
+        disposePrerender(false);
+        scheduler = null;
+        engineRunning = false;
+        enginePaused = false;
+        engineAnimating = false;
+        message = null;
+    }
+
     public boolean isPaused() {
         return enginePaused;
     }
 
     public synchronized void setPaused(boolean wanttopause) {
-        if (enginePaused == true && wanttopause == false)
-            notify();       // wake up wait() in run() method
+        boolean resume = (enginePaused && !wanttopause);
         enginePaused = wanttopause;
+
+        if (!engineRunning)
+            return;
+        if (!engineAnimating) {
+            if (resume)
+                beginAnimating();  // after "click to start"
+            return;
+        }
+        if (wanttopause)
+            scheduler.stop();
+        else
+            scheduler.start();
+    }
+
+    // Frame pacing counters, for diagnostics; null if not animating
+    public FrameScheduler getFrameScheduler() {
+        return scheduler;
     }
 
     public double getTime() {
@@ -443,6 +530,68 @@ public class AnimationPanel extends JPanel implements Runnable {
         anim.setCameraAngle(ca);
     }
 
+    // Paint the current frame now, only where it differs from the frame on
+    // screen when that is known. Called on the event dispatch thread by the
+    // FrameScheduler.
+    protected void paintFrame() {
+        if (!isShowing())
+            return;
+
+        double time = getTime();
+        PrerenderedAnimation pr = getPrerender();
+        int index = getPrerenderedIndex(pr, time);
+        Rectangle area = null;
+        if (isPartialPaintAllowed() && !full_paint_needed && message == null &&
+                    engineRunning && !writingGIF) {
+            if (index >= 0) {
+                // found when the frames were rendered
+                if (pr == screen_prerender)
+                    area = pr.getChangedArea(index, screen_index);
+            } else if (screen_index < 0) {
+                // the renderer only knows what it drew itself
+                try {
+                    area = anim.getChangedArea(time);
+                } catch (JuggleExceptionInternal jei) {
+                    area = null;
+                }
+            }
+        }
+
+        Rectangle all = new Rectangle(0, 0, getWidth(), getHeight());
+        area = (area == null ? all : area.intersection(all));
+        if (area.isEmpty())
+            return;
+
+        FrameScheduler fs = scheduler;
+        if (fs != null)
+            fs.pixelsFilled((long)area.width * area.height);
+
+        // paint the frame for the time the area was found for, even if the
+        // animation moves on in the meantime
+        paint_time = time;
+        paint_prerender = pr;
+        paint_index = index;
+        painting_frame = true;
+        try {
+            paintImmediately(area);
+        } finally {
+            painting_frame = false;
+        }
+    }
+
+    // Subclasses that draw more than the animation should return false
+    protected boolean isPartialPaintAllowed() {
+        return (Constants.PARTIAL_REPAINT && !dragging_camera);
+    }
+
+    // Let the scheduler know a frame was painted, starting at time `start`
+    // from System.nanoTime(). Subclasses must call this from paintComponent().
+    protected void framePainted(long start) {
+        FrameScheduler fs = scheduler;
+        if (fs != null)
+            fs.framePainted(System.nanoTime() - start);
+    }
+
     protected void drawString(String message, Graphics g) {
         FontMetrics fm = g.getFontMetrics();
         int message_width = fm.stringWidth(message);
@@ -481,7 +630,7 @@ public class AnimationPanel extends JPanel implements Runnable {
     }
 
     public void disposeAnimation() {
-        killAnimationThread();
+        stopAnimation();
     }
 
     // javax.swing.JComponent methods
@@ -491,13 +640,48 @@ public class AnimationPanel extends JPanel implements Runnable {
         if (message != null)
             drawString(message, g);
         else if (engineRunning && !writingGIF) {
+            long start = System.nanoTime();
+            double time = getTime();
+            PrerenderedAnimation pr = getPrerender();
+            int index = getPrerenderedIndex(pr, time);
+            if (painting_frame) {
+                time = paint_time;
+                pr = paint_prerender;
+                index = paint_index;
+            }
+            Rectangle clip = g.getClipBounds();
+            BufferedImage frame = (index < 0 ? null : pr.getFrame(index));
             try {
-                anim.drawFrame(getTime(), g, dragging_camera, true);
+                if (frame != null) {
+                    // copy just the area being painted
+                    Rectangle r = (clip == null ? new Rectangle(0, 0, frame.getWidth(),
+                                                  frame.getHeight()) : clip);
+                    g.drawImage(frame, r.x, r.y, r.x + r.width, r.y + r.height,
+                                r.x, r.y, r.x + r.width, r.y + r.height, null);
+                } else
+                    anim.drawFrame(time, g, dragging_camera, true);
             } catch (JuggleExceptionInternal jei) {
-                killAnimationThread();
+                stopAnimation();
                 System.out.println(jei.getMessage());
                 System.exit(0);
             }
-        }
+            framePainted(start);
+
+            // The renderer compares each frame with the last one it drew, so
+            // after drawing only part of a frame (other than the changed area
+            // from paintFrame()), the next frame must be painted in full. The
+            // same goes for the camera axes.
+            boolean partial = (clip != null && !clip.contains(0, 0, getWidth(), getHeight()));
+            full_paint_needed = (dragging_camera || (partial && !painting_frame));
+
+            if (frame != null && !full_paint_needed) {
+                screen_prerender = pr;
+                screen_index = index;
+            } else {
+                screen_prerender = null;
+                screen_index = -1;
+            }
+        } else
+            full_paint_needed = true;
     }
 }
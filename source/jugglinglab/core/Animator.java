@@ -8,6 +8,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -21,10 +22,12 @@ import javax.imageio.stream.MemoryCacheImageOutputStream;
 import org.w3c.dom.Node;
 
 import jugglinglab.jml.*;
+import jugglinglab.renderer.BakedPattern;
 import jugglinglab.renderer.Renderer;
 import jugglinglab.renderer.Renderer2D;
 import jugglinglab.util.*;
 
+import gifwriter.GIFAnimEncoder;
 // import gifwriter.GIFAnimWriter;
 
 
@@ -51,6 +54,17 @@ public class Animator {
 
     protected Dimension dim;
 
+    // precomputed positions for each animation frame; see bakeAnimation()
+    protected boolean bake_enabled = true;
+    protected BakedPattern baked;
+
+    // times of catch and bounce sounds, if either is on
+    protected AudioTimeline audio;
+    protected static final long MAX_BAKED_BYTES = 16 * 1024 * 1024;
+
+    // number of threads rendering frames for export; 0 for one per processor
+    protected int export_threads;
+
 
     public Animator() {
         camangle = new double[2];
@@ -154,13 +168,22 @@ public class Animator {
 
     public void drawFrame(double sim_time, Graphics g, boolean draw_axes, boolean draw_background)
                         throws JuggleExceptionInternal {
-        if (draw_background)
-            drawBackground(g);
+        drawFrame(sim_time, g, draw_axes, draw_background, ren1, ren2, animpropnum);
+    }
+
+    // Version of the above that draws with the given renderers and prop
+    // assignments, e.g. from copyRenderer() on another thread
+    protected void drawFrame(double sim_time, Graphics g, boolean draw_axes,
+                             boolean draw_background, Renderer ren1, Renderer ren2,
+                             int[] animpropnum) throws JuggleExceptionInternal {
+        if (draw_background) {
+            g.setColor(ren1.getBackground());
+            g.fillRect(0, 0, dim.width, dim.height);
+        }
 
         if (jc.stereo) {
-            ren1.drawFrame(sim_time, animpropnum, jc.hideJugglers,
-                                g.create(0, 0, dim.width / 2, dim.height));
-            ren2.drawFrame(sim_time, animpropnum, jc.hideJugglers,
+            ren1.drawStereoFrame(sim_time, animpropnum, jc.hideJugglers, ren2,
+                                g.create(0, 0, dim.width / 2, dim.height),
                                 g.create(dim.width / 2, 0, dim.width / 2, dim.height));
         } else {
             ren1.drawFrame(sim_time, animpropnum, jc.hideJugglers, g);
@@ -205,6 +228,53 @@ public class Animator {
         }
     }
 
+    // Area of the display that changes going from the last frame drawn to
+    // the frame at `sim_time`, or null if unknown. An empty rectangle means
+    // nothing changes. The result may be reused by the next call.
+    public Rectangle getChangedArea(double sim_time) throws JuggleExceptionInternal {
+        if (jc.stereo)
+            return ren1.getStereoChangedArea(sim_time, animpropnum, jc.hideJugglers, ren2, dim);
+        return ren1.getChangedArea(sim_time, animpropnum, jc.hideJugglers);
+    }
+
+    // Create a renderer set up the same way as `ren1`, or `ren2` if `second`
+    // is true, so frames can be drawn on another thread
+    protected Renderer copyRenderer(boolean second) {
+        Renderer src = (second ? ren2 : ren1);
+        Renderer ren = new Renderer2D();
+        ren.setRenderLegs(jc.legs);
+        ren.setPattern(pat);
+        ren.setGround(isGroundShown());
+
+        Dimension d = new Dimension(dim);
+        if (jc.stereo)
+            d.width /= 2;
+        ren.initDisplay(d, jc.border, overallmax, overallmin);
+        ren.setZoomLevel(src.getZoomLevel());
+        ren.setCameraAngle(src.getCameraAngle());
+        ren.setBakedPattern(src.getBakedPattern());
+        return ren;
+    }
+
+    protected boolean isGroundShown() {
+        return (jc.showGround == AnimationPrefs.GROUND_ON
+                || (jc.showGround == AnimationPrefs.GROUND_AUTO && pat.isBouncePattern()));
+    }
+
+    // Prop assignments for the next `loops` loops of the pattern, starting
+    // with the current one, as advanceProps() would make them
+    public int[][] getPropAssignments(int loops) {
+        int paths = pat.getNumberOfPaths();
+        int[][] result = new int[loops][];
+        result[0] = animpropnum.clone();
+        for (int i = 1; i < loops; i++) {
+            result[i] = new int[paths];
+            for (int k = 0; k < paths; k++)
+                result[i][invpathperm.getMapping(k + 1) - 1] = result[i - 1][k];
+        }
+        return result;
+    }
+
     // After each cycle through the pattern we need to assign props to new paths,
     // to maintain continuity. After pat.getPeriod() times through this the props
     // will return to their original assignments.
@@ -221,8 +291,7 @@ public class Animator {
     // Rescales the animator so that the pattern and key parts of the juggler
     // are visible. Call this whenever the pattern changes.
     public void initAnimator() {
-        boolean sg = (jc.showGround == AnimationPrefs.GROUND_ON
-                || (jc.showGround == AnimationPrefs.GROUND_AUTO && pat.isBouncePattern()));
+        boolean sg = isGroundShown();
         ren1.setGround(sg);
         if (jc.stereo)
             ren2.setGround(sg);
@@ -241,6 +310,56 @@ public class Animator {
         for (int i = 0; i < pat.getNumberOfPaths(); i++)
             animpropnum[i] = pat.getPropAssignment(i + 1);
         invpathperm = pat.getPathPermutation().getInverse();
+
+        baked = (bake_enabled ? bakeAnimation(sim_interval_secs, num_frames) : null);
+        setBakedPattern(baked);
+
+        audio = (jc.catchSound || jc.bounceSound ? new AudioTimeline(pat) : null);
+    }
+
+    public AudioTimeline getAudioTimeline() {
+        return audio;
+    }
+
+    // Whether to precompute the pattern's positions at each animation frame
+    // after layout. This is on by default.
+    public void setBakingEnabled(boolean enabled) {
+        bake_enabled = enabled;
+        if (pat == null || ren1 == null)
+            return;
+        baked = (bake_enabled ? bakeAnimation(sim_interval_secs, num_frames) : null);
+        setBakedPattern(baked);
+    }
+
+    public boolean isBakingEnabled() {
+        return bake_enabled;
+    }
+
+    // Sample all prop and juggler positions at every frame time over one loop
+    // of the pattern. Frames repeat each loop (props are reassigned to paths
+    // with advanceProps()), so the renderers can then draw any frame from
+    // these tables.
+    //
+    // Returns null if the tables would be too large, or if there's a problem
+    // evaluating the pattern; in that case the renderers evaluate the pattern
+    // directly and report any errors when drawing.
+    protected BakedPattern bakeAnimation(double interval, int frames) {
+        if (frames <= 0 || BakedPattern.getSizeEstimate(pat, frames) > MAX_BAKED_BYTES)
+            return null;
+
+        try {
+            return new BakedPattern(pat, pat.getLoopStartTime(), interval, frames);
+        } catch (JuggleExceptionInternal jei) {
+            if (jugglinglab.core.Constants.DEBUG_LAYOUT)
+                System.out.println("Could not bake animation: " + jei.getMessage());
+            return null;
+        }
+    }
+
+    protected void setBakedPattern(BakedPattern bp) {
+        ren1.setBakedPattern(bp);
+        if (ren2 != null)
+            ren2.setBakedPattern(bp);
     }
 
     public double getZoomLevel() {
@@ -368,11 +487,24 @@ public class Animator {
         return jc;
     }
 
+    // Set the number of threads used to render frames in writeGIF() and
+    // writeFrames(), for example to 1 when exporting several patterns at once.
+    // 0 means one per processor.
+    public void setExportThreads(int threads) {
+        export_threads = threads;
+    }
+
 
-    // There are two versions of writeGIF, one that uses Java's ImageIO library
-    // and a second (much older) version that uses a standalone GIF writer that
-    // we wrote. The ImageIO version is slower but does a better job of building
-    // the GIF colormap so we use that one for now.
+    // There are three versions of writeGIF. The first uses our GIFAnimEncoder,
+    // which writes one global color table and encodes only the changed part
+    // of each frame. The second uses Java's ImageIO library, which is slower
+    // and writes much larger files; it is kept for comparison. The third
+    // (much older, commented out) uses a standalone GIF writer that had
+    // trouble building the colormap.
+    //
+    // The first two write each frame through to `os` as it's encoded, and
+    // close `os` when done (also on error or cancel). Buffering is up to the
+    // encoder, so `os` doesn't need to be buffered.
     //
     // Note: The GIF header contains the delay time between frames in terms of
     // hundredths of a second. This is an integer quantity, so only `fps` values
@@ -382,26 +514,72 @@ public class Animator {
                          Animator.WriteGIFMonitor wgm,
                          double fps)
                 throws IOException, JuggleExceptionInternal {
+        // reset prop assignments so we'll generate an identical GIF every time
+        for (int i = 0; i < pat.getNumberOfPaths(); i++)
+            animpropnum[i] = pat.getPropAssignment(i + 1);
+
+        // our own local versions of these three fps-related quantities
+        int gif_num_frames = getExportFrameCount(fps);
+        double gif_sim_interval_secs = (pat.getLoopEndTime() - pat.getLoopStartTime()) /
+                                gif_num_frames;
+        double gif_real_interval_millis = (long)(1000.0 * gif_sim_interval_secs * jc.slowdown);
+
+        int totalframes = pat.getPeriod() * gif_num_frames;
+        int framecount = 0;
+
+        // delay time is embedded in GIF header in terms of hundredths of a second
+        int delay = (int)(0.5 + gif_real_interval_millis / 10);
+        GIFAnimEncoder enc = new GIFAnimEncoder(os, dim.width, dim.height, delay);
+
+        // if the GIF frame rate differs from the animation's, bake a separate
+        // set of tables for the GIF frame times
+        if (bake_enabled && (baked == null || baked.getNumberOfFrames() != gif_num_frames))
+            setBakedPattern(bakeAnimation(gif_sim_interval_secs, gif_num_frames));
+
+        // frames are rendered in parallel on background threads, then encoded
+        // here in sequence
+        FrameRenderQueue queue = new FrameRenderQueue(this, gif_sim_interval_secs,
+                                                      gif_num_frames);
+
+        try {
+            while (framecount < totalframes) {
+                enc.addFrame(queue.takeFrame());
+                // send each frame on as soon as it's encoded, so memory use
+                // stays flat and the start of the file reaches its
+                // destination while later frames are still rendering
+                enc.flush();
+                framecount++;
+
+                if (wgm != null) {
+                    wgm.update(framecount, totalframes);
+                    if (wgm.isCanceled())
+                        return;
+                }
+            }
+            enc.finish();
+        } finally {
+            queue.close();
+            setBakedPattern(baked);
+            os.close();
+        }
+    }
+
+    // Version that uses Java's ImageIO library
+    public void writeGIFImageIO(OutputStream os,
+                                Animator.WriteGIFMonitor wgm,
+                                double fps)
+                throws IOException, JuggleExceptionInternal {
         ImageWriter iw = ImageIO.getImageWritersByFormatName("gif").next();
         ImageOutputStream ios = new MemoryCacheImageOutputStream(os);
         iw.setOutput(ios);
         iw.prepareWriteSequence(null);
 
-        BufferedImage image = new BufferedImage(dim.width, dim.height,
-                                                BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = image.createGraphics();
-        // antialiased rendering creates too many distinct color values for
-        // GIF to handle well
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                           RenderingHints.VALUE_ANTIALIAS_OFF);
-
         // reset prop assignments so we'll generate an identical GIF every time
         for (int i = 0; i < pat.getNumberOfPaths(); i++)
             animpropnum[i] = pat.getPropAssignment(i + 1);
 
         // our own local versions of these three fps-related quantities
-        int gif_num_frames = (int)(0.5 + (pat.getLoopEndTime() - pat.getLoopStartTime()) *
-                                jc.slowdown * fps);
+        int gif_num_frames = getExportFrameCount(fps);
         double gif_sim_interval_secs = (pat.getLoopEndTime() - pat.getLoopStartTime()) /
                                 gif_num_frames;
         double gif_real_interval_millis = (long)(1000.0 * gif_sim_interval_secs * jc.slowdown);
@@ -415,11 +593,19 @@ public class Animator {
         ImageWriteParam iwp = iw.getDefaultWriteParam();
         IIOMetadata metadata = null;
 
-        for (int i = 0; i < pat.getPeriod(); i++)  {
-            double time = pat.getLoopStartTime();
+        // if the GIF frame rate differs from the animation's, bake a separate
+        // set of tables for the GIF frame times
+        if (bake_enabled && (baked == null || baked.getNumberOfFrames() != gif_num_frames))
+            setBakedPattern(bakeAnimation(gif_sim_interval_secs, gif_num_frames));
 
-            for (int j = 0; j < gif_num_frames; j++) {
-                drawFrame(time, g, false, true);
+        // frames are rendered in parallel on background threads, then encoded
+        // here in sequence
+        FrameRenderQueue queue = new FrameRenderQueue(this, gif_sim_interval_secs,
+                                                      gif_num_frames);
+
+        try {
+            while (framecount < totalframes) {
+                BufferedImage image = queue.takeFrame();
 
                 // after the second frame all subsequent frames have identical metadata
                 if (framecount < 2) {
@@ -430,30 +616,29 @@ public class Animator {
 
                 IIOImage ii = new IIOImage(image, null, metadata);
                 iw.writeToSequence(ii, (ImageWriteParam) null);
+                // release the cached bytes to `os` so the cache doesn't grow
+                // with the size of the file
+                ios.flush();
 
-                time += gif_sim_interval_secs;
                 framecount++;
 
                 if (wgm != null) {
                     wgm.update(framecount, totalframes);
-                    if (wgm.isCanceled()) {
-                        ios.close();
-                        os.close();
+                    if (wgm.isCanceled())
                         return;
-                    }
                 }
             }
-
-            advanceProps();
+            iw.endWriteSequence();
+        } finally {
+            queue.close();
+            setBakedPattern(baked);
+            iw.dispose();
+            ios.close();
+            os.close();
         }
-
-        g.dispose();
-        iw.endWriteSequence();
-        ios.close();
-        os.close();
     }
 
-    // Helper method for writeGIF() above
+    // Helper method for writeGIFImageIO() above
     // Adapted from https://community.oracle.com/thread/1264385
     private static void configureGIFMetadata(IIOMetadata meta,
                                             String delayTime,
@@ -508,6 +693,90 @@ public class Animator {
     }
 
 
+    // Write the animation as a stream of video frames (see FrameEncoder for
+    // the formats), rendered with antialiasing. Frames are rendered in
+    // parallel and written in order as each is ready. Closes `os` when done.
+
+    public void writeFrames(OutputStream os,
+                            int format,
+                            Animator.WriteGIFMonitor wgm,
+                            double fps)
+                throws IOException, JuggleExceptionInternal {
+        double rate = getExportFrameRate(fps);
+
+        // an error closing the stream doesn't replace one from writing
+        try (OutputStream out = os) {
+            writeFrames(new FrameEncoder(out, format, dim.width, dim.height, rate),
+                        wgm, fps);
+        }
+    }
+
+    // Write the animation as a sequence of numbered PNG files. `pathformat`
+    // is as described in FrameEncoder.
+
+    public void writeFrames(String pathformat,
+                            Animator.WriteGIFMonitor wgm,
+                            double fps)
+                throws IOException, JuggleExceptionInternal {
+        writeFrames(new FrameEncoder(pathformat, dim.width, dim.height), wgm, fps);
+    }
+
+    protected void writeFrames(FrameEncoder enc,
+                               Animator.WriteGIFMonitor wgm,
+                               double fps)
+                throws IOException, JuggleExceptionInternal {
+        // reset prop assignments so we'll generate identical output every time
+        for (int i = 0; i < pat.getNumberOfPaths(); i++)
+            animpropnum[i] = pat.getPropAssignment(i + 1);
+
+        int export_num_frames = getExportFrameCount(fps);
+        double export_sim_interval_secs = (pat.getLoopEndTime() - pat.getLoopStartTime()) /
+                                export_num_frames;
+
+        int totalframes = pat.getPeriod() * export_num_frames;
+        int framecount = 0;
+
+        if (bake_enabled && (baked == null || baked.getNumberOfFrames() != export_num_frames))
+            setBakedPattern(bakeAnimation(export_sim_interval_secs, export_num_frames));
+
+        FrameRenderQueue queue = new FrameRenderQueue(this, export_sim_interval_secs,
+                                                      export_num_frames, true);
+        boolean finished = false;
+
+        try {
+            while (framecount < totalframes) {
+                enc.addFrame(queue.takeFrame());
+                framecount++;
+
+                if (wgm != null) {
+                    wgm.update(framecount, totalframes);
+                    if (wgm.isCanceled())
+                        return;
+                }
+            }
+            enc.finish();
+            finished = true;
+        } finally {
+            queue.close();
+            setBakedPattern(baked);
+            if (!finished)
+                enc.abort();
+        }
+    }
+
+    // Number of frames in each loop of the pattern when exporting at `fps`
+    protected int getExportFrameCount(double fps) {
+        return Math.max(1, (int)(0.5 + (pat.getLoopEndTime() - pat.getLoopStartTime()) *
+                                jc.slowdown * fps));
+    }
+
+    // Actual frame rate of the exported frames when asking for `fps`, since
+    // each loop of the pattern gets a whole number of frames
+    public double getExportFrameRate(double fps) {
+        return getExportFrameCount(fps) /
+                    ((pat.getLoopEndTime() - pat.getLoopStartTime()) * jc.slowdown);
+    }
+
     // Version that uses our own standalone GIF writer. It has trouble building
     // the color map when there are many individual colors, for example with the
     // image prop.
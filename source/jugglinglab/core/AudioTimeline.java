@@ -0,0 +1,122 @@
+// AudioTimeline.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import jugglinglab.jml.JMLPattern;
+import jugglinglab.jml.PathLink;
+import jugglinglab.path.BouncePath;
+import jugglinglab.path.Path;
+
+
+// The times of all the catches and bounces in one loop of a pattern, for
+// playing sounds during animation.
+//
+// This is built once after layout, so during animation the sounds for each
+// frame are found without going back to the pattern (and without contending
+// with the editor for its lock). Lookups move a cursor
+// forward through the sorted times, so an animation playing in order costs
+// time proportional to the number of events in each frame.
+//
+// The cursor makes this unsafe to share between threads; each animation
+// should have its own.
+
+public class AudioTimeline {
+    // event types, as bit flags
+    public static final int EVENT_CATCH = 1;
+    public static final int EVENT_BOUNCE = 2;
+
+    protected double loop_start;
+    protected double loop_end;
+    protected double[] times;  // sorted, in [loop_start, loop_end)
+    protected int[] types;
+    protected int cursor;  // index of the first event after the last lookup
+
+
+    public AudioTimeline(JMLPattern pat) {
+        loop_start = pat.getLoopStartTime();
+        loop_end = pat.getLoopEndTime();
+
+        ArrayList<double[]> events = new ArrayList<double[]>();
+        ArrayList<ArrayList<PathLink>> pathlinks = pat.getPathLinks();
+
+        // The path links extend past the ends of the loop. Each event in the
+        // loop happens on exactly one path, so taking the ones in the loop
+        // from every path gets each one once.
+        for (ArrayList<PathLink> links : pathlinks) {
+            for (int i = 0; i < links.size(); i++) {
+                PathLink pl = links.get(i);
+
+                // a catch is the start of time in the hand, after time in the air
+                if (i > 0 && pl.isInHand() && !links.get(i - 1).isInHand())
+                    addEvent(events, pl.getStartEvent().getT(), EVENT_CATCH);
+
+                Path p = pl.getPath();
+                if (p instanceof BouncePath) {
+                    for (double t : ((BouncePath)p).getBounceTimes())
+                        addEvent(events, t, EVENT_BOUNCE);
+                }
+            }
+        }
+
+        // sort by time
+        double[][] sorted = events.toArray(new double[events.size()][]);
+        Arrays.sort(sorted, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+
+        times = new double[sorted.length];
+        types = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            times[i] = sorted[i][0];
+            types[i] = (int)sorted[i][1];
+        }
+    }
+
+    protected void addEvent(ArrayList<double[]> events, double t, int type) {
+        if (t >= loop_start && t < loop_end)
+            events.add(new double[] { t, type });
+    }
+
+    // Returns the event types (bitwise OR of the flags above) for the events
+    // in the interval [time1, time2)
+    public int getEvents(double time1, double time2) {
+        // move the cursor if the lookups aren't continuing from where the
+        // last one left off, e.g. at the start of a loop
+        if ((cursor > 0 && times[cursor - 1] >= time1) ||
+                    (cursor < times.length && times[cursor] < time1)) {
+            int i = Arrays.binarySearch(times, time1);
+            if (i < 0)
+                cursor = -i - 1;
+            else {
+                // back up to the first event at exactly time1
+                while (i > 0 && times[i - 1] >= time1)
+                    i--;
+                cursor = i;
+            }
+        }
+
+        int result = 0;
+        while (cursor < times.length && times[cursor] < time2) {
+            result |= types[cursor];
+            cursor++;
+        }
+        return result;
+    }
+
+    public double getLoopEndTime() {
+        return loop_end;
+    }
+
+    public int getNumberOfEvents() {
+        return times.length;
+    }
+}
@@ -0,0 +1,358 @@
+// BatchRenderer.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import org.xml.sax.SAXException;
+
+import jugglinglab.jml.*;
+import jugglinglab.util.*;
+
+
+// Renders animated GIFs for every pattern in one or more files, from the
+// command line with `jlab batch`. This runs in a single JVM so that startup,
+// resource loading, and JIT warmup are paid once for the whole batch.
+//
+// Input files can be JML patterns, JML pattern lists, or plain text files with
+// one siteswap per line (e.g., the output of `jlab gen`). Each pattern list
+// line uses its own animation preferences if it has them.
+//
+// Patterns are loaded serially (the notation parsers aren't thread-safe) and
+// then laid out and rendered in parallel on the shared worker pool, one
+// pattern per thread. A hash of each pattern's JML and animation preferences
+// is kept in the output directory, and outputs whose hash is unchanged since
+// the last run are skipped.
+
+public class BatchRenderer {
+    protected static final String HASH_FILE = "batch_hashes.txt";
+    protected static final String SUMMARY_FILE = "batch_summary.txt";
+    protected static final double DEFAULT_FPS = 33.3;
+
+    protected PrintStream ps;
+    protected Path outdir;
+    protected AnimationPrefs defaultprefs;
+    protected ArrayList<Job> jobs = new ArrayList<Job>();
+    protected Map<String, String> hashes = new TreeMap<String, String>();
+    protected int load_errors;
+    protected long load_start;  // when the current pattern started loading
+
+
+    // Animation preferences `jc` are used for patterns that don't have their
+    // own; may be null.
+    public BatchRenderer(PrintStream ps, Path outdir, AnimationPrefs jc) {
+        this.ps = ps;
+        this.outdir = outdir;
+        defaultprefs = jc;
+    }
+
+    // Load all patterns from the given files. Patterns that fail to load are
+    // reported and skipped.
+    public void loadFiles(ArrayList<File> files) {
+        for (File file : files) {
+            String base = file.getName();
+            if (base.lastIndexOf('.') > 0)
+                base = base.substring(0, base.lastIndexOf('.'));
+
+            if (!file.getName().toLowerCase().endsWith(".jml")) {
+                loadTextFile(file, base);
+                continue;
+            }
+
+            load_start = System.nanoTime();
+            JMLParser parser = new JMLParser();
+            try {
+                parser.parse(new FileReader(file));
+            } catch (SAXException se) {
+                loadError(file.getName(), "Formatting error in JML file");
+                continue;
+            } catch (IOException ioe) {
+                loadError(file.getName(), "Problem reading JML file");
+                continue;
+            }
+
+            try {
+                if (parser.getFileType() == JMLParser.JML_PATTERN) {
+                    addJob(file.getName(), base + ".gif",
+                           new JMLPattern(parser.getTree()), null);
+                } else if (parser.getFileType() == JMLParser.JML_LIST) {
+                    JMLPatternList pl = new JMLPatternList(parser.getTree());
+                    for (int i = 0; i < pl.size(); i++) {
+                        String source = file.getName() + " line " + (i + 1);
+                        if (i > 0)
+                            load_start = System.nanoTime();
+                        try {
+                            JMLPattern pat = pl.getPatternForLine(i);
+                            if (pat != null)
+                                addJob(source, outputName(base, i + 1), pat,
+                                       pl.getAnimationPrefsForLine(i));
+                        } catch (JuggleException je) {
+                            loadError(source, je.getMessage());
+                        }
+                    }
+                } else
+                    loadError(file.getName(), "File is not valid JML");
+            } catch (JuggleException je) {
+                loadError(file.getName(), je.getMessage());
+            }
+        }
+    }
+
+    // One siteswap per line. Blank lines and lines starting with '#' are
+    // ignored. For `jlab gen` output with starting and ending sequences the
+    // pattern is the middle column.
+    protected void loadTextFile(File file, String base) {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            int linenum = 0;
+            while ((line = br.readLine()) != null) {
+                linenum++;
+                line = line.strip();
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                String[] cols = line.split("\\s+");
+                String config = cols[cols.length / 2];
+                String source = file.getName() + " line " + linenum;
+                load_start = System.nanoTime();
+                try {
+                    addJob(source, outputName(base, linenum),
+                           JMLPattern.fromBasePattern("siteswap", config), null);
+                } catch (JuggleException je) {
+                    loadError(source, je.getMessage());
+                }
+            }
+        } catch (IOException ioe) {
+            loadError(file.getName(), "Problem reading file");
+        }
+    }
+
+    protected static String outputName(String base, int line) {
+        return String.format("%s_%04d.gif", base, line);
+    }
+
+    protected void addJob(String source, String outname, JMLPattern pat,
+                          AnimationPrefs jc) throws JuggleExceptionInternal {
+        if (jc == null) {
+            if (defaultprefs != null)
+                jc = new AnimationPrefs(defaultprefs);
+            else
+                jc = new AnimationPrefs();
+        }
+
+        Job job = new Job();
+        job.source = source;
+        job.outname = outname;
+        job.pat = pat;
+        job.jc = jc;
+        // same rule as the GIF export in the application
+        job.fps = (jc.fps == AnimationPrefs.fps_def ? DEFAULT_FPS : jc.fps);
+        job.hash = JLFunc.sha256Hex(Constants.version + "\n" + jc.toString() + "\n" +
+                        job.fps + "\n" + pat.toString());
+        // converting from other notations includes a layout, which is done
+        // again and timed on its own when the job runs
+        job.load_ms = (System.nanoTime() - load_start) / 1e6;
+        jobs.add(job);
+    }
+
+    protected void loadError(String source, String message) {
+        ps.println("Error: " + source + ": " + message);
+        load_errors++;
+    }
+
+    public void run() {
+        if (jobs.size() == 0) {
+            ps.println("No patterns to render");
+            return;
+        }
+
+        try {
+            Files.createDirectories(outdir);
+        } catch (IOException ioe) {
+            ps.println("Error: Problem creating output directory " + outdir.toString());
+            return;
+        }
+        readHashes();
+
+        ps.println("Rendering " + jobs.size() + " patterns to " + outdir.toString() +
+                   " using " + WorkerPool.getNumberOfThreads() + " worker threads");
+
+        long start = System.nanoTime();
+        try {
+            WorkerPool.runAll(jobs);
+        } catch (JuggleException je) {
+            // Job.run() doesn't throw
+            ps.println("Internal Error: " + je.getMessage());
+        }
+        double elapsed_secs = (System.nanoTime() - start) / 1e9;
+
+        int rendered = 0;
+        int unchanged = 0;
+        int errors = 0;
+        for (Job job : jobs) {
+            if (job.error != null)
+                errors++;
+            else if (job.skipped)
+                unchanged++;
+            else {
+                rendered++;
+                hashes.put(job.outname, job.hash);
+            }
+        }
+        writeHashes();
+        writeSummary(elapsed_secs);
+
+        ps.println(String.format("Done in %.1f s: %d rendered, %d unchanged, %d errors",
+                                 elapsed_secs, rendered, unchanged,
+                                 errors + load_errors));
+        ps.println("Summary written to " + outdir.resolve(SUMMARY_FILE).toString());
+    }
+
+    //-------------------------------------------------------------------------
+    // Content hashes of the outputs from previous runs
+    //-------------------------------------------------------------------------
+
+    protected void readHashes() {
+        Path path = outdir.resolve(HASH_FILE);
+        if (!Files.exists(path))
+            return;
+
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0)
+                    hashes.put(line.substring(0, space), line.substring(space + 1));
+            }
+        } catch (IOException ioe) {
+            ps.println("Warning: Problem reading " + path.toString() + "; rendering all");
+            hashes.clear();
+        }
+    }
+
+    protected void writeHashes() {
+        Path path = outdir.resolve(HASH_FILE);
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(path,
+                                                StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : hashes.entrySet())
+                pw.println(entry.getKey() + " " + entry.getValue());
+        } catch (IOException ioe) {
+            ps.println("Error: Problem writing " + path.toString());
+        }
+    }
+
+    protected void writeSummary(double elapsed_secs) {
+        Path path = outdir.resolve(SUMMARY_FILE);
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(path,
+                                                StandardCharsets.UTF_8))) {
+            pw.println("status\tload_ms\tlayout_ms\trender_ms\tbytes\toutput\tsource");
+            double total_load = 0;
+            double total_layout = 0;
+            double total_render = 0;
+            long total_bytes = 0;
+
+            for (Job job : jobs) {
+                String status = (job.error != null ? "error" :
+                                 (job.skipped ? "unchanged" : "rendered"));
+                pw.println(status + "\t" + String.format("%.1f", job.load_ms) +
+                           "\t" + String.format("%.1f", job.layout_ms) +
+                           "\t" + String.format("%.1f", job.render_ms) +
+                           "\t" + job.bytes + "\t" + job.outname + "\t" + job.source +
+                           (job.error != null ? "\t" + job.error : ""));
+                total_load += job.load_ms;
+                total_layout += job.layout_ms;
+                total_render += job.render_ms;
+                total_bytes += job.bytes;
+            }
+            pw.println("total\t" + String.format("%.1f", total_load) + "\t" +
+                       String.format("%.1f", total_layout) + "\t" +
+                       String.format("%.1f", total_render) + "\t" + total_bytes +
+                       "\t" + jobs.size() + " patterns\t" +
+                       String.format("%.1f s elapsed", elapsed_secs));
+        } catch (IOException ioe) {
+            ps.println("Error: Problem writing " + path.toString());
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // One pattern to render, run on the worker pool
+    //-------------------------------------------------------------------------
+
+    protected class Job implements WorkerPool.Task {
+        public String source;
+        public String outname;
+        public JMLPattern pat;
+        public AnimationPrefs jc;
+        public double fps;
+        public String hash;
+
+        // results
+        public boolean skipped;
+        public String error;
+        public double load_ms;
+        public double layout_ms;
+        public double render_ms;
+        public long bytes;
+
+
+        @Override
+        public void run() {
+            Path outpath = outdir.resolve(outname);
+            if (hash.equals(hashes.get(outname)) && Files.exists(outpath)) {
+                skipped = true;
+                pat = null;
+                return;
+            }
+
+            // write to a temporary file first, so an interrupted run doesn't
+            // leave a partial file that looks complete
+            Path temppath = outdir.resolve(outname + ".part");
+            try {
+                // lay out from scratch, so the time is comparable for all inputs
+                pat.setNeedsLayout();
+                long start = System.nanoTime();
+                pat.layoutPattern();
+                long laidout = System.nanoTime();
+
+                Animator anim = new Animator();
+                // patterns are already rendered in parallel
+                anim.setExportThreads(1);
+                anim.setDimension(new Dimension(jc.width, jc.height));
+                anim.restartAnimator(pat, jc);
+                anim.writeGIF(new FileOutputStream(temppath.toFile()), null, fps);
+                Files.move(temppath, outpath, StandardCopyOption.REPLACE_EXISTING);
+
+                layout_ms = (laidout - start) / 1e6;
+                render_ms = (System.nanoTime() - laidout) / 1e6;
+                bytes = Files.size(outpath);
+            } catch (JuggleExceptionUser jeu) {
+                error = jeu.getMessage();
+            } catch (JuggleExceptionInternal jei) {
+                error = "Internal Error: " + jei.getMessage();
+            } catch (IOException ioe) {
+                error = "Problem writing " + outpath.toString();
+            } catch (RuntimeException re) {
+                error = "Internal Error: " + re.toString();
+            } finally {
+                pat = null;  // done with it
+            }
+
+            if (error != null) {
+                ps.println("Error: " + source + ": " + error);
+                try {
+                    Files.deleteIfExists(temppath);
+                } catch (IOException ioe) {
+                }
+            }
+        }
+    }
+}
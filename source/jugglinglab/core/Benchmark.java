@@ -0,0 +1,537 @@
+// Benchmark.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.xml.sax.SAXException;
+
+import jugglinglab.jml.*;
+import jugglinglab.prop.SpriteCache;
+import jugglinglab.renderer.JLVector;
+import jugglinglab.renderer.Juggler;
+import jugglinglab.util.*;
+
+
+// Performance benchmarks run from the command line with `jlab bench`, over
+// the patterns in one or more JML files (e.g., the hss_* pattern lists).
+
+public class Benchmark {
+    // minimum time to spend timing each pattern, for each variant
+    protected static final double MIN_SECS_PER_PATTERN = 0.1;
+    protected static final int MIN_ITERATIONS = 5;
+    // number of sample times per path and hand when checking results
+    protected static final int NUM_SAMPLES = 100;
+
+    protected PrintStream ps;
+    protected ArrayList<String> names = new ArrayList<String>();
+    protected ArrayList<JMLPattern> patterns = new ArrayList<JMLPattern>();
+
+
+    public Benchmark(PrintStream ps) {
+        this.ps = ps;
+    }
+
+    // Load all patterns from the given files. Patterns that fail to load or
+    // lay out are reported and skipped.
+    public void loadFiles(ArrayList<File> files) {
+        for (File file : files) {
+            JMLParser parser = new JMLParser();
+            try {
+                parser.parse(new FileReader(file));
+            } catch (SAXException se) {
+                ps.println("Error: Formatting error in JML file " + file.getName());
+                continue;
+            } catch (IOException ioe) {
+                ps.println("Error: Problem reading JML file " + file.getName());
+                continue;
+            }
+
+            try {
+                if (parser.getFileType() == JMLParser.JML_PATTERN) {
+                    addPattern(file.getName(), new JMLPattern(parser.getTree()));
+                } else if (parser.getFileType() == JMLParser.JML_LIST) {
+                    JMLPatternList pl = new JMLPatternList(parser.getTree());
+                    for (int i = 0; i < pl.size(); i++) {
+                        try {
+                            JMLPattern pat = pl.getPatternForLine(i);
+                            if (pat != null)
+                                addPattern(file.getName() + " line " + (i+1) +
+                                           " (" + pl.getLine(i).display + ")", pat);
+                        } catch (JuggleException je) {
+                            ps.println("Error: " + file.getName() + " line " + (i+1) +
+                                       ": " + je.getMessage());
+                        }
+                    }
+                } else
+                    ps.println("Error: File " + file.getName() + " is not valid JML");
+            } catch (JuggleException je) {
+                ps.println("Error: " + file.getName() + ": " + je.getMessage());
+            }
+        }
+    }
+
+    protected void addPattern(String name, JMLPattern pat) {
+        try {
+            pat.layoutPattern();
+            names.add(name);
+            patterns.add(pat);
+        } catch (JuggleException je) {
+            ps.println("Error: " + name + ": " + je.getMessage());
+        }
+    }
+
+    public void run() {
+        if (patterns.size() == 0) {
+            ps.println("No patterns to benchmark");
+            return;
+        }
+        ps.println("Benchmarking " + patterns.size() + " patterns using " +
+                   WorkerPool.getNumberOfThreads() + " worker threads\n");
+
+        benchLayout();
+        benchHandLayout();
+        benchJugglerSolver();
+        benchPathSampling();
+        benchDrawFrame();
+        benchGIFExport();
+    }
+
+    //-------------------------------------------------------------------------
+    // Pattern layout, single-threaded vs. using the shared worker pool
+    //-------------------------------------------------------------------------
+
+    protected void benchLayout() {
+        ps.println("Layout (ms per layoutPattern(), serial / parallel):");
+
+        boolean saved = JMLPattern.isParallelLayout();
+        double total_serial = 0;
+        double total_parallel = 0;
+        int mismatches = 0;
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                JMLPattern pat = patterns.get(i);
+
+                JMLPattern.setParallelLayout(false);
+                double serial = timeLayout(pat);
+                double[] serial_samples = samplePattern(pat);
+
+                JMLPattern.setParallelLayout(true);
+                double parallel = timeLayout(pat);
+                double[] parallel_samples = samplePattern(pat);
+
+                boolean same = Arrays.equals(serial_samples, parallel_samples);
+                if (!same)
+                    mismatches++;
+
+                total_serial += serial;
+                total_parallel += parallel;
+                ps.println(String.format("   %8.3f / %8.3f   %s%s", serial, parallel,
+                           names.get(i), same ? "" : "   RESULTS DIFFER"));
+            }
+        } catch (JuggleException je) {
+            ps.println("Error: " + je.getMessage());
+            return;
+        } finally {
+            JMLPattern.setParallelLayout(saved);
+        }
+
+        ps.println(String.format("   %8.3f / %8.3f   total (speedup %.2fx)",
+                   total_serial, total_parallel, total_serial / total_parallel));
+        if (mismatches == 0)
+            ps.println("   Serial and parallel results identical\n");
+        else
+            ps.println("   Serial and parallel results differ for " + mismatches +
+                       " patterns\n");
+    }
+
+    // Returns average time per full layout, in milliseconds
+    protected double timeLayout(JMLPattern pat) throws JuggleExceptionUser,
+                            JuggleExceptionInternal {
+        // warm up
+        for (int i = 0; i < MIN_ITERATIONS; i++) {
+            pat.setNeedsLayout();
+            pat.layoutPattern();
+        }
+
+        int iterations = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (iterations < MIN_ITERATIONS || elapsed < MIN_SECS_PER_PATTERN * 1e9) {
+            pat.setNeedsLayout();
+            pat.layoutPattern();
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        }
+        return 1e-6 * elapsed / iterations;
+    }
+
+    //-------------------------------------------------------------------------
+    // Refitting the hand curves of an already laid-out pattern
+    //-------------------------------------------------------------------------
+
+    protected void benchHandLayout() {
+        ps.println("Hand layout (ms / bytes allocated per layoutHandPaths()):");
+
+        boolean saved = JMLPattern.isParallelLayout();
+        JMLPattern.setParallelLayout(false);  // so allocations are on this thread
+        double total_ms = 0;
+        long total_bytes = 0;
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                JMLPattern pat = patterns.get(i);
+                pat.setNeedsLayout();
+                pat.layoutPattern();
+
+                // warm up
+                for (int j = 0; j < MIN_ITERATIONS; j++)
+                    pat.layoutHandPaths();
+
+                long bytes_start = getAllocatedBytes();
+                int iterations = 0;
+                long start = System.nanoTime();
+                long elapsed = 0;
+                while (iterations < MIN_ITERATIONS || elapsed < MIN_SECS_PER_PATTERN * 1e9) {
+                    pat.layoutHandPaths();
+                    iterations++;
+                    elapsed = System.nanoTime() - start;
+                }
+                long bytes = (bytes_start < 0 ? -1 :
+                              (getAllocatedBytes() - bytes_start) / iterations);
+
+                double ms = 1e-6 * elapsed / iterations;
+                total_ms += ms;
+                total_bytes += bytes;
+                ps.println(String.format("   %8.3f / %8d   %s", ms, bytes, names.get(i)));
+            }
+        } catch (JuggleException je) {
+            ps.println("Error: " + je.getMessage());
+            return;
+        } finally {
+            JMLPattern.setParallelLayout(saved);
+        }
+
+        ps.println(String.format("   %8.3f / %8d   total\n", total_ms, total_bytes));
+    }
+
+    //-------------------------------------------------------------------------
+    // Juggler body solver, as called by the renderer for each frame
+    //-------------------------------------------------------------------------
+
+    protected void benchJugglerSolver() {
+        ps.println("Juggler body (us / bytes allocated per findJugglerCoordinates()):");
+
+        double total_us = 0;
+        long total_bytes = 0;
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                JMLPattern pat = patterns.get(i);
+                JLVector[][] result = new JLVector[pat.getNumberOfJugglers()][18];
+                Coordinate[] work = { new Coordinate(), new Coordinate(), new Coordinate() };
+                double start_time = pat.getLoopStartTime();
+                double dt = (pat.getLoopEndTime() - start_time) / NUM_SAMPLES;
+
+                // warm up
+                for (int j = 0; j < MIN_ITERATIONS * NUM_SAMPLES; j++)
+                    Juggler.findJugglerCoordinates(pat, start_time + (j % NUM_SAMPLES) * dt,
+                                                   result, work);
+
+                long bytes_start = getAllocatedBytes();
+                int iterations = 0;
+                long start = System.nanoTime();
+                long elapsed = 0;
+                while (iterations < MIN_ITERATIONS * NUM_SAMPLES ||
+                                    elapsed < MIN_SECS_PER_PATTERN * 1e9) {
+                    Juggler.findJugglerCoordinates(pat,
+                                    start_time + (iterations % NUM_SAMPLES) * dt, result, work);
+                    iterations++;
+                    if (iterations % NUM_SAMPLES == 0)
+                        elapsed = System.nanoTime() - start;
+                }
+                elapsed = System.nanoTime() - start;
+                long bytes = (bytes_start < 0 ? -1 :
+                              (getAllocatedBytes() - bytes_start) / iterations);
+
+                double us = 1e-3 * elapsed / iterations;
+                total_us += us;
+                total_bytes += bytes;
+                ps.println(String.format("   %8.3f / %8d   %s", us, bytes, names.get(i)));
+            }
+        } catch (JuggleException je) {
+            ps.println("Error: " + je.getMessage());
+            return;
+        }
+
+        ps.println(String.format("   %8.3f / %8d   total\n", total_us, total_bytes));
+    }
+
+    //-------------------------------------------------------------------------
+    // Sampling all the paths over one loop, as when baking the pattern for
+    // animation: one time at a time vs. in batches
+    //-------------------------------------------------------------------------
+
+    protected void benchPathSampling() {
+        ps.println("Path sampling (us per loop, getPathCoordinate() / getPathCoordinates()):");
+
+        double total_single = 0;
+        double total_batch = 0;
+        int mismatches = 0;
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                JMLPattern pat = patterns.get(i);
+                int paths = pat.getNumberOfPaths();
+                double start_time = pat.getLoopStartTime();
+                double dt = (pat.getLoopEndTime() - start_time) / NUM_SAMPLES;
+                double[] t = new double[NUM_SAMPLES];
+                for (int j = 0; j < NUM_SAMPLES; j++)
+                    t[j] = start_time + j * dt;
+
+                double[] single = new double[3 * NUM_SAMPLES * paths];
+                double[] batch = new double[3 * NUM_SAMPLES * paths];
+                double[] x = new double[NUM_SAMPLES];
+                double[] y = new double[NUM_SAMPLES];
+                double[] z = new double[NUM_SAMPLES];
+                Coordinate c = new Coordinate();
+
+                double us_single = 0;
+                double us_batch = 0;
+                for (int variant = 0; variant < 2; variant++) {
+                    int iterations = 0;
+                    long start = 0;
+                    long elapsed = 0;
+                    // the first MIN_ITERATIONS are a warm up
+                    while (iterations < 2 * MIN_ITERATIONS ||
+                                    elapsed < MIN_SECS_PER_PATTERN * 1e9) {
+                        if (iterations == MIN_ITERATIONS)
+                            start = System.nanoTime();
+                        for (int path = 1; path <= paths; path++) {
+                            int k = 3 * NUM_SAMPLES * (path - 1);
+                            if (variant == 0) {
+                                for (int j = 0; j < NUM_SAMPLES; j++) {
+                                    pat.getPathCoordinate(path, t[j], c);
+                                    single[k + 3 * j] = c.x;
+                                    single[k + 3 * j + 1] = c.y;
+                                    single[k + 3 * j + 2] = c.z;
+                                }
+                            } else {
+                                pat.getPathCoordinates(path, t, NUM_SAMPLES, x, y, z);
+                                for (int j = 0; j < NUM_SAMPLES; j++) {
+                                    batch[k + 3 * j] = x[j];
+                                    batch[k + 3 * j + 1] = y[j];
+                                    batch[k + 3 * j + 2] = z[j];
+                                }
+                            }
+                        }
+                        iterations++;
+                        if (iterations > MIN_ITERATIONS)
+                            elapsed = System.nanoTime() - start;
+                    }
+                    double us = 1e-3 * elapsed / (iterations - MIN_ITERATIONS);
+                    if (variant == 0)
+                        us_single = us;
+                    else
+                        us_batch = us;
+                }
+
+                boolean same = Arrays.equals(single, batch);
+                if (!same)
+                    mismatches++;
+
+                total_single += us_single;
+                total_batch += us_batch;
+                ps.println(String.format("   %8.3f / %8.3f   %s%s", us_single, us_batch,
+                           names.get(i), same ? "" : "   RESULTS DIFFER"));
+            }
+        } catch (JuggleException je) {
+            ps.println("Error: " + je.getMessage());
+            return;
+        }
+
+        ps.println(String.format("   %8.3f / %8.3f   total (speedup %.2fx)",
+                   total_single, total_batch, total_single / total_batch));
+        if (mismatches == 0)
+            ps.println("   Results identical\n");
+        else
+            ps.println("   Results differ for " + mismatches + " patterns\n");
+    }
+
+    //-------------------------------------------------------------------------
+    // Drawing complete animation frames, including the draw ordering of props
+    // and juggler parts (ground and legs shown, to maximize object count)
+    //-------------------------------------------------------------------------
+
+    protected void benchDrawFrame() {
+        ps.println("Draw frame (us per Animator.drawFrame()):");
+
+        AnimationPrefs jc = new AnimationPrefs();
+        jc.showGround = AnimationPrefs.GROUND_ON;
+        jc.legs = true;
+        BufferedImage image = new BufferedImage(jc.width, jc.height,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        double total_us = 0;
+        SpriteCache.resetStatistics();
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                JMLPattern pat = patterns.get(i);
+                Animator anim = new Animator();
+                anim.setDimension(new Dimension(jc.width, jc.height));
+                anim.restartAnimator(pat, jc);
+                double start_time = pat.getLoopStartTime();
+                double dt = (pat.getLoopEndTime() - start_time) / NUM_SAMPLES;
+
+                // warm up
+                for (int j = 0; j < NUM_SAMPLES; j++)
+                    anim.drawFrame(start_time + j * dt, g, false, true);
+
+                int iterations = 0;
+                long start = System.nanoTime();
+                long elapsed = 0;
+                while (iterations < MIN_ITERATIONS * NUM_SAMPLES ||
+                                    elapsed < MIN_SECS_PER_PATTERN * 1e9) {
+                    anim.drawFrame(start_time + (iterations % NUM_SAMPLES) * dt,
+                                   g, false, true);
+                    iterations++;
+                    if (iterations % NUM_SAMPLES == 0)
+                        elapsed = System.nanoTime() - start;
+                }
+                elapsed = System.nanoTime() - start;
+
+                double us = 1e-3 * elapsed / iterations;
+                total_us += us;
+                ps.println(String.format("   %8.3f   %s", us, names.get(i)));
+            }
+        } catch (JuggleException je) {
+            ps.println("Error: " + je.getMessage());
+            return;
+        } finally {
+            g.dispose();
+        }
+
+        ps.println(String.format("   %8.3f   total", total_us));
+        ps.println("   Prop sprite cache: " + SpriteCache.getStatistics() + "\n");
+    }
+
+    //-------------------------------------------------------------------------
+    // Writing animated GIFs with ImageIO vs. our own encoder
+    //-------------------------------------------------------------------------
+
+    protected void benchGIFExport() {
+        ps.println("GIF export (ms / kB per writeGIF(), ImageIO vs. GIFAnimEncoder):");
+
+        AnimationPrefs jc = new AnimationPrefs();
+        double fps = 33.3;
+        double total_imageio_ms = 0;
+        double total_ms = 0;
+        long total_imageio_bytes = 0;
+        long total_bytes = 0;
+
+        try {
+            for (int i = 0; i < patterns.size(); i++) {
+                Animator anim = new Animator();
+                anim.setDimension(new Dimension(jc.width, jc.height));
+                anim.restartAnimator(patterns.get(i), jc);
+
+                CountingOutputStream cos = new CountingOutputStream();
+                long start = System.nanoTime();
+                anim.writeGIFImageIO(cos, null, fps);
+                double imageio_ms = 1e-6 * (System.nanoTime() - start);
+                long imageio_bytes = cos.count;
+
+                cos = new CountingOutputStream();
+                start = System.nanoTime();
+                anim.writeGIF(cos, null, fps);
+                double ms = 1e-6 * (System.nanoTime() - start);
+                long bytes = cos.count;
+
+                total_imageio_ms += imageio_ms;
+                total_ms += ms;
+                total_imageio_bytes += imageio_bytes;
+                total_bytes += bytes;
+                ps.println(String.format("   %8.1f / %6d   %8.1f / %6d   %s",
+                           imageio_ms, imageio_bytes / 1024, ms, bytes / 1024, names.get(i)));
+            }
+        } catch (JuggleException | IOException e) {
+            ps.println("Error: " + e.getMessage());
+            return;
+        }
+
+        ps.println(String.format("   %8.1f / %6d   %8.1f / %6d   total (%.2fx faster, %.2fx smaller)\n",
+                   total_imageio_ms, total_imageio_bytes / 1024, total_ms, total_bytes / 1024,
+                   total_imageio_ms / total_ms, (double)total_imageio_bytes / total_bytes));
+    }
+
+    // Output stream that discards its data and counts the bytes
+    protected static class CountingOutputStream extends OutputStream {
+        public long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    // Returns the number of bytes allocated so far by the current thread, or
+    // -1 if the JVM doesn't support measuring this
+    protected static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunbean = (com.sun.management.ThreadMXBean)bean;
+            if (sunbean.isThreadAllocatedMemorySupported() &&
+                        sunbean.isThreadAllocatedMemoryEnabled())
+                return sunbean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Sample all path and hand positions over one loop of the pattern, for
+    // comparing the results of different code paths
+    protected double[] samplePattern(JMLPattern pat) throws JuggleExceptionInternal {
+        int numpaths = pat.getNumberOfPaths();
+        int numhands = 2 * pat.getNumberOfJugglers();
+        double[] result = new double[3 * NUM_SAMPLES * (numpaths + numhands)];
+        double start = pat.getLoopStartTime();
+        double end = pat.getLoopEndTime();
+        Coordinate c = new Coordinate();
+        int index = 0;
+
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            double t = start + (end - start) * i / NUM_SAMPLES;
+
+            for (int path = 1; path <= numpaths; path++) {
+                pat.getPathCoordinate(path, t, c);
+                result[index++] = c.x;
+                result[index++] = c.y;
+                result[index++] = c.z;
+            }
+            for (int j = 1; j <= pat.getNumberOfJugglers(); j++) {
+                for (int h = 0; h < 2; h++) {
+                    pat.getHandCoordinate(j, (h == 0 ? HandLink.LEFT_HAND :
+                                          HandLink.RIGHT_HAND), t, c);
+                    result[index++] = c.x;
+                    result[index++] = c.y;
+                    result[index++] = c.z;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -26,6 +26,26 @@ public class Constants {
     // centered on the screen
     public static final int RESERVED_WIDTH_PIXELS = 1200;
 
+    // memory budget for each pattern window's undo history, in bytes
+    public static final long UNDO_HISTORY_MAX_BYTES = 4 * 1024 * 1024;
+
+    // memory budget for prop images shared across all renderers, in bytes
+    public static final long SPRITE_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
+    // play animations from frames rendered ahead of time when they fit in
+    // the memory budget (shared by all animations, in bytes); see
+    // PrerenderedAnimation
+    public static final boolean PRERENDER_ANIMATION = true;
+    public static final long PRERENDER_MAX_BYTES = 64 * 1024 * 1024;
+
+    // when animating, repaint only the parts of the display that change
+    // between frames (false to always repaint everything)
+    public static final boolean PARTIAL_REPAINT = true;
+
+    // memory and disk budgets for GIFs cached by `jlab serve`, in bytes
+    public static final long RENDER_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+    public static final long RENDER_DISK_CACHE_MAX_BYTES = 1024 * 1024 * 1024;
+
     // flags to print useful debugging info to stdout
     public static final boolean DEBUG_SITESWAP_PARSING = false;
     public static final boolean DEBUG_JML_PARSING = false;
@@ -34,5 +54,7 @@ public class Constants {
     public static final boolean DEBUG_GENERATOR = false;
     public static final boolean DEBUG_OPTIMIZE = false;
     public static final boolean DEBUG_OPEN_SERVER = false;
+    public static final boolean DEBUG_UNDO = false;
+    public static final boolean DEBUG_FRAME_PACING = false;
     public static final boolean VALIDATE_GENERATED_PATTERNS = false;
 }
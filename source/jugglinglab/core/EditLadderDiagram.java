@@ -113,6 +113,13 @@ public class EditLadderDiagram extends LadderDiagram implements
     // This can also be called from AnimationEditPanel when the user finishes
     // moving the selected event in the animation view.
     public void activeEventChanged() {
+        activeEventChanged(null);
+    }
+
+    // Version of the above for when the only change is that master event
+    // `moved` has a new spatial position. This allows the pattern to re-lay
+    // out only the paths and hands that the event touches.
+    public void activeEventChanged(JMLEvent moved) {
         if (active_eventitem == null)
             return;
 
@@ -120,7 +127,7 @@ public class EditLadderDiagram extends LadderDiagram implements
         int x = (active_eventitem.xlow + active_eventitem.xhigh) / 2;
         int y = (active_eventitem.ylow + active_eventitem.yhigh) / 2;
 
-        layoutPattern();  // rebuild pattern event list
+        layoutPattern(moved);  // rebuild pattern event list
         createView();  // rebuild ladder diagram
 
         active_eventitem = getSelectedLadderEvent(x, y);
@@ -152,11 +159,20 @@ public class EditLadderDiagram extends LadderDiagram implements
     }
 
     protected void layoutPattern() {
+        layoutPattern(null);
+    }
+
+    // If `moved` is non-null then the only change to the pattern is the
+    // position of that master event, and we can do an incremental layout.
+    protected void layoutPattern(JMLEvent moved) {
         try {
             // use synchronized here to avoid data consistency problems with animation
             // thread in AnimationPanel's run() method
             synchronized (pat) {
-                pat.setNeedsLayout();
+                if (moved == null)
+                    pat.setNeedsLayout();
+                else
+                    pat.setNeedsLayoutForMovedEvent(moved);
                 pat.layoutPattern();
             }
 
@@ -0,0 +1,210 @@
+// FrameEncoder.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+
+// Writes animation frames in formats that an external video encoder can read,
+// for example through a pipe into ffmpeg:
+//
+//   RAW    packed 8-bit RGB pixels (`rgb24`), frames back to back, no header
+//   Y4M    YUV4MPEG2 stream with 4:4:4 chroma, BT.601 limited range
+//   PNG    PNG images, either concatenated into one stream (`image2pipe`) or
+//          written as a sequence of numbered files
+//
+// Unlike GIF there is no palette, so frames can be rendered with antialiasing.
+
+public class FrameEncoder {
+    public static final int FORMAT_RAW = 1;
+    public static final int FORMAT_Y4M = 2;
+    public static final int FORMAT_PNG = 3;
+
+    protected static final String[] format_names = { "raw", "y4m", "png" };
+
+    protected OutputStream os;
+    protected String pathformat;  // for PNG files, null when writing to `os`
+    protected int format;
+    protected int width;
+    protected int height;
+    protected long rate_num;  // frame rate as a fraction
+    protected long rate_den;
+    protected int numframes;
+
+    protected int[] pixels;
+    protected byte[] framebuf;
+    protected ImageWriter pngwriter;
+
+
+    // Frames written to `os`. `fps` is the frame rate, used in the Y4M header.
+    public FrameEncoder(OutputStream os, int format, int width, int height,
+                        double fps) throws IOException {
+        this.os = os;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+
+        // Y4M gives the rate as a ratio of integers; use milli-frames/sec
+        rate_num = Math.max(1, Math.round(fps * 1000));
+        rate_den = 1000;
+        long gcd = gcd(rate_num, rate_den);
+        rate_num /= gcd;
+        rate_den /= gcd;
+
+        pixels = new int[width * height];
+        switch (format) {
+            case FORMAT_RAW:
+            case FORMAT_Y4M:
+                framebuf = new byte[3 * width * height];
+                break;
+            case FORMAT_PNG:
+                Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("png");
+                if (!iter.hasNext())
+                    throw new IOException("FrameEncoder: no PNG writer available");
+                pngwriter = iter.next();
+                break;
+            default:
+                throw new IOException("FrameEncoder: unknown format " + format);
+        }
+    }
+
+    // PNG frames written to numbered files. `pathformat` is a format string
+    // for String.format() with the frame number as its argument, for example
+    // "frames/pat_%04d.png".
+    public FrameEncoder(String pathformat, int width, int height) throws IOException {
+        this((OutputStream)null, FORMAT_PNG, width, height, 1.0);
+        this.pathformat = pathformat;
+    }
+
+    // Returns the format number for a name like "y4m", or -1 if unknown
+    public static int getFormat(String name) {
+        for (int i = 0; i < format_names.length; i++) {
+            if (format_names[i].equalsIgnoreCase(name))
+                return i + 1;
+        }
+        return -1;
+    }
+
+    public static String getFormatName(int format) {
+        return format_names[format - 1];
+    }
+
+    public int getNumberOfFrames() {
+        return numframes;
+    }
+
+    // Add a frame. The image must be the size given in the constructor; any
+    // alpha channel is ignored.
+    public void addFrame(BufferedImage image) throws IOException {
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IOException("FrameEncoder: frame size doesn't match");
+
+        switch (format) {
+            case FORMAT_RAW:
+                getPixels(image);
+                packRGB();
+                os.write(framebuf);
+                break;
+            case FORMAT_Y4M:
+                if (numframes == 0)
+                    writeY4MHeader();
+                getPixels(image);
+                packYUV();
+                os.write("FRAME\n".getBytes("US-ASCII"));
+                os.write(framebuf);
+                break;
+            case FORMAT_PNG:
+                if (pathformat == null)
+                    writePNG(image, os);
+                else {
+                    File f = new File(String.format(pathformat, numframes));
+                    try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(f))) {
+                        writePNG(image, fos);
+                    }
+                }
+                break;
+        }
+        numframes++;
+    }
+
+    // Flush the output. This doesn't close the output stream.
+    public void finish() throws IOException {
+        if (os != null)
+            os.flush();
+        if (pngwriter != null)
+            pngwriter.dispose();
+    }
+
+    // Release what finish() would without completing the output, after an
+    // error or a cancel
+    public void abort() {
+        if (pngwriter != null)
+            pngwriter.dispose();
+    }
+
+    protected void getPixels(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+            image.getRaster().getDataElements(0, 0, width, height, pixels);
+        else
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+    }
+
+    protected void packRGB() {
+        int j = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int rgb = pixels[i];
+            framebuf[j++] = (byte)(rgb >> 16);
+            framebuf[j++] = (byte)(rgb >> 8);
+            framebuf[j++] = (byte)rgb;
+        }
+    }
+
+    // Convert to planar Y, Cb, Cr using the usual BT.601 integer approximation
+    protected void packYUV() {
+        int n = pixels.length;
+        for (int i = 0; i < n; i++) {
+            int rgb = pixels[i];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            framebuf[i] = (byte)(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+            framebuf[n + i] = (byte)(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+            framebuf[2 * n + i] = (byte)(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+        }
+    }
+
+    protected void writeY4MHeader() throws IOException {
+        String header = "YUV4MPEG2 W" + width + " H" + height + " F" + rate_num +
+                        ":" + rate_den + " Ip A1:1 C444 XCOLORRANGE=LIMITED\n";
+        os.write(header.getBytes("US-ASCII"));
+    }
+
+    protected void writePNG(BufferedImage image, OutputStream out) throws IOException {
+        // closing `ios` doesn't close `out`
+        ImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+        try {
+            pngwriter.setOutput(ios);
+            pngwriter.write(image);
+        } finally {
+            ios.close();
+        }
+    }
+
+    protected static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
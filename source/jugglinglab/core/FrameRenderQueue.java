@@ -0,0 +1,235 @@
+// FrameRenderQueue.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import jugglinglab.renderer.Renderer;
+import jugglinglab.util.*;
+
+
+// Renders the frames of an animation on background threads, for writing out
+// in order (e.g., to an animated GIF).
+//
+// The frames over pat.getPeriod() loops of the pattern are independent of one
+// another once the prop assignment for each loop is known, so worker threads
+// each draw frames with their own renderers into a fixed ring of images, up
+// to a bounded number of frames ahead of the consumer. The consumer calls
+// takeFrame() to get the frames in sequence.
+//
+// The renderers are set up identically to the Animator's, so the frames are
+// the same as those from Animator.drawFrame() with advanceProps() after each
+// loop.
+
+public class FrameRenderQueue {
+    // number of images in the ring, per worker thread
+    protected static final int SLOTS_PER_THREAD = 2;
+
+    protected Animator anim;
+    protected int width;
+    protected int height;
+    protected double[] frametime;  // within one loop
+    protected int[][] propnum;  // prop assignments for each loop
+    protected int totalframes;
+    protected boolean antialias;
+
+    protected BufferedImage[] image;
+    protected boolean[] ready;
+    protected Throwable[] error;
+    protected Thread[] workers;
+
+    // the following are guarded by `this`
+    protected int next_render;  // next frame to hand to a worker
+    protected int next_take;  // next frame to return from takeFrame()
+    protected boolean closed;
+
+
+    // Frames are at times start + j * interval for j = 0, ..., frames - 1 in
+    // each loop. The prop assignments start from anim's current ones.
+    public FrameRenderQueue(Animator anim, double interval, int frames,
+                            boolean antialias) {
+        this.anim = anim;
+        this.antialias = antialias;
+        width = anim.dim.width;
+        height = anim.dim.height;
+
+        // accumulate times the same way the animation does
+        frametime = new double[frames];
+        double time = anim.pat.getLoopStartTime();
+        for (int j = 0; j < frames; j++) {
+            frametime[j] = time;
+            time += interval;
+        }
+
+        int period = anim.pat.getPeriod();
+        propnum = anim.getPropAssignments(period);
+        totalframes = period * frames;
+
+        int numthreads = (anim.export_threads > 0 ? anim.export_threads :
+                          WorkerPool.getNumberOfThreads());
+        numthreads = Math.max(1, Math.min(numthreads, totalframes));
+        int slots = Math.min(SLOTS_PER_THREAD * numthreads, Math.max(1, totalframes));
+        image = new BufferedImage[slots];
+        ready = new boolean[slots];
+        error = new Throwable[slots];
+
+        workers = new Thread[numthreads];
+        for (int i = 0; i < numthreads; i++) {
+            workers[i] = new Worker(anim.copyRenderer(false),
+                                    anim.jc.stereo ? anim.copyRenderer(true) : null);
+            workers[i].setName("Juggling Lab frame renderer " + (i + 1));
+            workers[i].setDaemon(true);
+        }
+        for (Thread t : workers)
+            t.start();
+    }
+
+    // Frames without antialiasing, for GIF output
+    public FrameRenderQueue(Animator anim, double interval, int frames) {
+        this(anim, interval, frames, false);
+    }
+
+    public int getNumberOfFrames() {
+        return totalframes;
+    }
+
+    // Returns the next frame in sequence, waiting for it to be rendered if
+    // necessary. The image is only valid until the next call to takeFrame()
+    // or close().
+    public BufferedImage takeFrame() throws JuggleExceptionInternal {
+        int slot;
+
+        synchronized (this) {
+            if (closed || next_take >= totalframes)
+                throw new JuggleExceptionInternal("FrameRenderQueue: no more frames");
+
+            // release the frame returned last time
+            if (next_take > 0) {
+                ready[(next_take - 1) % image.length] = false;
+                notifyAll();
+            }
+
+            slot = next_take % image.length;
+            while (!ready[slot]) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new JuggleExceptionInternal("FrameRenderQueue: interrupted");
+                }
+            }
+            next_take++;
+        }
+
+        Throwable t = error[slot];
+        if (t != null) {
+            close();
+            if (t instanceof JuggleExceptionInternal)
+                throw (JuggleExceptionInternal)t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            if (t instanceof Error)
+                throw (Error)t;
+            throw new JuggleExceptionInternal("FrameRenderQueue: " + t.toString());
+        }
+        return image[slot];
+    }
+
+    // Stop the worker threads and wait for them to finish. Call this when
+    // done, including when stopping early.
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            notifyAll();
+        }
+
+        boolean interrupted = false;
+        for (Thread t : workers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // Returns the next frame number for a worker to render, or -1 if there
+    // are no more. Waits while the ring of images is full.
+    protected synchronized int nextFrameToRender() throws InterruptedException {
+        while (!closed && next_render < totalframes) {
+            int slot = next_render % image.length;
+            // slot free once the frame using it has been taken and released
+            if (next_render < next_take + image.length - 1 ||
+                        (next_render == next_take + image.length - 1 && !ready[slot]))
+                return next_render++;
+            wait();
+        }
+        return -1;
+    }
+
+    protected synchronized void frameDone(int frame, Throwable t) {
+        int slot = frame % image.length;
+        error[slot] = t;
+        ready[slot] = true;
+        notifyAll();
+    }
+
+    //-------------------------------------------------------------------------
+    // Worker thread that draws frames with its own renderers
+    //-------------------------------------------------------------------------
+
+    protected class Worker extends Thread {
+        protected Renderer ren1;
+        protected Renderer ren2;
+
+
+        public Worker(Renderer ren1, Renderer ren2) {
+            this.ren1 = ren1;
+            this.ren2 = ren2;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int frame;
+                while ((frame = nextFrameToRender()) >= 0) {
+                    int slot = frame % image.length;
+                    Throwable err = null;
+
+                    try {
+                        if (image[slot] == null)
+                            image[slot] = new BufferedImage(width, height,
+                                                            BufferedImage.TYPE_INT_RGB);
+                        Graphics2D g = image[slot].createGraphics();
+                        // antialiased rendering creates too many distinct color
+                        // values for GIF to handle well
+                        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                           antialias ? RenderingHints.VALUE_ANTIALIAS_ON :
+                                           RenderingHints.VALUE_ANTIALIAS_OFF);
+
+                        int loop = frame / frametime.length;
+                        anim.drawFrame(frametime[frame % frametime.length], g, false, true,
+                                       ren1, ren2, propnum[loop]);
+                        g.dispose();
+                    } catch (Throwable t) {
+                        err = t;
+                    }
+
+                    frameDone(frame, err);
+                }
+            } catch (InterruptedException ie) {
+            }
+        }
+    }
+}
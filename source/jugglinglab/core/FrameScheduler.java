@@ -0,0 +1,174 @@
+// FrameScheduler.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+
+// Paces the frames of an AnimationPanel.
+//
+// Frames are due at fixed intervals measured with System.nanoTime(), and are
+// driven by the shared AnimationClock. When a frame is late by more than an
+// interval (for example because painting is slow), the simulation skips
+// ahead so the animation keeps to real time, and the skipped frames are
+// counted as dropped. Frames are also dropped when the previous one hasn't
+// been painted yet, since that paint will show the latest time anyway.
+//
+// While the panel isn't showing on screen the animation doesn't advance.
+// Once stop() returns the animation won't advance again until restarted, so
+// the panel is free to change it.
+//
+// The number of pixels filled by painting is also counted, since frames are
+// usually painted only where they differ from the last one.
+
+public class FrameScheduler {
+    // if this many frames behind, assume the system was suspended or similar
+    // and start again from the current time rather than catching up
+    protected static final int MAX_CATCHUP_FRAMES = 60;
+
+    protected AnimationPanel panel;
+    protected long interval_nanos;
+    protected final Object advancing = new Object();  // held while advancing
+
+    // the following are guarded by `this`
+    protected long next_frame_nanos;
+    protected boolean running;
+    protected boolean showing;
+
+    // counters
+    protected long frames_rendered;
+    protected long frames_dropped;
+    protected long paint_nanos;
+    protected long pixels_filled;
+    protected long start_nanos;
+
+
+    public FrameScheduler(AnimationPanel panel, long interval_millis) {
+        this.panel = panel;
+        interval_nanos = Math.max(1, interval_millis) * 1000000L;
+        showing = panel.isShowing();
+        start_nanos = System.nanoTime();
+    }
+
+    // Show the current frame now, and advance the animation one frame per
+    // interval from here on
+    public void start() {
+        AnimationClock clock = AnimationClock.getInstance();
+        synchronized (this) {
+            if (running)
+                return;
+            running = true;
+            next_frame_nanos = clock.getNextDeadline(System.nanoTime(), interval_nanos);
+        }
+        clock.add(this);
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+        }
+        AnimationClock.getInstance().remove(this);
+
+        // wait for an advance already under way on the clock thread
+        synchronized (advancing) {}
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    // Called by the panel when it is shown or hidden
+    public void setShowing(boolean s) {
+        AnimationClock clock = AnimationClock.getInstance();
+        synchronized (this) {
+            if (showing == s)
+                return;
+            showing = s;
+            if (!s || !running)
+                return;
+            // pick up from here, rather than catching up
+            next_frame_nanos = clock.getNextDeadline(System.nanoTime(), interval_nanos);
+        }
+        clock.update(this);
+    }
+
+    // Time of the next frame, or Long.MAX_VALUE if none is due
+    public synchronized long getDeadline() {
+        return (running && showing ? next_frame_nanos : Long.MAX_VALUE);
+    }
+
+    // Returns the number of frames to advance at time `now`, and moves the
+    // deadline past them
+    public synchronized int takeSteps(long now) {
+        if (!running || !showing || now < next_frame_nanos)
+            return 0;
+
+        long behind = now - next_frame_nanos;
+        if (behind >= MAX_CATCHUP_FRAMES * interval_nanos) {
+            // resynchronize
+            next_frame_nanos = AnimationClock.getInstance().getNextDeadline(now,
+                                                                            interval_nanos);
+            return 1;
+        }
+
+        int steps = 1 + (int)(behind / interval_nanos);
+        frames_dropped += steps - 1;
+        next_frame_nanos += steps * interval_nanos;
+        return steps;
+    }
+
+    public void advance(int steps) {
+        synchronized (advancing) {
+            for (int i = 0; i < steps && isRunning(); i++)
+                panel.advanceFrame();
+        }
+    }
+
+    // Called on the event dispatch thread
+    public void paint() {
+        panel.paintFrame();
+    }
+
+    public String getName() {
+        return panel.getName();
+    }
+
+    public synchronized void frameDropped() {
+        frames_dropped++;
+    }
+
+    // Called by the panel after it paints a frame
+    public synchronized void framePainted(long nanos) {
+        frames_rendered++;
+        paint_nanos += nanos;
+    }
+
+    public synchronized void pixelsFilled(long pixels) {
+        pixels_filled += pixels;
+    }
+
+    public synchronized long getFramesRendered() {
+        return frames_rendered;
+    }
+
+    public synchronized long getFramesDropped() {
+        return frames_dropped;
+    }
+
+    public synchronized double getAveragePaintMillis() {
+        return (frames_rendered == 0 ? 0.0 : paint_nanos / 1e6 / frames_rendered);
+    }
+
+    public synchronized double getPixelsFilledPerSecond() {
+        double secs = (System.nanoTime() - start_nanos) / 1e9;
+        return (secs > 0 ? pixels_filled / secs : 0.0);
+    }
+
+    public synchronized String getStatistics() {
+        return String.format("%d frames rendered, %d dropped, %.2f ms average paint, " +
+                             "%.2f Mpixels/s filled", frames_rendered, frames_dropped,
+                             getAveragePaintMillis(), getPixelsFilledPerSecond() / 1e6);
+    }
+}
@@ -10,7 +10,6 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.Locale;
 import java.util.ResourceBundle;
 import javax.swing.*;
@@ -45,7 +44,7 @@ public class PatternWindow extends JFrame implements ActionListener {
     protected View view;
     protected JMenu viewmenu;
     protected JMenu windowmenu;
-    protected ArrayList<JMLPattern> undo = new ArrayList<JMLPattern>();
+    protected UndoHistory undo = new UndoHistory();
     protected String last_jml_filename;
 
 
@@ -154,7 +153,7 @@ public class PatternWindow extends JFrame implements ActionListener {
         pack();
 
         view.restartView(pat, jc);
-        view.setUndoList(undo, -1);
+        view.setUndoList(undo);
     }
 
     // `mode` is one of the View.VIEW_X constants
@@ -169,7 +168,6 @@ public class PatternWindow extends JFrame implements ActionListener {
         JMLPattern pat = view.getPattern();
         AnimationPrefs jc = view.getAnimationPrefs();
         boolean paused = view.isPaused();
-        int undo_index = view.getUndoIndex();
 
         View newview = null;
         Dimension animsize = new Dimension(jc.width, jc.height);
@@ -204,7 +202,7 @@ public class PatternWindow extends JFrame implements ActionListener {
         else
             pack();
         newview.restartView(pat, jc);
-        newview.setUndoList(undo, undo_index);
+        newview.setUndoList(undo);
 
         view.disposeView();
         view = newview;
@@ -507,9 +505,8 @@ public class PatternWindow extends JFrame implements ActionListener {
         if (view == null || viewmenu == null)
             return;
 
-        int undo_index = view.getUndoIndex();
-        boolean undo_enabled = (undo_index > 0);
-        boolean redo_enabled = (undo_index < undo.size() - 1);
+        boolean undo_enabled = undo.canUndo();
+        boolean redo_enabled = undo.canRedo();
 
         for (int i = 0; i < viewmenu.getItemCount(); ++i) {
             JMenuItem jmi = viewmenu.getItem(i);
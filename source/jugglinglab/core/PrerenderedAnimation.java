@@ -0,0 +1,313 @@
+// PrerenderedAnimation.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jugglinglab.jml.JMLPattern;
+import jugglinglab.jml.PropDef;
+import jugglinglab.renderer.Renderer;
+import jugglinglab.util.*;
+
+
+// All the frames of an Animator's animation, rendered ahead of time so that
+// playback only has to copy images to the screen.
+//
+// The animation repeats exactly after pat.getPeriod() loops of the pattern,
+// once the props are back on their starting paths, so the frames for that
+// many loops are rendered (or for a single loop when all the props look the
+// same). They are rendered into images compatible with the screen, and are
+// only used once all are done.
+//
+// Everything the frames depend on is copied from the animator when this is
+// created, so the rendering doesn't touch the animator while it plays. The
+// pattern itself is shared, so before changing it (e.g., laying it out again)
+// stop the rendering with disposeAndWait(). All animations share one
+// low-priority rendering thread, which works on them one at a time, and one
+// memory budget (Constants.PRERENDER_MAX_BYTES).
+//
+// The area that changes from each frame to the next is found while rendering,
+// so playback can copy just that much without working out the scene again.
+//
+// The frames are only valid while the view is unchanged, so users should
+// check isValidFor() before each use and discard the frames if it fails.
+
+public class PrerenderedAnimation {
+    protected static ExecutorService builder;
+    protected static long reserved_bytes;  // guarded by the class
+
+    protected Animator anim;
+    protected GraphicsConfiguration gc;
+
+    // state of the animator that the frames depend on
+    protected JMLPattern pat;
+    protected Renderer ren1;
+    protected Dimension dim;
+    protected double[] camangle;
+    protected double zoom;
+    protected double interval;
+
+    // copies for drawing on the rendering thread
+    protected Renderer draw_ren1;
+    protected Renderer draw_ren2;
+    protected boolean stereo;
+    protected int[] hide;  // jugglers not drawn
+    protected Color background;
+
+    protected int frames;  // per loop
+    protected int loops;
+    protected int[][] propnum;  // prop assignments for each loop
+    protected long bytes;
+    protected BufferedImage[] image;
+    protected Rectangle[] area;  // changed from the previous frame; null if unknown
+    protected Future<?> task;
+    protected final Object rendering = new Object();  // held while rendering
+    protected volatile boolean cancelled;
+    protected volatile boolean complete;
+
+
+    // Call on the animation thread, which owns `anim`
+    protected PrerenderedAnimation(Animator anim, GraphicsConfiguration gc, long bytes) {
+        this.anim = anim;
+        this.gc = gc;
+        this.bytes = bytes;
+        pat = anim.pat;
+        ren1 = anim.ren1;
+        dim = new Dimension(anim.dim);
+        camangle = anim.getCameraAngle();
+        zoom = anim.getZoomLevel();
+        interval = anim.sim_interval_secs;
+        frames = anim.num_frames;
+        loops = getLoops(pat);
+        propnum = anim.getPropAssignments(loops);
+
+        draw_ren1 = anim.copyRenderer(false);
+        stereo = anim.jc.stereo;
+        draw_ren2 = (stereo ? anim.copyRenderer(true) : null);
+        hide = (anim.jc.hideJugglers == null ? null : anim.jc.hideJugglers.clone());
+        background = ren1.getBackground();
+    }
+
+    // Starts rendering the frames for `anim` in the background. Returns null
+    // if they don't fit in what's left of the memory budget.
+    public static PrerenderedAnimation start(Animator anim, GraphicsConfiguration gc) {
+        if (anim.pat == null || anim.dim == null)
+            return null;
+        long bytes = 4L * anim.dim.width * anim.dim.height * anim.num_frames *
+                     getLoops(anim.pat);
+        if (bytes <= 0 || !reserve(bytes))
+            return null;
+
+        final PrerenderedAnimation pr = new PrerenderedAnimation(anim, gc, bytes);
+        pr.task = getBuilder().submit(new Runnable() {
+            @Override
+            public void run() {
+                pr.render();
+            }
+        });
+        return pr;
+    }
+
+    protected static synchronized ExecutorService getBuilder() {
+        if (builder == null) {
+            builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Juggling Lab prerender");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return builder;
+    }
+
+    protected static synchronized boolean reserve(long bytes) {
+        if (reserved_bytes + bytes > Constants.PRERENDER_MAX_BYTES)
+            return false;
+        reserved_bytes += bytes;
+        return true;
+    }
+
+    protected static synchronized void release(long bytes) {
+        reserved_bytes -= bytes;
+    }
+
+    protected static int getLoops(JMLPattern pat) {
+        return (propsLookAlike(pat) ? 1 : pat.getPeriod());
+    }
+
+    // When all the props are the same the frames don't depend on which prop
+    // is on which path, so one loop of the pattern is enough
+    protected static boolean propsLookAlike(JMLPattern pat) {
+        if (pat.getNumberOfProps() <= 1)
+            return true;
+
+        PropDef first = pat.getPropDef(1);
+        for (int i = 2; i <= pat.getNumberOfProps(); i++) {
+            PropDef pd = pat.getPropDef(i);
+            if (!pd.getType().equalsIgnoreCase(first.getType()))
+                return false;
+            if (first.getMod() == null ? pd.getMod() != null :
+                                         !first.getMod().equals(pd.getMod()))
+                return false;
+        }
+        return true;
+    }
+
+    // Called on the rendering thread
+    protected void render() {
+        synchronized (rendering) {
+            if (cancelled)
+                return;
+            try {
+                renderFrames();
+            } catch (JuggleExceptionInternal jei) {
+                // leave incomplete; the caller renders live instead
+            } catch (RuntimeException re) {
+                ErrorDialog.handleFatalException(re);
+            }
+        }
+    }
+
+    protected void renderFrames() throws JuggleExceptionInternal {
+        // frame times accumulate the same way the animation's do
+        double[] frametime = new double[frames];
+        double time = pat.getLoopStartTime();
+        for (int j = 0; j < frames; j++) {
+            frametime[j] = time;
+            time += interval;
+        }
+
+        BufferedImage[] result = new BufferedImage[frames * loops];
+        Rectangle[] changed = new Rectangle[result.length];
+        for (int i = 0; i < result.length; i++) {
+            if (cancelled)
+                return;
+            result[i] = gc.createCompatibleImage(dim.width, dim.height);
+            Graphics2D g = result[i].createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                               RenderingHints.VALUE_ANTIALIAS_OFF);
+            if (i > 0)
+                changed[i] = findChangedArea(frametime[i % frames], propnum[i / frames]);
+            drawFrame(frametime[i % frames], propnum[i / frames], g);
+            g.dispose();
+        }
+        // the first frame follows the last one
+        changed[0] = findChangedArea(frametime[0], propnum[0]);
+
+        if (cancelled)
+            return;
+        image = result;
+        area = changed;
+        complete = true;
+    }
+
+    // Area that changes from the frame drawn last, as in
+    // Animator.getChangedArea()
+    protected Rectangle findChangedArea(double time, int[] pnum)
+                        throws JuggleExceptionInternal {
+        Rectangle r = (stereo ? draw_ren1.getStereoChangedArea(time, pnum, hide,
+                                                                draw_ren2, dim)
+                              : draw_ren1.getChangedArea(time, pnum, hide));
+        return (r == null ? null : new Rectangle(r));
+    }
+
+    // Same as Animator.drawFrame() with the background and no axes
+    protected void drawFrame(double time, int[] pnum, Graphics g)
+                        throws JuggleExceptionInternal {
+        g.setColor(background);
+        g.fillRect(0, 0, dim.width, dim.height);
+
+        if (stereo) {
+            draw_ren1.drawStereoFrame(time, pnum, hide, draw_ren2,
+                                      g.create(0, 0, dim.width / 2, dim.height),
+                                      g.create(dim.width / 2, 0, dim.width / 2, dim.height));
+        } else
+            draw_ren1.drawFrame(time, pnum, hide, g);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Whether the frames still show what `a` would draw
+    public boolean isValidFor(Animator a) {
+        if (a != anim || a.pat != pat || a.ren1 != ren1 || !dim.equals(a.dim) ||
+                    a.num_frames != frames || a.getZoomLevel() != zoom)
+            return false;
+        double[] ca = a.getCameraAngle();
+        return (ca[0] == camangle[0] && ca[1] == camangle[1]);
+    }
+
+    // Returns the number of the frame for the given time in the current loop,
+    // or -1 if there isn't one (e.g., the frames aren't done yet)
+    public int getFrameIndex(double time, int[] animpropnum) {
+        if (!complete)
+            return -1;
+
+        int loop = 0;
+        if (loops > 1) {
+            while (loop < loops && !Arrays.equals(propnum[loop], animpropnum))
+                loop++;
+            if (loop == loops)
+                return -1;
+        }
+
+        int index = (int)Math.round((time - pat.getLoopStartTime()) / interval);
+        if (index < 0 || index >= frames)
+            return -1;
+        return loop * frames + index;
+    }
+
+    // Returns the frame from getFrameIndex(), or null if the frames have been
+    // released
+    public BufferedImage getFrame(int index) {
+        BufferedImage[] im = image;
+        return (im == null ? null : im[index]);
+    }
+
+    // Returns the area that changes going from frame `previous` to frame
+    // `index`, or null if unknown
+    public Rectangle getChangedArea(int index, int previous) {
+        Rectangle[] a = area;
+        if (a == null || previous != (index + a.length - 1) % a.length || a[index] == null)
+            return null;
+        return new Rectangle(a[index]);
+    }
+
+    // Stop rendering and release the frames. This doesn't wait for the
+    // rendering thread, which drops its work at the next frame.
+    public synchronized void dispose() {
+        if (cancelled)
+            return;
+        cancelled = true;
+        task.cancel(false);
+        complete = false;
+        image = null;
+        area = null;
+        release(bytes);
+    }
+
+    // Same as dispose(), but also waits for the rendering thread to stop
+    // working on this, so the pattern can be changed
+    public void disposeAndWait() {
+        dispose();
+        synchronized (rendering) {}
+    }
+}
@@ -0,0 +1,184 @@
+// RenderCache.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// Two-level cache of rendered files (e.g., animated GIFs), keyed by a hash of
+// whatever determines their contents.
+//
+// Recently used files are kept in memory, and all files are also kept in a
+// directory on disk (if one is given) so they survive restarts. Each level
+// evicts in least-recently-used order once it exceeds its byte budget.
+
+public class RenderCache {
+    protected static final String SUFFIX = ".gif";
+
+    protected Path dir;  // null for memory only
+    protected long max_memory_bytes;
+    protected long max_disk_bytes;
+
+    // the following are guarded by `this`
+    protected LinkedHashMap<String, byte[]> memory =
+                new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    protected LinkedHashMap<String, Long> disk =
+                new LinkedHashMap<String, Long>(16, 0.75f, true);
+    protected long memory_bytes;
+    protected long disk_bytes;
+    protected long memory_hits;
+    protected long disk_hits;
+    protected long misses;
+    protected long evictions;
+
+
+    // Files already in `dir` are picked up, oldest first in LRU order.
+    public RenderCache(Path dir, long max_memory_bytes, long max_disk_bytes)
+                throws IOException {
+        this.dir = dir;
+        this.max_memory_bytes = max_memory_bytes;
+        this.max_disk_bytes = max_disk_bytes;
+
+        if (dir == null)
+            return;
+        Files.createDirectories(dir);
+
+        File[] files = dir.toFile().listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isFile() && name.endsWith(SUFFIX)) {
+                disk.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+                disk_bytes += f.length();
+            }
+        }
+        trimDisk();
+    }
+
+    // Returns the cached contents for `key`, or null if not cached
+    public byte[] get(String key) {
+        Path path;
+        synchronized (this) {
+            byte[] data = memory.get(key);
+            if (data != null) {
+                memory_hits++;
+                disk.get(key);  // keep in step with memory
+                return data;
+            }
+            if (disk.get(key) == null) {
+                misses++;
+                return null;
+            }
+            path = getPath(key);
+        }
+
+        // read outside the lock; the file may be evicted in the meantime
+        byte[] data = null;
+        try {
+            data = Files.readAllBytes(path);
+        } catch (IOException ioe) {
+        }
+
+        synchronized (this) {
+            if (data == null) {
+                misses++;
+                Long size = disk.remove(key);
+                if (size != null)
+                    disk_bytes -= size;
+                return null;
+            }
+            disk_hits++;
+            putMemory(key, data);
+            return data;
+        }
+    }
+
+    public void put(String key, byte[] data) throws IOException {
+        if (dir != null) {
+            // write to a temporary file and move it into place, so readers
+            // never see a partial file
+            Path temp = Files.createTempFile(dir, key, ".part");
+            try {
+                Files.write(temp, data);
+                Files.move(temp, getPath(key), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        synchronized (this) {
+            putMemory(key, data);
+            if (dir != null) {
+                Long old = disk.put(key, (long)data.length);
+                if (old != null)
+                    disk_bytes -= old;
+                disk_bytes += data.length;
+                trimDisk();
+            }
+        }
+    }
+
+    protected Path getPath(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    // Call with `this` locked. Never evicts the entry just added.
+    protected void putMemory(String key, byte[] data) {
+        byte[] old = memory.put(key, data);
+        if (old != null)
+            memory_bytes -= old.length;
+        memory_bytes += data.length;
+
+        Iterator<Map.Entry<String, byte[]>> iter = memory.entrySet().iterator();
+        while (memory_bytes > max_memory_bytes && memory.size() > 1) {
+            memory_bytes -= iter.next().getValue().length;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    // Call with `this` locked
+    protected void trimDisk() {
+        Iterator<Map.Entry<String, Long>> iter = disk.entrySet().iterator();
+        while (disk_bytes > max_disk_bytes && disk.size() > 1) {
+            Map.Entry<String, Long> eldest = iter.next();
+            try {
+                Files.deleteIfExists(getPath(eldest.getKey()));
+            } catch (IOException ioe) {
+            }
+            disk_bytes -= eldest.getValue();
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized String getStatistics() {
+        long lookups = memory_hits + disk_hits + misses;
+        return String.format("cache_lookups %d\ncache_memory_hits %d\ncache_disk_hits %d\n" +
+                             "cache_misses %d\ncache_hit_rate %.3f\ncache_evictions %d\n" +
+                             "cache_memory_entries %d\ncache_memory_bytes %d\n" +
+                             "cache_disk_entries %d\ncache_disk_bytes %d\n",
+                             lookups, memory_hits, disk_hits, misses,
+                             (lookups == 0 ? 0.0 : (double)(memory_hits + disk_hits) / lookups),
+                             evictions, memory.size(), memory_bytes, disk.size(), disk_bytes);
+    }
+}
@@ -0,0 +1,397 @@
+// RenderServer.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.core;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.xml.sax.SAXException;
+
+import jugglinglab.jml.*;
+import jugglinglab.util.*;
+
+
+// Local HTTP service that returns animated GIFs of patterns, run from the
+// command line with `jlab serve`. It listens on the loopback interface only.
+//
+//   GET  /gif?pattern=<siteswap>&prefs=<prefs>   pattern in siteswap notation
+//   POST /gif?prefs=<prefs>                      JML pattern in request body
+//   GET  /stats                                  counters, as text
+//
+// Both parameters use the same formats as the command line. Rendered GIFs are
+// kept in a RenderCache keyed by a hash of the pattern's JML and the
+// animation preferences, so equivalent requests share one rendering, and
+// concurrent requests for the same GIF wait for a single render.
+//
+// Requests are handled on a bounded pool of threads, since most of their time
+// is spent waiting on I/O or on a render; the renders themselves are limited
+// to one per worker pool thread.
+
+public class RenderServer {
+    protected static final int HTTP_THREADS_PER_RENDER = 4;
+    protected static final int MAX_BODY_BYTES = 1024 * 1024;
+    protected static final int MAX_PIXELS = 2000 * 2000;
+    protected static final double DEFAULT_FPS = 33.3;
+
+    protected HttpServer server;
+    protected ExecutorService http_executor;
+    protected Semaphore render_slots;
+    protected RenderCache cache;
+    protected AnimationPrefs defaultprefs;
+    protected ConcurrentHashMap<String, FutureTask<byte[]>> inflight =
+                new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+    // counters
+    protected long start_nanos;
+    protected AtomicLong requests = new AtomicLong();
+    protected AtomicLong responses_ok = new AtomicLong();
+    protected AtomicLong responses_error = new AtomicLong();
+    protected AtomicLong renders = new AtomicLong();
+    protected AtomicLong render_nanos = new AtomicLong();
+    protected AtomicLong bytes_sent = new AtomicLong();
+    protected LatencyHistogram latency = new LatencyHistogram();
+
+
+    // `cachedir` may be null to keep the cache in memory only. Animation
+    // preferences `jc` are the defaults for requests; may be null.
+    public RenderServer(int port, Path cachedir, AnimationPrefs jc) throws IOException {
+        defaultprefs = jc;
+        cache = new RenderCache(cachedir, Constants.RENDER_CACHE_MAX_BYTES,
+                                Constants.RENDER_DISK_CACHE_MAX_BYTES);
+
+        int numrenders = WorkerPool.getNumberOfThreads();
+        render_slots = new Semaphore(numrenders, true);
+        http_executor = Executors.newFixedThreadPool(HTTP_THREADS_PER_RENDER * numrenders,
+                                                     new ThreadFactory() {
+            protected AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Juggling Lab HTTP " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        server = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(http_executor);
+        server.createContext("/gif", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                handleGIF(ex);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                handleStats(ex);
+            }
+        });
+    }
+
+    public void start() {
+        start_nanos = System.nanoTime();
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        http_executor.shutdown();
+    }
+
+    // Actual port, in case 0 was given to pick a free one
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    //-------------------------------------------------------------------------
+    // Request handlers
+    //-------------------------------------------------------------------------
+
+    protected void handleGIF(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+
+        try {
+            String method = ex.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("POST")) {
+                sendText(ex, 405, "Error: Method not allowed\n");
+                return;
+            }
+
+            Map<String, String> params = parseQuery(ex.getRequestURI().getRawQuery());
+            String jml = null;
+            if (method.equals("POST"))
+                jml = readBody(ex);
+
+            byte[] gif = getGIF(params.get("pattern"), jml, params.get("prefs"));
+            ex.getResponseHeaders().set("Content-Type", "image/gif");
+            ex.getResponseHeaders().set("Cache-Control", "max-age=86400");
+            send(ex, 200, gif);
+        } catch (JuggleExceptionUser jeu) {
+            sendText(ex, 400, "Error: " + jeu.getMessage() + "\n");
+        } catch (JuggleExceptionInternal jei) {
+            sendText(ex, 500, "Internal Error: " + jei.getMessage() + "\n");
+        } catch (RuntimeException re) {
+            sendText(ex, 500, "Internal Error: " + re.toString() + "\n");
+        } finally {
+            latency.add(System.nanoTime() - start);
+            ex.close();
+        }
+    }
+
+    protected void handleStats(HttpExchange ex) throws IOException {
+        try {
+            sendText(ex, 200, getStatistics());
+        } finally {
+            ex.close();
+        }
+    }
+
+    public String getStatistics() {
+        double uptime_secs = (System.nanoTime() - start_nanos) / 1e9;
+        long n = renders.get();
+        return String.format("uptime_secs %.1f\nrequests %d\nresponses_ok %d\n" +
+                             "responses_error %d\nrequests_per_sec %.3f\nbytes_sent %d\n" +
+                             "renders %d\nrender_ms_mean %.1f\nrenders_waiting %d\n",
+                             uptime_secs, requests.get(), responses_ok.get(),
+                             responses_error.get(), requests.get() / uptime_secs,
+                             bytes_sent.get(), n,
+                             (n == 0 ? 0.0 : render_nanos.get() / 1e6 / n),
+                             render_slots.getQueueLength()) +
+               latency.getStatistics() + cache.getStatistics();
+    }
+
+    protected void send(HttpExchange ex, int code, byte[] data) throws IOException {
+        ex.sendResponseHeaders(code, data.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(data);
+        }
+        bytes_sent.addAndGet(data.length);
+        if (code == 200)
+            responses_ok.incrementAndGet();
+        else
+            responses_error.incrementAndGet();
+    }
+
+    protected void sendText(HttpExchange ex, int code, String text) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(ex, code, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null)
+            return params;
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0)
+                continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                       URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    protected static String readBody(HttpExchange ex) throws IOException,
+                                                JuggleExceptionUser {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try (InputStream is = ex.getRequestBody()) {
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+                if (bos.size() > MAX_BODY_BYTES)
+                    throw new JuggleExceptionUser("Request body too large");
+            }
+        }
+        return bos.toString(StandardCharsets.UTF_8);
+    }
+
+    //-------------------------------------------------------------------------
+    // Rendering
+    //-------------------------------------------------------------------------
+
+    // Returns the GIF for a pattern given either in siteswap notation or as
+    // JML, from the cache if possible.
+    protected byte[] getGIF(String siteswap, String jml, String prefs)
+                throws JuggleExceptionUser, JuggleExceptionInternal {
+        final JMLPattern pat = parsePattern(siteswap, jml);
+        final AnimationPrefs jc = parsePrefs(prefs);
+        final double fps = (jc.fps == AnimationPrefs.fps_def ? DEFAULT_FPS : jc.fps);
+
+        // key on the normalized forms, so that equivalent requests match
+        String key = JLFunc.sha256Hex(Constants.version + "\n" + jc.toString() +
+                                      "\n" + fps + "\n" + pat.toString());
+        byte[] gif = cache.get(key);
+        if (gif != null)
+            return gif;
+
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return render(pat, jc, fps);
+            }
+        });
+        FutureTask<byte[]> existing = inflight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+                gif = getResult(task);
+                try {
+                    cache.put(key, gif);
+                } catch (IOException ioe) {
+                    // still have the GIF to send
+                    System.err.println("Warning: Problem writing to render cache: " +
+                                       ioe.getMessage());
+                }
+            } finally {
+                inflight.remove(key, task);
+            }
+        } else
+            gif = getResult(existing);  // another request is rendering it
+        return gif;
+    }
+
+    protected byte[] render(JMLPattern pat, AnimationPrefs jc, double fps) throws
+                JuggleExceptionUser, JuggleExceptionInternal, IOException,
+                InterruptedException {
+        render_slots.acquire();
+        long start = System.nanoTime();
+        try {
+            Animator anim = new Animator();
+            // requests are already rendered in parallel
+            anim.setExportThreads(1);
+            anim.setDimension(new Dimension(jc.width, jc.height));
+            anim.restartAnimator(pat, jc);
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            anim.writeGIF(bos, null, fps);
+            renders.incrementAndGet();
+            return bos.toByteArray();
+        } finally {
+            render_nanos.addAndGet(System.nanoTime() - start);
+            render_slots.release();
+        }
+    }
+
+    protected static byte[] getResult(FutureTask<byte[]> task) throws
+                JuggleExceptionUser, JuggleExceptionInternal {
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new JuggleExceptionInternal("RenderServer: interrupted");
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof JuggleExceptionUser)
+                throw (JuggleExceptionUser)t;
+            if (t instanceof JuggleExceptionInternal)
+                throw (JuggleExceptionInternal)t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            throw new JuggleExceptionInternal("RenderServer: " + t.toString());
+        }
+    }
+
+    // The siteswap parser isn't thread-safe, so patterns are created one at a
+    // time
+    protected static synchronized JMLPattern parsePattern(String siteswap, String jml)
+                throws JuggleExceptionUser, JuggleExceptionInternal {
+        if (jml != null && jml.strip().length() > 0) {
+            JMLParser parser = new JMLParser();
+            try {
+                parser.parse(new StringReader(jml));
+            } catch (SAXException se) {
+                throw new JuggleExceptionUser("Formatting error in JML");
+            } catch (IOException ioe) {
+                throw new JuggleExceptionUser("Problem reading JML");
+            }
+            if (parser.getFileType() != JMLParser.JML_PATTERN)
+                throw new JuggleExceptionUser("JML is not a single pattern");
+            return new JMLPattern(parser.getTree());
+        }
+
+        if (siteswap == null || siteswap.length() == 0)
+            throw new JuggleExceptionUser("No pattern given");
+        return JMLPattern.fromBasePattern("siteswap", siteswap);
+    }
+
+    protected AnimationPrefs parsePrefs(String prefs) throws JuggleExceptionUser {
+        AnimationPrefs jc = (defaultprefs == null ? new AnimationPrefs() :
+                             new AnimationPrefs(defaultprefs));
+        if (prefs != null && prefs.length() > 0) {
+            ParameterList pl = new ParameterList(prefs);
+            jc.fromParameters(pl);
+            pl.errorIfParametersLeft();
+        }
+
+        if (jc.width <= 0 || jc.height <= 0 || (long)jc.width * jc.height > MAX_PIXELS)
+            throw new JuggleExceptionUser("Image size " + jc.width + "x" + jc.height +
+                                          " not allowed");
+        return jc;
+    }
+
+    //-------------------------------------------------------------------------
+    // Request latencies, in power-of-two buckets of milliseconds
+    //-------------------------------------------------------------------------
+
+    protected static class LatencyHistogram {
+        protected static final int BUCKETS = 24;
+
+        protected long[] counts = new long[BUCKETS];
+        protected long total;
+        protected long total_nanos;
+        protected long max_nanos;
+
+
+        public synchronized void add(long nanos) {
+            long ms = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKETS - 1 && (1L << bucket) <= ms)
+                bucket++;
+            counts[bucket]++;
+            total++;
+            total_nanos += nanos;
+            max_nanos = Math.max(max_nanos, nanos);
+        }
+
+        // Upper bound of the bucket containing the given fraction of requests
+        protected long getPercentile(double fraction) {
+            long target = (long)Math.ceil(fraction * total);
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                sum += counts[i];
+                if (sum >= target)
+                    return 1L << i;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        public synchronized String getStatistics() {
+            if (total == 0)
+                return "latency_ms_mean 0\n";
+            return String.format("latency_ms_mean %.1f\nlatency_ms_max %.1f\n" +
+                                 "latency_ms_p50_under %d\nlatency_ms_p95_under %d\n" +
+                                 "latency_ms_p99_under %d\n",
+                                 total_nanos / 1e6 / total, max_nanos / 1e6,
+                                 getPercentile(0.50), getPercentile(0.95),
+                                 getPercentile(0.99));
+        }
+    }
+}
@@ -32,6 +32,15 @@ public abstract class Curve {
     // case the spline will choose a velocity.
     protected Coordinate[] velocities;
 
+    // Results of the most recent getMax/getMin queries, as arrays
+    // { begin, end, x, y, z }, used while the flags are set. These are
+    // cleared whenever the curve changes. Guarded by `this`.
+    protected final double[] maxcache = new double[5];
+    protected final double[] mincache = new double[5];
+    protected boolean maxvalid;
+    protected boolean minvalid;
+    protected final Coordinate extremumloc = new Coordinate();  // scratch
+
 
     //-------------------------------------------------------------------------
     // Abstract methods for subclasses to define
@@ -44,13 +53,41 @@ public abstract class Curve {
     // Return the coordinate at a specific time.
     public abstract void getCoordinate(double time, Coordinate newPosition);
 
-    // Find the maximum value of each of the 3 coordinates separately, within
-    // the given time range.
-    protected abstract Coordinate getMax2(double begin, double end);
+    // Return the coordinate at a specific time, using `cursor` (if non-null)
+    // to speed up finding the segment containing `time`. The result is the
+    // same as getCoordinate(time, newPosition).
+    public void getCoordinate(double time, Coordinate newPosition, CurveCursor cursor) {
+        getCoordinate(time, newPosition);
+    }
 
     // Find the maximum value of each of the 3 coordinates separately, within
+    // the given time range. Candidate times are passed to check(), which
+    // accumulates into `result` using `loc` as scratch space.
+    protected abstract void getMax2(double begin, double end, Coordinate result,
+                                    Coordinate loc);
+
+    // Find the minimum value of each of the 3 coordinates separately, within
     // the given time range.
-    protected abstract Coordinate getMin2(double begin, double end);
+    protected abstract void getMin2(double begin, double end, Coordinate result,
+                                    Coordinate loc);
+
+    // Evaluate the curve at times t[from], ..., t[to-1], which must be in
+    // nondecreasing order, storing the results in x[], y[], and z[]. As with
+    // getCoordinate(), entries for times outside the curve are left unchanged.
+    //
+    // Subclasses override this with loops that avoid the per-sample segment
+    // search and Coordinate objects.
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        Coordinate loc = new Coordinate();
+        for (int i = from; i < to; i++) {
+            loc.setCoordinate(x[i], y[i], z[i]);
+            getCoordinate(t[i], loc);
+            x[i] = loc.x;
+            y[i] = loc.y;
+            z[i] = loc.z;
+        }
+    }
 
     //-------------------------------------------------------------------------
     // Helper methods
@@ -62,6 +99,7 @@ public abstract class Curve {
         this.times = times;
         this.positions = positions;
         this.velocities = velocities;
+        clearExtremumCache();
 
         if (numpoints != positions.length || numpoints != velocities.length)
             throw new JuggleExceptionInternal("Curve error 1");
@@ -82,37 +120,124 @@ public abstract class Curve {
     public void translateTime(double deltat) {
         for (int i = 0; i < numpoints; i++)
             times[i] += deltat;
+        clearExtremumCache();
     }
 
     // for screen layout purposes
     public Coordinate getMax() {
-        return getMax2(times[0], times[numpoints - 1]);
+        return getMax(times[0], times[numpoints - 1]);
     }
 
     public Coordinate getMin() {
-        return getMin2(times[0], times[numpoints - 1]);
+        return getMin(times[0], times[numpoints - 1]);
     }
 
     public Coordinate getMax(double begin, double end) {
-        if (end < getStartTime() || begin > getEndTime())
-            return null;
-        return getMax2(begin, end);
+        Coordinate result = new Coordinate();
+        return (getMax(begin, end, result) ? result : null);
     }
 
     public Coordinate getMin(double begin, double end) {
+        Coordinate result = new Coordinate();
+        return (getMin(begin, end, result) ? result : null);
+    }
+
+    // Versions of the above that store the answer in `result`, returning
+    // false (and leaving `result` unchanged) if the time range doesn't overlap
+    // the curve. These don't allocate when the answer is cached.
+    public boolean getMax(double begin, double end, Coordinate result) {
+        return findExtremum(begin, end, true, result);
+    }
+
+    public boolean getMin(double begin, double end, Coordinate result) {
+        return findExtremum(begin, end, false, result);
+    }
+
+    // Called when the curve changes; subclasses should call this from
+    // calcCurve()
+    protected synchronized void clearExtremumCache() {
+        maxvalid = false;
+        minvalid = false;
+    }
+
+    protected synchronized boolean findExtremum(double begin, double end, boolean findmax,
+                            Coordinate result) {
         if (end < getStartTime() || begin > getEndTime())
-            return null;
-        return getMin2(begin, end);
+            return false;
+
+        // clip to the curve so equivalent queries share a cache entry
+        double tlow = Math.max(getStartTime(), begin);
+        double thigh = Math.min(getEndTime(), end);
+
+        double[] cache = (findmax ? maxcache : mincache);
+        boolean valid = (findmax ? maxvalid : minvalid);
+        if (!valid || cache[0] != tlow || cache[1] != thigh) {
+            double init = (findmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+            result.setCoordinate(init, init, init);
+            if (findmax)
+                getMax2(tlow, thigh, result, extremumloc);
+            else
+                getMin2(tlow, thigh, result, extremumloc);
+
+            cache[0] = tlow;
+            cache[1] = thigh;
+            cache[2] = result.x;
+            cache[3] = result.y;
+            cache[4] = result.z;
+            if (findmax)
+                maxvalid = true;
+            else
+                minvalid = true;
+            return true;
+        }
+
+        result.setCoordinate(cache[2], cache[3], cache[4]);
+        return true;
+    }
+
+    // Return the index i of the first segment [times[i], times[i+1]] with
+    // time <= times[i+1], or the last segment if there is none. This is the
+    // segment used to evaluate the curve at `time`.
+    //
+    // If `cursor` is non-null, the segment it holds and the one after it are
+    // tried first, and the cursor is updated with the result.
+    protected int findSegment(double time, CurveCursor cursor) {
+        int nseg = numpoints - 1;
+
+        if (cursor != null) {
+            int hint = cursor.segment;
+            for (int i = Math.max(hint, 0); i < nseg && i <= hint + 1; i++) {
+                if (time <= times[i+1] && (i == 0 || time > times[i])) {
+                    cursor.segment = i;
+                    return i;
+                }
+            }
+        }
+
+        int lo = 0;
+        int hi = nseg - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time <= times[mid+1])
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+
+        if (cursor != null)
+            cursor.segment = lo;
+        return lo;
     }
 
     // utility for getMax2/getMin2
-    protected Coordinate check(Coordinate result, double t, boolean findmax) {
-        Coordinate loc = new Coordinate();
+    protected void check(Coordinate result, Coordinate loc, double t, boolean findmax) {
+        loc.setCoordinate(0.0, 0.0, 0.0);
         getCoordinate(t, loc);
         if (findmax)
-            result = Coordinate.max(result, loc);
+            result.setCoordinate(Math.max(result.x, loc.x), Math.max(result.y, loc.y),
+                                 Math.max(result.z, loc.z));
         else
-            result = Coordinate.min(result, loc);
-        return result;
+            result.setCoordinate(Math.min(result.x, loc.x), Math.min(result.y, loc.y),
+                                 Math.min(result.z, loc.z));
     }
 }
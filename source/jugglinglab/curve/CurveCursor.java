@@ -0,0 +1,28 @@
+// CurveCursor.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.curve;
+
+
+// Remembers the curve segment found by the last call to
+// Curve.getCoordinate(time, position, cursor), so that a caller evaluating a
+// curve at increasing times (e.g., during animation) finds the next segment
+// in O(1) instead of searching.
+//
+// The remembered segment is only a hint and is checked before use, so one
+// cursor may be used with different curves, or shared between threads,
+// without affecting results.
+
+public class CurveCursor {
+    protected int segment;
+
+
+    public CurveCursor() {
+        segment = 0;
+    }
+
+    public void reset() {
+        segment = 0;
+    }
+}
@@ -14,6 +14,7 @@ public class LineCurve extends Curve {
 
     @Override
     public void calcCurve() throws JuggleExceptionInternal {
+        clearExtremumCache();
         n = numpoints - 1;
         if (n < 1)
             throw new JuggleExceptionInternal("LineCurve error 1");
@@ -43,15 +44,15 @@ public class LineCurve extends Curve {
 
     @Override
     public void getCoordinate(double time, Coordinate newPosition) {
+        getCoordinate(time, newPosition, null);
+    }
+
+    @Override
+    public void getCoordinate(double time, Coordinate newPosition, CurveCursor cursor) {
         if (time < times[0] || time > times[n])
             return;
 
-        int i;
-        for (i = 0; i < n; i++)
-            if (time <= times[i+1])
-                break;
-        if (i == n)
-            i = n - 1;
+        int i = findSegment(time, cursor);
 
         time -= times[i];
         newPosition.setCoordinate( a[i][0] + time * b[i][0],
@@ -60,58 +61,75 @@ public class LineCurve extends Curve {
     }
 
     @Override
-    protected Coordinate getMax2(double begin, double end) {
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        int i = 0;
+
+        for (int k = from; k < to; k++) {
+            double time = t[k];
+            if (time < times[0] || time > times[n])
+                continue;
+
+            // advance to the segment findSegment() would return
+            while (i < n - 1 && time > times[i+1])
+                i++;
+            if (i > 0 && time <= times[i])
+                i = findSegment(time, null);  // times not in order
+
+            time -= times[i];
+            x[k] = a[i][0] + time * b[i][0];
+            y[k] = a[i][1] + time * b[i][1];
+            z[k] = a[i][2] + time * b[i][2];
+        }
+    }
+
+    @Override
+    protected void getMax2(double begin, double end, Coordinate result, Coordinate loc) {
         if (end < times[0] || begin > times[n])
-            return null;
+            return;
 
-        Coordinate result = null;
         double tlow = Math.max(times[0], begin);
         double thigh = Math.min(times[n], end);
-        result = check(result, tlow, true);
-        result = check(result, thigh, true);
+        check(result, loc, tlow, true);
+        check(result, loc, thigh, true);
 
         for (int i = 0; i <= n; i++) {
             if (tlow <= times[i] && times[i] <= thigh)
-                result = check(result, times[i], true);
+                check(result, loc, times[i], true);
             if (i != n) {
                 double tlowtemp = Math.max(tlow, times[i]);
                 double thightemp = Math.min(thigh, times[i+1]);
 
                 if (tlowtemp < thightemp) {
-                    result = check(result, tlowtemp, true);
-                    result = check(result, thightemp, true);
+                    check(result, loc, tlowtemp, true);
+                    check(result, loc, thightemp, true);
                 }
             }
         }
-
-        return result;
     }
 
     @Override
-    protected Coordinate getMin2(double begin, double end) {
+    protected void getMin2(double begin, double end, Coordinate result, Coordinate loc) {
         if ((end < times[0]) || (begin > times[n]))
-            return null;
+            return;
 
-        Coordinate result = null;
         double tlow = Math.max(times[0], begin);
         double thigh = Math.min(times[n], end);
-        result = check(result, tlow, false);
-        result = check(result, thigh, false);
+        check(result, loc, tlow, false);
+        check(result, loc, thigh, false);
 
         for (int i = 0; i <= n; i++) {
             if (tlow <= times[i] && times[i] <= thigh)
-                result = check(result, times[i], false);
+                check(result, loc, times[i], false);
             if (i != n) {
                 double tlowtemp = Math.max(tlow, times[i]);
                 double thightemp = Math.min(thigh, times[i+1]);
 
                 if (tlowtemp < thightemp) {
-                    result = check(result, tlowtemp, false);
-                    result = check(result, thightemp, false);
+                    check(result, loc, tlowtemp, false);
+                    check(result, loc, thightemp, false);
                 }
             }
         }
-
-        return result;
     }
 }
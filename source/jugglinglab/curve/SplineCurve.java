@@ -12,7 +12,19 @@ import org.apache.commons.math3.linear.*;
 
 public class SplineCurve extends Curve {
     protected int n;  // number of spline segments
-    protected double[][] a, b, c, d;  // spline coefficients
+
+    // Spline coefficients, 12 per segment. On segment i the curve is
+    // a + b*t + c*t^2 + d*t^3 (t measured from times[i]), and for axis j the
+    // coefficients are at coef[12*i + j], coef[12*i + 3 + j], coef[12*i + 6 + j]
+    // and coef[12*i + 9 + j] respectively.
+    protected double[] coef;
+
+    // Workspace for calcCurve(), kept so that fitting with the same number of
+    // points again doesn't allocate (see takeWorkspace())
+    protected double[] durations;  // duration of each segment
+    protected double[] vel;  // velocity at each point, 3 per point
+    protected boolean[] velknown;  // which entries in `vel` are specified
+    protected double[] Adiag, Aoffd, rhs, u, z1, z2, gam;  // tridiagonal solves
 
     // Calculate the coefficients a, b, c, d for each portion of the spline path.
     // To solve for these four unknowns, we use four boundary conditions: the
@@ -27,28 +39,28 @@ public class SplineCurve extends Curve {
 
     @Override
     public void calcCurve() throws JuggleExceptionInternal {
+        clearExtremumCache();
         n = numpoints - 1;
         if (n < 1)
             throw new JuggleExceptionInternal("SplineCurve error 1");
 
-        a = new double[n][3];
-        b = new double[n][3];
-        c = new double[n][3];
-        d = new double[n][3];
-        double[] durations = new double[n];
+        allocateWorkspace();
+
         for (int i = 0; i < n; i++) {
             durations[i] = times[i+1] - times[i];
             if (durations[i] <= 0)
                 throw new JuggleExceptionInternal("SplineCurve error 2");
         }
 
-        // copy the velocity array so we can modify it
-        Coordinate[] vel = new Coordinate[n+1];
-        for (int i = 0; i < n + 1; i++)
-            vel[i] = (velocities[i] == null ? null : new Coordinate(velocities[i]));
+        // copy the velocities so we can modify them
+        for (int i = 0; i < n + 1; i++) {
+            velknown[i] = (velocities[i] != null);
+            for (int j = 0; j < 3; j++)
+                vel[3*i + j] = (velknown[i] ? velocities[i].getIndex(j) : 0);
+        }
 
-        if (vel[0] != null && vel[n] != null)
-            findvels_edges_known(n, durations, positions, vel);
+        if (velknown[0] && velknown[n])
+            findvels_edges_known(n, durations, positions, vel, velknown);
         else
             findvels_edges_unknown(n, durations, positions, vel);
 
@@ -59,18 +71,57 @@ public class SplineCurve extends Curve {
             for (int j = 0; j < 3; j++) {
                 double xi0 = positions[i].getIndex(j);
                 double xi1 = positions[i+1].getIndex(j);
-                double vi0 = vel[i].getIndex(j);
-                double vi1 = vel[i+1].getIndex(j);
-
-                a[i][j] = xi0;
-                b[i][j] = vi0;
-                c[i][j] = (3 * (xi1 - xi0) - (vi1 + 2 * vi0) * t) / (t * t);
-                d[i][j] = (-2 * (xi1 - xi0) + (vi1 + vi0) * t) / (t * t * t);
-                //System.out.println("a="+a[i][j]+", b="+b[i][j]+", c="+c[i][j]+", d="+d[i][j]+"\n");
+                double vi0 = vel[3*i + j];
+                double vi1 = vel[3*(i+1) + j];
+
+                coef[12*i + j] = xi0;
+                coef[12*i + 3 + j] = vi0;
+                coef[12*i + 6 + j] = (3 * (xi1 - xi0) - (vi1 + 2 * vi0) * t) / (t * t);
+                coef[12*i + 9 + j] = (-2 * (xi1 - xi0) + (vi1 + vi0) * t) / (t * t * t);
             }
         }
     }
 
+    // Size the coefficient and workspace arrays for `n` segments, keeping the
+    // existing ones if they are the right size
+    protected void allocateWorkspace() {
+        if (coef == null || coef.length != 12 * n)
+            coef = new double[12 * n];
+        if (durations != null && durations.length == n)
+            return;
+
+        durations = new double[n];
+        vel = new double[3 * (n + 1)];
+        velknown = new boolean[n + 1];
+        Adiag = new double[n];
+        Aoffd = new double[n];
+        rhs = new double[n];
+        u = new double[n];
+        z1 = new double[n];
+        z2 = new double[n];
+        gam = new double[n];
+    }
+
+    // Take over the calcCurve() workspace of `old`, a curve this one replaces.
+    // `old` may still be in use, but mustn't be fit again.
+    public void takeWorkspace(SplineCurve old) {
+        durations = old.durations;
+        vel = old.vel;
+        velknown = old.velknown;
+        Adiag = old.Adiag;
+        Aoffd = old.Aoffd;
+        rhs = old.rhs;
+        u = old.u;
+        z1 = old.z1;
+        z2 = old.z2;
+        gam = old.gam;
+
+        old.durations = null;
+        old.vel = null;
+        old.velknown = null;
+        old.Adiag = old.Aoffd = old.rhs = old.u = old.z1 = old.z2 = old.gam = null;
+    }
+
     // These are the three techniques to assign velocities:
     //    "MINIMIZE_RMSACCEL" minimizes the rms acceleration of the hand
     //    "CONTINUOUS_ACCEL" makes the hand acceleration a continuous function
@@ -88,13 +139,15 @@ public class SplineCurve extends Curve {
     //          interior velocities v[1]...v[n-1]
     //    t[] is the duration of each segment, dimension n
     //    x[] is the position at each segment endpoint, dimension (n+1)
-    //    v[] is the velocity at each segment endpoint, dimension (n+1)
+    //    v[] is the velocity at each segment endpoint, dimension 3*(n+1),
+    //          with v[3*i + axis] the velocity component of endpoint i
+    //    vknown[] is whether each velocity is specified, dimension (n+1)
     //
     // Outputs:
-    //    v[1]...v[n-1]
+    //    v[] for endpoints 1...n-1
     //
     // v[0] and v[n] are assumed to be initialized to known endpoints. The
-    // interior velocities v[1]...v[n-1] may be initialized to non-null values,
+    // interior velocities v[1]...v[n-1] may be specified (vknown[i] true),
     // to indicate there is a natural catch at that time (v[i] is the catch
     // velocity). For a natural catch the hand velocity is constrained to be
     // parallel to the catch velocity, at the time of catch.
@@ -103,14 +156,14 @@ public class SplineCurve extends Curve {
     // solving a system of linear equations of the form A.v = b, where v
     // is a column vector of velocities and Lagrange multipliers.
 
-    static protected void findvels_edges_known(int n, double[] t, Coordinate[] x, Coordinate[] v)
-                                            throws JuggleExceptionInternal {
+    static protected void findvels_edges_known(int n, double[] t, Coordinate[] x,
+                            double[] v, boolean[] vknown) throws JuggleExceptionInternal {
         if (n < 2)
             return;
 
         int numcatches = 0;
         for (int i = 1; i < n; i++) {
-            if (v[i] != null)
+            if (vknown[i])
                 numcatches++;
         }
 
@@ -125,8 +178,8 @@ public class SplineCurve extends Curve {
         double[] b = new double[dim];
 
         for (int axis = 0; axis < 3; axis++) {
-            double v0 = v[0].getIndex(axis);
-            double vn = v[n].getIndex(axis);
+            double v0 = v[axis];
+            double vn = v[3*n + axis];
 
             for (int i = 0; i < n - 1; i++) {
                 double xi0 = x[i].getIndex(axis);
@@ -182,13 +235,13 @@ public class SplineCurve extends Curve {
         // specified catch velocity.
 
         for (int i = 0, catchnum = 0; i < n - 1; i++) {
-            if (v[i+1] == null)
+            if (!vknown[i+1])
                 continue;
 
             int index = 3 * (n - 1) + 2 * catchnum;
-            double ci0 = v[i+1].getIndex(0);  // components of catch velocity
-            double ci1 = v[i+1].getIndex(1);
-            double ci2 = v[i+1].getIndex(2);
+            double ci0 = v[3*(i+1)];  // components of catch velocity
+            double ci1 = v[3*(i+1) + 1];
+            double ci2 = v[3*(i+1) + 2];
 
             //System.out.println("catch velocity (i=" + (i+1) + ") = " + v[i+1]);
 
@@ -228,9 +281,9 @@ public class SplineCurve extends Curve {
             RealVector solution = solver.solve(new ArrayRealVector(b));
 
             for (int i = 0; i < n - 1; i++) {
-                v[i+1] = new Coordinate(solution.getEntry(i),
-                                        solution.getEntry(i + (n-1)),
-                                        solution.getEntry(i + 2*(n-1)));
+                v[3*(i+1)] = solution.getEntry(i);
+                v[3*(i+1) + 1] = solution.getEntry(i + (n-1));
+                v[3*(i+1) + 2] = solution.getEntry(i + 2*(n-1));
             }
         } catch (SingularMatrixException sme) {
             throw new JuggleExceptionInternal("Singular matrix in findvels_edges_known()");
@@ -251,19 +304,18 @@ public class SplineCurve extends Curve {
     // use the Woodbury formula which allows us to solve a few auxiliary
     // tridiagonal problems and then combine the results to solve the full
     // problem. See pg. 77 from Numerical Recipes in C, first edition.
+    //
+    // The velocities are stored in v[] as in findvels_edges_known(). The
+    // tridiagonal solves use the workspace arrays of this curve.
 
-    static protected void findvels_edges_unknown(int n, double[] t, Coordinate[] x, Coordinate[] v)
+    protected void findvels_edges_unknown(int n, double[] t, Coordinate[] x, double[] v)
                                             throws JuggleExceptionInternal {
         if (n < 1)
             return;
 
-        double[] Adiag = new double[n];  // v[0]...v[n-1]
-        double[] Aoffd = new double[n];  // A is symmetric
+        // Adiag is v[0]...v[n-1], Aoffd the off-diagonal (A is symmetric)
         double Acorner = 0;  // nonzero element in UR/LL corners of A
-        double[] b = new double[n];
-
-        for (int i = 0; i < n; i++)
-            v[i] = new Coordinate(0, 0, 0);
+        double[] b = rhs;
 
         // Here we can solve each axis independently, and combine the results
 
@@ -309,26 +361,22 @@ public class SplineCurve extends Curve {
             // for (int i = 0; i < n; i++)
             //     System.out.println("  b["+i+"] = "+b[i]);
 
-            double[] vel = new double[n];
-            for (int i = 0; i < n; i++)
-                vel[i] = v[i].getIndex(axis);
+            double[] vel = u;
 
             // Woodbury's formula: First solve the problem ignoring A's nonzero corners
-            tridag(Aoffd, Adiag, Aoffd, b, vel, n);
+            tridag(Aoffd, Adiag, Aoffd, b, vel, n, gam);
 
             if (n > 2) {  // need to deal with nonzero corners?
                 // solve a few auxiliary problems
-                double[] z1 = new double[n];
                 b[0] = Acorner;
                 for (int i = 1; i < n; i++)
                     b[i] = 0;
-                tridag(Aoffd, Adiag, Aoffd, b, z1, n);
+                tridag(Aoffd, Adiag, Aoffd, b, z1, n, gam);
 
-                double[] z2 = new double[n];
                 b[n-1] = Acorner;
                 for (int i = 0; i < n - 1; i++)
                     b[i] = 0;
-                tridag(Aoffd, Adiag, Aoffd, b, z2, n);
+                tridag(Aoffd, Adiag, Aoffd, b, z2, n, gam);
 
                 // calculate a 2x2 matrix H
                 double H00, H01, H10, H11;
@@ -350,7 +398,7 @@ public class SplineCurve extends Curve {
             }
 
             for (int i = 0; i < n; i++)
-                v[i].setIndex(axis, vel[i]);
+                v[3*i + axis] = vel[i];
 
             /*
             // do the matrix multiply to check the answer
@@ -370,7 +418,8 @@ public class SplineCurve extends Curve {
             */
         }
 
-        v[n] = new Coordinate(v[0]);  // v[n] = v[0]
+        for (int axis = 0; axis < 3; axis++)
+            v[3*n + axis] = v[axis];  // v[n] = v[0]
     }
 
     // The following method is adapted from Numerical Recipes. It solves the
@@ -380,11 +429,16 @@ public class SplineCurve extends Curve {
 
     static protected void tridag(double[] a, double[] b, double[] c, double[] r, double[] u, int n)
                         throws JuggleExceptionInternal {
+        tridag(a, b, c, r, u, n, new double[n]);
+    }
+
+    // Version of the above with a caller-supplied workspace gam[] of size n
+    static protected void tridag(double[] a, double[] b, double[] c, double[] r, double[] u, int n,
+                        double[] gam) throws JuggleExceptionInternal {
         if (b[0] == 0)
             throw new JuggleExceptionInternal("Error 1 in TRIDAG");
 
         double bet = b[0];
-        double[] gam = new double[n];
 
         u[0] = r[0] / bet;
         for (int j = 1; j < n; j++) {
@@ -400,107 +454,132 @@ public class SplineCurve extends Curve {
 
     @Override
     public void getCoordinate(double time, Coordinate newPosition) {
+        getCoordinate(time, newPosition, null);
+    }
+
+    @Override
+    public void getCoordinate(double time, Coordinate newPosition, CurveCursor cursor) {
         if (time < times[0] || time > times[n])
             return;
 
-        int i;
-        for (i = 0; i < n; i++)
-            if (time <= times[i+1])
-                break;
-        if (i == n)
-            i = n - 1;
+        int i = findSegment(time, cursor);
 
         time -= times[i];
-        newPosition.setCoordinate(a[i][0]+time*(b[i][0]+time*(c[i][0]+time*d[i][0])),
-                                  a[i][1]+time*(b[i][1]+time*(c[i][1]+time*d[i][1])),
-                                  a[i][2]+time*(b[i][2]+time*(c[i][2]+time*d[i][2])) );
+        int k = 12 * i;
+        newPosition.setCoordinate(coef[k]+time*(coef[k+3]+time*(coef[k+6]+time*coef[k+9])),
+                                  coef[k+1]+time*(coef[k+4]+time*(coef[k+7]+time*coef[k+10])),
+                                  coef[k+2]+time*(coef[k+5]+time*(coef[k+8]+time*coef[k+11])) );
     }
 
     @Override
-    protected Coordinate getMax2(double begin, double end) {
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        int i = 0;
+
+        for (int m = from; m < to; m++) {
+            double time = t[m];
+            if (time < times[0] || time > times[n])
+                continue;
+
+            // advance to the segment findSegment() would return
+            while (i < n - 1 && time > times[i+1])
+                i++;
+            if (i > 0 && time <= times[i])
+                i = findSegment(time, null);  // times not in order
+
+            time -= times[i];
+            int k = 12 * i;
+            x[m] = coef[k]+time*(coef[k+3]+time*(coef[k+6]+time*coef[k+9]));
+            y[m] = coef[k+1]+time*(coef[k+4]+time*(coef[k+7]+time*coef[k+10]));
+            z[m] = coef[k+2]+time*(coef[k+5]+time*(coef[k+8]+time*coef[k+11]));
+        }
+    }
+
+    @Override
+    protected void getMax2(double begin, double end, Coordinate result, Coordinate loc) {
         if (end < times[0] || begin > times[n])
-            return null;
+            return;
 
-        Coordinate result = null;
         double tlow = Math.max(times[0], begin);
         double thigh = Math.min(times[n], end);
-        result = check(result, tlow, true);
-        result = check(result, thigh, true);
+        check(result, loc, tlow, true);
+        check(result, loc, thigh, true);
 
         for (int i = 0; i <= n; i++) {
             if (tlow <= times[i] && times[i] <= thigh)
-                result = check(result, times[i], true);
+                check(result, loc, times[i], true);
             if (i != n) {
                 double tlowtemp = Math.max(tlow, times[i]);
                 double thightemp = Math.min(thigh, times[i+1]);
 
                 if (tlowtemp < thightemp) {
-                    result = check(result, tlowtemp, true);
-                    result = check(result, thightemp, true);
+                    check(result, loc, tlowtemp, true);
+                    check(result, loc, thightemp, true);
 
                     for (int index = 0; index < 3; index++) {
-                        if (Math.abs(d[i][index]) > 1.0e-6) {
-                            double k = c[i][index]*c[i][index] - 3*b[i][index]*d[i][index];
+                        double bi = coef[12*i + 3 + index];
+                        double ci = coef[12*i + 6 + index];
+                        double di = coef[12*i + 9 + index];
+                        if (Math.abs(di) > 1.0e-6) {
+                            double k = ci*ci - 3*bi*di;
                             if (k > 0) {
-                                double te = times[i] + (-c[i][index]-Math.sqrt(k))/(3*d[i][index]);
+                                double te = times[i] + (-ci-Math.sqrt(k))/(3*di);
                                 if (tlowtemp < te && te < thightemp)
-                                    result = check(result, te, true);
+                                    check(result, loc, te, true);
                             }
-                        } else if (c[i][index] < 0) {
-                            double te = -b[i][index]/(2*c[i][index]);
+                        } else if (ci < 0) {
+                            double te = -bi/(2*ci);
                             te += times[i];
                             if (tlowtemp < te && te < thightemp)
-                                result = check(result, te, true);
+                                check(result, loc, te, true);
                         }
                     }
                 }
             }
         }
-
-        return result;
     }
 
     @Override
-    protected Coordinate getMin2(double begin, double end) {
+    protected void getMin2(double begin, double end, Coordinate result, Coordinate loc) {
         if (end < times[0] || begin > times[n])
-            return null;
+            return;
 
-        Coordinate result = null;
         double tlow = Math.max(times[0], begin);
         double thigh = Math.min(times[n], end);
-        result = check(result, tlow, false);
-        result = check(result, thigh, false);
+        check(result, loc, tlow, false);
+        check(result, loc, thigh, false);
 
         for (int i = 0; i <= n; i++) {
             if (tlow <= times[i] && times[i] <= thigh)
-                result = check(result, times[i], false);
+                check(result, loc, times[i], false);
             if (i != n) {
                 double tlowtemp = Math.max(tlow, times[i]);
                 double thightemp = Math.min(thigh, times[i+1]);
 
                 if (tlowtemp < thightemp) {
-                    result = check(result, tlowtemp, false);
-                    result = check(result, thightemp, false);
+                    check(result, loc, tlowtemp, false);
+                    check(result, loc, thightemp, false);
 
                     for (int index = 0; index < 3; index++) {
-                        if (Math.abs(d[i][index]) > 1.0e-6) {
-                            double k = c[i][index]*c[i][index] - 3*b[i][index]*d[i][index];
+                        double bi = coef[12*i + 3 + index];
+                        double ci = coef[12*i + 6 + index];
+                        double di = coef[12*i + 9 + index];
+                        if (Math.abs(di) > 1.0e-6) {
+                            double k = ci*ci - 3*bi*di;
                             if (k > 0) {
-                                double te = times[i] + (-c[i][index]+Math.sqrt(k))/(3*d[i][index]);
+                                double te = times[i] + (-ci+Math.sqrt(k))/(3*di);
                                 if (tlowtemp < te && te < thightemp)
-                                    result = check(result, te, false);
+                                    check(result, loc, te, false);
                             }
-                        } else if (c[i][index] > 0) {
-                            double te = -b[i][index]/(2 * c[i][index]);
+                        } else if (ci > 0) {
+                            double te = -bi/(2 * ci);
                             te += times[i];
                             if (tlowtemp < te && te < thightemp)
-                                result = check(result, te, false);
+                                check(result, loc, te, false);
                         }
                     }
                 }
             }
         }
-
-        return result;
     }
 }
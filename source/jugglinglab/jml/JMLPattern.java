@@ -7,6 +7,8 @@ package jugglinglab.jml;
 import java.io.*;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.StringTokenizer;
 import java.util.ResourceBundle;
 import org.xml.sax.*;
@@ -70,6 +72,15 @@ public class JMLPattern {
 
     // list of HandLink objects for each juggler/hand combination
     protected ArrayList<ArrayList<ArrayList<HandLink>>> handlinks;
+    // time indices into the link lists above, for fast lookup by time
+    protected LinkTimeIndex[] pathlinkindex;  // for a given path
+    protected LinkTimeIndex[][] handlinkindex;  // for a given juggler/hand
+    protected CurveCursor[][] handcurvecursor;  // for a given juggler/hand
+
+    // hand curves from the last layout for each juggler/hand. Laying the hands
+    // out again makes new curves, since these may be in use by renderers on
+    // other threads, but reuses their workspace.
+    protected SplineCurve[][][] handcurves;
 
     protected Curve[] jugglercurve;  // coordinates for each juggler
     protected Curve[] jugglerangle;  // angles for each juggler
@@ -77,6 +88,12 @@ public class JMLPattern {
     protected String loadingversion = JMLDefs.CURRENT_JML_VERSION;
     protected boolean laidout;
     protected boolean valid;
+    // master events moved since last layout, if an incremental layout is
+    // pending (null means a full layout is needed)
+    protected ArrayList<JMLEvent> movedmasters;
+
+    // whether layout runs its independent steps on the shared worker pool
+    protected static boolean parallel_layout = true;
 
 
     public JMLPattern() {
@@ -714,6 +731,21 @@ public class JMLPattern {
         if (!valid)
             throw new JuggleExceptionInternal("Cannot do layout of invalid pattern");
 
+        if (movedmasters != null) {
+            ArrayList<JMLEvent> moved = movedmasters;
+            movedmasters = null;
+            try {
+                layoutMovedEvents(moved);
+                laidout = true;
+                return this;
+            } catch (JuggleException je) {
+                // fall through and do a full layout, which reports any
+                // errors properly
+                if (Constants.DEBUG_LAYOUT)
+                    System.out.println("incremental layout failed: " + je.getMessage());
+            }
+        }
+
         try {
             if (getNumberOfProps() == 0 && getNumberOfPaths() > 0)
                 addProp(new PropDef("ball", null));
@@ -725,6 +757,7 @@ public class JMLPattern {
             findPositions();
             gotoGlobalCoordinates();
             buildLinkLists();
+            calcPaths();
             layoutHandPaths();
 
             if (Constants.DEBUG_LAYOUT) {
@@ -756,12 +789,44 @@ public class JMLPattern {
 
     public void setNeedsLayout() {
         laidout = false;
+        movedmasters = null;
+    }
+
+    // Mark the pattern as needing layout after the only change since the last
+    // layout is that master event `ev` has moved in space (same time, same
+    // transitions). The next layoutPattern() then recalculates only the event
+    // images, paths and hand curves touched by the move.
+    //
+    // Anything else (retiming, adding or removing events, changing
+    // transitions, ...) changes the structure of the event list, so use
+    // setNeedsLayout() for those.
+    public void setNeedsLayoutForMovedEvent(JMLEvent ev) {
+        if (!laidout && movedmasters == null)
+            return;  // full layout already pending
+        if (ev == null || !ev.isMaster()) {
+            setNeedsLayout();
+            return;
+        }
+
+        if (movedmasters == null)
+            movedmasters = new ArrayList<JMLEvent>();
+        if (!movedmasters.contains(ev))
+            movedmasters.add(ev);
+        laidout = false;
     }
 
     public boolean isValid() {
         return valid;
     }
 
+    public static void setParallelLayout(boolean parallel) {
+        parallel_layout = parallel;
+    }
+
+    public static boolean isParallelLayout() {
+        return parallel_layout;
+    }
+
     //-------------------------------------------------------------------------
     // Step 1: construct the list of events
     // Extend events in list using known symmetries
@@ -1312,120 +1377,285 @@ public class JMLPattern {
                 }
             }
         }
+
+        buildLinkIndices();
+    }
+
+    // Build time indices over the PathLink and HandLink lists. These are used
+    // by the methods below that look up the link covering a given time, which
+    // run for every path and hand on every animation frame.
+    protected void buildLinkIndices() {
+        pathlinkindex = new LinkTimeIndex[getNumberOfPaths()];
+        for (int i = 0; i < getNumberOfPaths(); i++)
+            pathlinkindex[i] = LinkTimeIndex.forPathLinks(pathlinks.get(i));
+
+        handlinkindex = new LinkTimeIndex[getNumberOfJugglers()][2];
+        for (int i = 0; i < getNumberOfJugglers(); i++) {
+            for (int j = 0; j < 2; j++)
+                handlinkindex[i][j] = LinkTimeIndex.forHandLinks(handlinks.get(i).get(j));
+        }
+
+        handcurvecursor = new CurveCursor[getNumberOfJugglers()][2];
+        for (int i = 0; i < getNumberOfJugglers(); i++) {
+            for (int j = 0; j < 2; j++)
+                handcurvecursor[i][j] = new CurveCursor();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Step 6: do a physical layout of the prop paths for each throw
+    //
+    // The paths are independent of each other so we can calculate them in
+    // parallel. Each task only writes to the Path objects of its own PathLinks,
+    // so the results don't depend on thread scheduling.
+    //-------------------------------------------------------------------------
+
+    protected void calcPaths() throws JuggleExceptionUser, JuggleExceptionInternal {
+        ArrayList<WorkerPool.Task> tasks = new ArrayList<WorkerPool.Task>();
+
+        for (int i = 0; i < getNumberOfPaths(); i++) {
+            final ArrayList<PathLink> links = pathlinks.get(i);
+            tasks.add(new WorkerPool.Task() {
+                @Override
+                public void run() throws JuggleExceptionInternal {
+                    for (PathLink pl : links)
+                        pl.calcPath();  // does nothing for links in hand
+                }
+            });
+        }
+        runLayoutTasks(tasks);
     }
 
     //-------------------------------------------------------------------------
-    // Step 6: do a physical layout of the handlink paths
-    // (Props were physically laid out in PathLink.setThrow() in Step 5 above)
+    // Step 7: do a physical layout of the handlink paths
+    //
+    // Each hand's curves depend only on that hand's events and the (already
+    // calculated) prop paths, so the hands are also done in parallel.
     //-------------------------------------------------------------------------
 
-    protected void layoutHandPaths() throws JuggleExceptionInternal {
+    public void layoutHandPaths() throws JuggleExceptionUser, JuggleExceptionInternal {
+        layoutHandPaths(null);
+    }
 
-        // go through HandLink lists, creating Path objects and calculating paths
+    // Lay out the hands flagged in `hands` (indexed by juggler and hand
+    // index), or all hands if null
+    protected void layoutHandPaths(boolean[][] hands) throws
+                            JuggleExceptionUser, JuggleExceptionInternal {
+        ArrayList<WorkerPool.Task> tasks = new ArrayList<WorkerPool.Task>();
+
+        if (handcurves == null || handcurves.length != getNumberOfJugglers())
+            handcurves = new SplineCurve[getNumberOfJugglers()][2][0];
 
         for (int j = 0; j < getNumberOfJugglers(); j++) {
             for (int h = 0; h < 2; h++) {
-                // There are two cases: a hand has throw or softcatch events (which define
-                // hand velocities at points in time), or it does not (no velocities known).
-                // To determine the spline paths, we need to solve for hand velocity at each
-                // of its events, but this is done differently in the two cases.
-
-                if (hasVDHandJMLTransition[j][h]) {
-                    HandLink startlink = null;
-                    int num = 0;
-
-                    for (int k = 0; k < handlinks.get(j).get(h).size(); k++) {
-                        HandLink hl = handlinks.get(j).get(h).get(k);
-
-                        VelocityRef vr = hl.getStartVelocityRef();
-                        if (vr != null && (vr.getSource() == VelocityRef.VR_THROW ||
-                                           vr.getSource() == VelocityRef.VR_SOFTCATCH)) {
-                            // this is guaranteed to happen before the loop start time,
-                            // given the way we built the event list above
-                            startlink = hl;
-                            num = 1;
-                        }
+                if (hands != null && !hands[j][h])
+                    continue;
 
-                        vr = hl.getEndVelocityRef();
-                        if (startlink != null && vr != null &&
-                                    (vr.getSource() == VelocityRef.VR_THROW ||
-                                    vr.getSource() == VelocityRef.VR_SOFTCATCH)) {
-                            double[] times = new double[num + 1];
-                            Coordinate[] pos = new Coordinate[num + 1];
-                            Coordinate[] velocities = new Coordinate[num + 1];
-                            Curve hp = new SplineCurve();
-
-                            for (int l = 0; l < num; l++) {
-                                HandLink hl2 = handlinks.get(j).get(h).get(k-num+1+l);
-                                times[l] = hl2.getStartEvent().getT();
-                                pos[l] = hl2.getStartEvent().getGlobalCoordinate();
-                                VelocityRef vr2 = hl2.getStartVelocityRef();
-                                if (l > 0 && vr2 != null && vr2.getSource() == VelocityRef.VR_CATCH)
-                                    velocities[l] = vr2.getVelocity();
-                                hl2.setHandCurve(hp);
-                            }
-                            times[num] = hl.getEndEvent().getT();
-                            pos[num] = hl.getEndEvent().getGlobalCoordinate();
-                            velocities[0] = startlink.getStartVelocityRef().getVelocity();
-                            velocities[num] = hl.getEndVelocityRef().getVelocity();
-
-                            hp.setCurve(times, pos, velocities);
-                            hp.calcCurve();
-                            startlink = null;
-                        }
-                        ++num;
-                    }
-                } else {
-                    // Build chain and solve for velocities. This implementation is a little
-                    // inefficient since it builds the second chain by a duplicate calculation rather
-                    // than a copy. Sketch of algorithm:
-                    //    find first handlink that straddles loopStartTime -- call it startlink
-                    //    startevent = first event in startlink
-                    //    delayedstartevent = corresponding event 1 delay period after startevent
-                    //    find handlink that ends with delayedstartevent -- call it endlink
-                    //    build spline hand path from startlink to endlink, and calculate (chain 1)
-                    //    startlink = next link after endlink
-                    //    delayed2startevent = corresponding event 1 delay period after delayedstartevent
-                    //    find handlink that ends with delayed2startevent -- call it endlink
-                    //    build spline hand path from startlink to endlink, and calculate (chain 2)
-                    int k;
-                    HandLink hl = null;
-                    for (k = 0; k < handlinks.get(j).get(h).size(); ++k) {
-                        hl = handlinks.get(j).get(h).get(k);
-                        if (hl.getEndEvent().getT() > getLoopStartTime())
-                            break;
+                final int juggler = j;
+                final int hand = h;
+                tasks.add(new WorkerPool.Task() {
+                    @Override
+                    public void run() throws JuggleExceptionInternal {
+                        layoutHandPath(juggler, hand);
                     }
+                });
+            }
+        }
+        runLayoutTasks(tasks);
+    }
 
-                    for (int chain = 0; chain < 2; ++chain) {
-                        HandLink startlink = hl;
-                        JMLEvent startevent = startlink.getStartEvent();
-                        int num = 1;    // number of links in chain
-                        while (hl.getEndEvent().isDelayOf(startevent) == false) {
-                            hl = handlinks.get(j).get(h).get(++k);
-                            ++num;
-                        }
-                        double[] times = new double[num + 1];
-                        Coordinate[] pos = new Coordinate[num + 1];
-                        Curve hp = new SplineCurve();
-
-                        for (int l = 0; l < num; ++l) {
-                            HandLink hl2 = handlinks.get(j).get(h).get(k - num + 1 + l);
-                            pos[l] = hl2.getStartEvent().getGlobalCoordinate();
-                            times[l] = hl2.getStartEvent().getT();
-                            hl2.setHandCurve(hp);
-                        }
-                        pos[num] = hl.getEndEvent().getGlobalCoordinate();
-                        times[num] = hl.getEndEvent().getT();
-                        // all velocities are null (unknown) -> signal to calculate
-                        hp.setCurve(times, pos, new Coordinate[num + 1]);
-                        hp.calcCurve();
-
-                        if (chain == 0)
-                            hl = handlinks.get(j).get(h).get(++k);
+    protected void runLayoutTasks(ArrayList<WorkerPool.Task> tasks) throws
+                            JuggleExceptionUser, JuggleExceptionInternal {
+        if (parallel_layout)
+            WorkerPool.runAll(tasks);
+        else {
+            for (WorkerPool.Task task : tasks)
+                task.run();
+        }
+    }
+
+    // Lay out the hand curves for juggler index `j` (0-based) and hand index
+    // `h` (0 = left, 1 = right)
+    protected void layoutHandPath(int j, int h) throws JuggleExceptionInternal {
+        // There are two cases: a hand has throw or softcatch events (which define
+        // hand velocities at points in time), or it does not (no velocities known).
+        // To determine the spline paths, we need to solve for hand velocity at each
+        // of its events, but this is done differently in the two cases.
+
+        int numcurves = 0;
+
+        if (hasVDHandJMLTransition[j][h]) {
+            HandLink startlink = null;
+            int num = 0;
+
+            for (int k = 0; k < handlinks.get(j).get(h).size(); k++) {
+                HandLink hl = handlinks.get(j).get(h).get(k);
+
+                VelocityRef vr = hl.getStartVelocityRef();
+                if (vr != null && (vr.getSource() == VelocityRef.VR_THROW ||
+                                   vr.getSource() == VelocityRef.VR_SOFTCATCH)) {
+                    // this is guaranteed to happen before the loop start time,
+                    // given the way we built the event list above
+                    startlink = hl;
+                    num = 1;
+                }
+
+                vr = hl.getEndVelocityRef();
+                if (startlink != null && vr != null &&
+                            (vr.getSource() == VelocityRef.VR_THROW ||
+                            vr.getSource() == VelocityRef.VR_SOFTCATCH)) {
+                    double[] times = new double[num + 1];
+                    Coordinate[] pos = new Coordinate[num + 1];
+                    Coordinate[] velocities = new Coordinate[num + 1];
+                    Curve hp = getHandCurve(j, h, numcurves++);
+
+                    for (int l = 0; l < num; l++) {
+                        HandLink hl2 = handlinks.get(j).get(h).get(k-num+1+l);
+                        times[l] = hl2.getStartEvent().getT();
+                        pos[l] = hl2.getStartEvent().getGlobalCoordinate();
+                        VelocityRef vr2 = hl2.getStartVelocityRef();
+                        if (l > 0 && vr2 != null && vr2.getSource() == VelocityRef.VR_CATCH)
+                            velocities[l] = vr2.getVelocity();
                     }
+                    times[num] = hl.getEndEvent().getT();
+                    pos[num] = hl.getEndEvent().getGlobalCoordinate();
+                    velocities[0] = startlink.getStartVelocityRef().getVelocity();
+                    velocities[num] = hl.getEndVelocityRef().getVelocity();
+
+                    hp.setCurve(times, pos, velocities);
+                    hp.calcCurve();
+                    // only hand the curve out once it's complete
+                    for (int l = 0; l < num; l++)
+                        handlinks.get(j).get(h).get(k-num+1+l).setHandCurve(hp);
+                    startlink = null;
+                }
+                ++num;
+            }
+        } else {
+            // Build chain and solve for velocities. This implementation is a little
+            // inefficient since it builds the second chain by a duplicate calculation rather
+            // than a copy. Sketch of algorithm:
+            //    find first handlink that straddles loopStartTime -- call it startlink
+            //    startevent = first event in startlink
+            //    delayedstartevent = corresponding event 1 delay period after startevent
+            //    find handlink that ends with delayedstartevent -- call it endlink
+            //    build spline hand path from startlink to endlink, and calculate (chain 1)
+            //    startlink = next link after endlink
+            //    delayed2startevent = corresponding event 1 delay period after delayedstartevent
+            //    find handlink that ends with delayed2startevent -- call it endlink
+            //    build spline hand path from startlink to endlink, and calculate (chain 2)
+            int k;
+            HandLink hl = null;
+            for (k = 0; k < handlinks.get(j).get(h).size(); ++k) {
+                hl = handlinks.get(j).get(h).get(k);
+                if (hl.getEndEvent().getT() > getLoopStartTime())
+                    break;
+            }
+
+            for (int chain = 0; chain < 2; ++chain) {
+                HandLink startlink = hl;
+                JMLEvent startevent = startlink.getStartEvent();
+                int num = 1;    // number of links in chain
+                while (hl.getEndEvent().isDelayOf(startevent) == false) {
+                    hl = handlinks.get(j).get(h).get(++k);
+                    ++num;
+                }
+                double[] times = new double[num + 1];
+                Coordinate[] pos = new Coordinate[num + 1];
+                Curve hp = getHandCurve(j, h, numcurves++);
+
+                for (int l = 0; l < num; ++l) {
+                    HandLink hl2 = handlinks.get(j).get(h).get(k - num + 1 + l);
+                    pos[l] = hl2.getStartEvent().getGlobalCoordinate();
+                    times[l] = hl2.getStartEvent().getT();
                 }
+                pos[num] = hl.getEndEvent().getGlobalCoordinate();
+                times[num] = hl.getEndEvent().getT();
+                // all velocities are null (unknown) -> signal to calculate
+                hp.setCurve(times, pos, new Coordinate[num + 1]);
+                hp.calcCurve();
+                for (int l = 0; l < num; ++l)
+                    handlinks.get(j).get(h).get(k - num + 1 + l).setHandCurve(hp);
+
+                if (chain == 0)
+                    hl = handlinks.get(j).get(h).get(++k);
+            }
+        }
+    }
+
+    // Return a new curve number `index` for juggler index `j` and hand index
+    // `h`, with the workspace of the one from the previous layout if there is
+    // one. The previous curve isn't refit, since readers may still have it.
+    protected SplineCurve getHandCurve(int j, int h, int index) {
+        SplineCurve[] curves = handcurves[j][h];
+        if (index >= curves.length)
+            curves = handcurves[j][h] = Arrays.copyOf(curves, Math.max(4, 2 * index));
+        SplineCurve hp = new SplineCurve();
+        if (curves[index] != null)
+            hp.takeWorkspace(curves[index]);
+        curves[index] = hp;
+        return hp;
+    }
+
+    //-------------------------------------------------------------------------
+    // Incremental layout after master events have moved in space. The event
+    // list and link lists keep their structure, so we only need to:
+    //
+    // 1) update the local and global coordinates of each moved event's images
+    // 2) recalculate the throw paths starting or ending at those images
+    // 3) refit the hand curves for every hand touching (1) or (2), since hand
+    //    curves depend on the throw and catch velocities of their paths
+    //
+    // This gives the same result as a full layout.
+    //-------------------------------------------------------------------------
+
+    protected void layoutMovedEvents(ArrayList<JMLEvent> masters) throws
+                            JuggleExceptionUser, JuggleExceptionInternal {
+        if (eventlist == null || pathlinks == null || handlinks == null)
+            throw new JuggleExceptionInternal("layoutMovedEvents(): no layout");
+
+        HashSet<JMLEvent> moved = new HashSet<JMLEvent>();
+        boolean[][] dirtyhands = new boolean[getNumberOfJugglers()][2];
+
+        for (JMLEvent ev = eventlist; ev != null; ev = ev.getNext()) {
+            JMLEvent master = (ev.isMaster() ? ev : ev.getMaster());
+            if (!masters.contains(master))
+                continue;
+
+            // same as the image construction in EventImages
+            Coordinate lc = master.getLocalCoordinate();
+            if (ev.getHand() != master.getHand())
+                lc.x = -lc.x;
+            ev.setLocalCoordinate(lc);
+            ev.setGlobalCoordinate(convertLocalToGlobal(ev.getLocalCoordinate(),
+                                        ev.getJuggler(), ev.getT()));
+
+            moved.add(ev);
+            dirtyhands[ev.getJuggler() - 1][HandLink.index(ev.getHand())] = true;
+        }
+
+        if (moved.size() == 0)
+            throw new JuggleExceptionInternal("layoutMovedEvents(): no events found");
+
+        for (int i = 0; i < getNumberOfPaths(); i++) {
+            for (PathLink pl : pathlinks.get(i)) {
+                if (pl.isInHand())
+                    continue;
+                JMLEvent start = pl.getStartEvent();
+                JMLEvent end = pl.getEndEvent();
+                if (!moved.contains(start) && !moved.contains(end))
+                    continue;
+
+                pl.calcPath();
+                dirtyhands[start.getJuggler() - 1][HandLink.index(start.getHand())] = true;
+                dirtyhands[end.getJuggler() - 1][HandLink.index(end.getHand())] = true;
             }
         }
+
+        layoutHandPaths(dirtyhands);
+
+        if (Constants.DEBUG_LAYOUT)
+            System.out.println("incremental layout: " + moved.size() + " events");
     }
 
     //-------------------------------------------------------------------------
@@ -1501,33 +1731,83 @@ public class JMLPattern {
     // returns path coordinate in global frame
     public void getPathCoordinate(int path, double time, Coordinate newPosition)
                             throws JuggleExceptionInternal {
-        for (PathLink pl : pathlinks.get(path - 1)) {
-            if (time >= pl.getStartEvent().getT() && time <= pl.getEndEvent().getT()) {
-                if (pl.isInHand()) {
-                    int jug = pl.getHoldingJuggler();
-                    int hand = pl.getHoldingHand();
-                    getHandCoordinate(jug, hand, time, newPosition);
-                    return;
-                } else {
-                    pl.getPath().getCoordinate(time, newPosition);
-                    return;
-                }
+        int i = pathlinkindex[path - 1].findInclusive(time);
+        if (i < 0)
+            throw new JuggleExceptionInternal("time t=" + time + " is out of path range");
+
+        PathLink pl = pathlinks.get(path - 1).get(i);
+        if (pl.isInHand()) {
+            int jug = pl.getHoldingJuggler();
+            int hand = pl.getHoldingHand();
+            getHandCoordinate(jug, hand, time, newPosition);
+        } else
+            pl.getPath().getCoordinate(time, newPosition);
+    }
+
+    // Equivalent of getPathCoordinate() at times t[0], ..., t[count-1], which
+    // must be in nondecreasing order, storing the results in x[], y[], and
+    // z[]. Each run of times within one path link (and one hand link, while
+    // in a hand) is evaluated with a single call to Path.getCoordinates() or
+    // Curve.getCoordinates().
+    public void getPathCoordinates(int path, double[] t, int count, double[] x,
+                                   double[] y, double[] z) throws JuggleExceptionInternal {
+        LinkTimeIndex index = pathlinkindex[path - 1];
+
+        int m = 0;
+        while (m < count) {
+            int i = index.findInclusive(t[m]);
+            if (i < 0)
+                throw new JuggleExceptionInternal("time t=" + t[m] + " is out of path range");
+
+            PathLink pl = pathlinks.get(path - 1).get(i);
+            LinkTimeIndex handindex = null;
+            int j = -1;
+            Curve hp = null;
+            if (pl.isInHand()) {
+                int jug = pl.getHoldingJuggler();
+                int hand = (pl.getHoldingHand() == HandLink.LEFT_HAND) ? 0 : 1;
+                handindex = handlinkindex[jug - 1][hand];
+                j = handindex.findExclusive(t[m]);
+                if (j < 0)
+                    throw new JuggleExceptionInternal("time t="+t[m]+" (j="+jug+",h="+hand+") is out of handpath range");
+                hp = handlinks.get(jug - 1).get(hand).get(j).getHandCurve();
+                if (hp == null)
+                    throw new JuggleExceptionInternal("getPathCoordinates() null pointer");
             }
+
+            // the times are in order, so the run ends with the first one past
+            // the end of the link, as findInclusive() and findExclusive() see it
+            int n = 1;
+            while (m + n < count && t[m + n] <= index.getEndTime(i) &&
+                        (handindex == null || t[m + n] < handindex.getEndTime(j)))
+                n++;
+
+            if (hp != null)
+                hp.getCoordinates(t, m, m + n, x, y, z);
+            else
+                pl.getPath().getCoordinates(t, m, m + n, x, y, z);
+            m += n;
         }
-        throw new JuggleExceptionInternal("time t=" + time + " is out of path range");
     }
 
     // returns true if a given hand is holding the path at a given time
     public boolean isHandHoldingPath(int juggler, int hand, double time, int path) {
-        for (PathLink pl : pathlinks.get(path - 1)) {
+        LinkTimeIndex index = pathlinkindex[path - 1];
+        int i = index.findInclusive(time);
+        if (i < 0)
+            return false;
+
+        // at an event time both adjacent links cover `time`, so check each
+        // link starting at or before `time`
+        for (; i < index.size() && index.getStartTime(i) <= time; i++) {
+            PathLink pl = pathlinks.get(path - 1).get(i);
             if (!pl.isInHand())
                 continue;
             if (pl.getHoldingJuggler() != juggler)
                 continue;
             if (pl.getHoldingHand() != hand)
                 continue;
-            if (time >= pl.getStartEvent().getT() && time <= pl.getEndEvent().getT())
-                return true;
+            return true;
         }
         return false;
     }
@@ -1556,6 +1836,11 @@ public class JMLPattern {
     // returns angle (in degrees) between local x axis and global x axis
     // (rotation around vertical z axis)
     public double getJugglerAngle(int juggler, double time) {
+        return getJugglerAngle(juggler, time, new Coordinate());
+    }
+
+    // Version of the above that uses `coord` as scratch space
+    public double getJugglerAngle(int juggler, double time, Coordinate coord) {
         Curve p = jugglerangle[juggler - 1];
 
         while (time < p.getStartTime())
@@ -1563,7 +1848,7 @@ public class JMLPattern {
         while (time > p.getEndTime())
             time -= (getLoopEndTime() - getLoopStartTime());
 
-        Coordinate coord = new Coordinate();
+        coord.setCoordinate(0.0, 0.0, 0.0);
         p.getCoordinate(time, coord);
 
         return coord.x;
@@ -1602,31 +1887,26 @@ public class JMLPattern {
                         throws JuggleExceptionInternal {
         int handindex = (hand == HandLink.LEFT_HAND) ? 0 : 1;
 
-        for (HandLink hl : handlinks.get(juggler - 1).get(handindex)) {
-            if (time >= hl.getStartEvent().getT() && time < hl.getEndEvent().getT()) {
-                Curve hp = hl.getHandCurve();
-                if (hp == null)
-                    throw new JuggleExceptionInternal("getHandCoordinate() null pointer");
-                hl.getHandCurve().getCoordinate(time, newPosition);
-                return;
-            }
-        }
-        throw new JuggleExceptionInternal("time t="+time+" (j="+juggler+",h="+handindex+") is out of handpath range");
+        int i = handlinkindex[juggler - 1][handindex].findExclusive(time);
+        if (i < 0)
+            throw new JuggleExceptionInternal("time t="+time+" (j="+juggler+",h="+handindex+") is out of handpath range");
+
+        HandLink hl = handlinks.get(juggler - 1).get(handindex).get(i);
+        Curve hp = hl.getHandCurve();
+        if (hp == null)
+            throw new JuggleExceptionInternal("getHandCoordinate() null pointer");
+        hp.getCoordinate(time, newPosition, handcurvecursor[juggler - 1][handindex]);
     }
 
     // Get volume of any catch made between time1 and time2; if no catch, returns 0
     public double getPathCatchVolume(int path, double time1, double time2) {
         int i;
-        PathLink pl1 = null, pl2 = null;
+        PathLink pl2 = null;
         boolean wasinair = false;
         boolean gotcatch = false;
 
-        for (i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            pl1 = pathlinks.get(path - 1).get(i);
-            if (time1 >= pl1.getStartEvent().getT() && time1 <= pl1.getEndEvent().getT())
-                break;
-        }
-        if (i == pathlinks.get(path - 1).size())
+        i = pathlinkindex[path - 1].findInclusive(time1);
+        if (i < 0)
             return 0;
         while (true) {
             pl2 = pathlinks.get(path - 1).get(i);
@@ -1657,12 +1937,8 @@ public class JMLPattern {
         int i;
         PathLink pl = null;
 
-        for (i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            pl = pathlinks.get(path - 1).get(i);
-            if (time1 >= pl.getStartEvent().getT() && time1 <= pl.getEndEvent().getT())
-                break;
-        }
-        if (i == pathlinks.get(path - 1).size())
+        i = pathlinkindex[path - 1].findInclusive(time1);
+        if (i < 0)
             return 0;
         while (true) {
             pl = pathlinks.get(path - 1).get(i);
@@ -1685,69 +1961,106 @@ public class JMLPattern {
     }
 
     public Coordinate getPathMax(int path) {    // maximum of each coordinate
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-
-        for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
-            PathLink pl = pathlinks.get(path - 1).get(i);
-            if (pl.isInHand())
-                result = Coordinate.max(result,
-                                        getHandMax(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
-            else
-                result = Coordinate.max(result,
-                                        pl.getPath().getMax(t1, t2));
-        }
-        return result;
+        Coordinate result = new Coordinate();
+        return (findPathExtremum(path, true, result) ? result : null);
     }
 
     public Coordinate getPathMin(int path) {
-        Coordinate result = null;
+        Coordinate result = new Coordinate();
+        return (findPathExtremum(path, false, result) ? result : null);
+    }
+
+    public Coordinate getHandMax(int juggler, int hand) {
+        Coordinate result = new Coordinate();
+        return (findHandExtremum(juggler, hand, true, result) ? result : null);
+    }
+
+    public Coordinate getHandMin(int juggler, int hand) {
+        Coordinate result = new Coordinate();
+        return (findHandExtremum(juggler, hand, false, result) ? result : null);
+    }
+
+    // Find the maximum (or minimum) of each coordinate of a path over one
+    // loop of the pattern, storing it in `result`. Returns false if there is
+    // none, in which case `result` is unchanged.
+    public boolean findPathExtremum(int path, boolean findmax, Coordinate result) {
         double t1 = getLoopStartTime();
         double t2 = getLoopEndTime();
+        double rx = 0, ry = 0, rz = 0;
+        boolean found = false;
 
         for (int i = 0; i < pathlinks.get(path - 1).size(); i++) {
             PathLink pl = pathlinks.get(path - 1).get(i);
+            boolean ok;
             if (pl.isInHand())
-                result = Coordinate.min(result,
-                                        getHandMin(pl.getHoldingJuggler(),
-                                                   pl.getHoldingHand()));
+                ok = findHandExtremum(pl.getHoldingJuggler(), pl.getHoldingHand(),
+                                      findmax, result);
+            else if (findmax)
+                ok = pl.getPath().getMax(t1, t2, result);
             else
-                result = Coordinate.min(result,
-                                        pl.getPath().getMin(t1, t2));
+                ok = pl.getPath().getMin(t1, t2, result);
+
+            if (ok) {
+                if (!found) {
+                    rx = result.x;
+                    ry = result.y;
+                    rz = result.z;
+                    found = true;
+                } else if (findmax) {
+                    rx = Math.max(rx, result.x);
+                    ry = Math.max(ry, result.y);
+                    rz = Math.max(rz, result.z);
+                } else {
+                    rx = Math.min(rx, result.x);
+                    ry = Math.min(ry, result.y);
+                    rz = Math.min(rz, result.z);
+                }
+            }
         }
-        return result;
-    }
-
-    public Coordinate getHandMax(int juggler, int hand) {
-        Coordinate result = null;
-        double t1 = getLoopStartTime();
-        double t2 = getLoopEndTime();
-        int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
 
-        for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
-            HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
-            Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.max(result, hp.getMax(t1, t2));
-        }
-        return result;
+        if (found)
+            result.setCoordinate(rx, ry, rz);
+        return found;
     }
 
-    public Coordinate getHandMin(int juggler, int hand) {
-        Coordinate result = null;
+    // Find the maximum (or minimum) of each coordinate of a hand over one
+    // loop of the pattern, storing it in `result`. Returns false if there is
+    // none, in which case `result` is unchanged.
+    public boolean findHandExtremum(int juggler, int hand, boolean findmax,
+                            Coordinate result) {
         double t1 = getLoopStartTime();
         double t2 = getLoopEndTime();
         int handnum = (hand == HandLink.LEFT_HAND) ? 0 : 1;
+        double rx = 0, ry = 0, rz = 0;
+        boolean found = false;
 
         for (int i = 0; i < handlinks.get(juggler - 1).get(handnum).size(); i++) {
             HandLink hl = handlinks.get(juggler - 1).get(handnum).get(i);
             Curve hp = hl.getHandCurve();
-            if (hp != null)
-                result = Coordinate.min(result, hp.getMin(t1, t2));
+            if (hp == null)
+                continue;
+            if (!(findmax ? hp.getMax(t1, t2, result) : hp.getMin(t1, t2, result)))
+                continue;
+
+            if (!found) {
+                rx = result.x;
+                ry = result.y;
+                rz = result.z;
+                found = true;
+            } else if (findmax) {
+                rx = Math.max(rx, result.x);
+                ry = Math.max(ry, result.y);
+                rz = Math.max(rz, result.z);
+            } else {
+                rx = Math.min(rx, result.x);
+                ry = Math.min(ry, result.y);
+                rz = Math.min(rz, result.z);
+            }
         }
-        return result;
+
+        if (found)
+            result.setCoordinate(rx, ry, rz);
+        return found;
     }
 
     public Coordinate getJugglerMax(int juggler) {
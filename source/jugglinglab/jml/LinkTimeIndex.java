@@ -0,0 +1,126 @@
+// LinkTimeIndex.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.jml;
+
+import java.util.ArrayList;
+
+
+// Time index over a list of PathLinks or HandLinks, used to find the link
+// covering a given time without scanning the whole list.
+//
+// The links in each list are in time order and adjacent (each link starts
+// where the previous one ends), so the start and end times are both
+// nondecreasing. Lookups use binary search, with a cursor remembering the
+// last hit so that monotonically advancing time (animation playback, GIF
+// export) usually resolves in O(1).
+//
+// The cursor is only ever used as a hint and is validated before use, so
+// concurrent lookups from different threads return correct results.
+
+public class LinkTimeIndex {
+    protected double[] starttimes;
+    protected double[] endtimes;
+    protected int lastindex;
+
+
+    protected LinkTimeIndex(int size) {
+        starttimes = new double[size];
+        endtimes = new double[size];
+        lastindex = 0;
+    }
+
+    public static LinkTimeIndex forPathLinks(ArrayList<PathLink> links) {
+        LinkTimeIndex index = new LinkTimeIndex(links.size());
+        for (int i = 0; i < links.size(); i++) {
+            PathLink pl = links.get(i);
+            index.starttimes[i] = pl.getStartEvent().getT();
+            index.endtimes[i] = pl.getEndEvent().getT();
+        }
+        return index;
+    }
+
+    public static LinkTimeIndex forHandLinks(ArrayList<HandLink> links) {
+        LinkTimeIndex index = new LinkTimeIndex(links.size());
+        for (int i = 0; i < links.size(); i++) {
+            HandLink hl = links.get(i);
+            index.starttimes[i] = hl.getStartEvent().getT();
+            index.endtimes[i] = hl.getEndEvent().getT();
+        }
+        return index;
+    }
+
+    public int size() {
+        return starttimes.length;
+    }
+
+    public double getStartTime(int index) {
+        return starttimes[index];
+    }
+
+    public double getEndTime(int index) {
+        return endtimes[index];
+    }
+
+    // Returns the index of the first link with start <= time <= end, or -1
+    // if there is none. This matches a linear scan over the link list.
+    public int findInclusive(double time) {
+        int i = findFirstEnd(time, false);
+        if (i < 0 || starttimes[i] > time)
+            return -1;
+        return i;
+    }
+
+    // Returns the index of the first link with start <= time < end, or -1
+    // if there is none.
+    public int findExclusive(double time) {
+        int i = findFirstEnd(time, true);
+        if (i < 0 || starttimes[i] > time)
+            return -1;
+        return i;
+    }
+
+    // Find the first link whose end time is >= time (or > time if `strict`).
+    // Returns -1 if no such link exists.
+    protected int findFirstEnd(double time, boolean strict) {
+        int n = endtimes.length;
+        if (n == 0)
+            return -1;
+
+        // try the cursor and the link after it first
+        int hint = lastindex;
+        for (int i = hint; i < n && i <= hint + 1; i++) {
+            if (isFirstEnd(i, time, strict)) {
+                lastindex = i;
+                return i;
+            }
+        }
+
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (strict ? (endtimes[mid] > time) : (endtimes[mid] >= time))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        if (lo == n)
+            return -1;
+        lastindex = lo;
+        return lo;
+    }
+
+    protected boolean isFirstEnd(int i, double time, boolean strict) {
+        if (strict) {
+            if (!(endtimes[i] > time))
+                return false;
+            return (i == 0 || !(endtimes[i - 1] > time));
+        } else {
+            if (!(endtimes[i] >= time))
+                return false;
+            return (i == 0 || !(endtimes[i - 1] >= time));
+        }
+    }
+}
@@ -33,17 +33,26 @@ public class PathLink {
         inhand = false;
     }
 
+    // Note the path isn't calculated until calcPath() is called
     public void setThrow(String type, String mod) throws JuggleExceptionUser, JuggleExceptionInternal {
         proppath = Path.newPath(type);
         proppath.initPath(mod);
-        proppath.setStart(startevent.getGlobalCoordinate(), startevent.getT());
-        proppath.setEnd(endevent.getGlobalCoordinate(), endevent.getT());
-        proppath.calcPath();
         throwtype = type;
         this.mod = mod;
         inhand = false;
     }
 
+    // Calculate the throw path between the start and end events. This is also
+    // used to recalculate the path after either event has moved; the Path
+    // object is kept, so VelocityRefs to it remain valid.
+    public void calcPath() throws JuggleExceptionInternal {
+        if (inhand || proppath == null)
+            return;
+        proppath.setStart(startevent.getGlobalCoordinate(), startevent.getT());
+        proppath.setEnd(endevent.getGlobalCoordinate(), endevent.getT());
+        proppath.calcPath();
+    }
+
     public void setInHand(int juggler, int hand) {
         inhand = true;
         this.juggler = juggler;
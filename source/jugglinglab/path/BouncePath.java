@@ -5,6 +5,8 @@
 package jugglinglab.path;
 
 import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import jugglinglab.util.*;
 
 
@@ -30,6 +32,24 @@ public class BouncePath extends Path {
     protected double bouncetime;
     protected int numbounces;  // actual number of bounces (<= this.bounces)
 
+    // scratch space for calcPath() and solveBounceEquation()
+    protected double[] root = new double[4];
+    protected boolean[] liftcatch = new boolean[4];
+    protected double[] coef = new double[5];
+    protected double[] realroot = new double[4];
+
+    // Solutions to the bounce equation, shared between all bounce paths. A
+    // pattern typically has the same throw many times (e.g., repeated by its
+    // symmetries), and each of those solves the same equation.
+    protected static final int SOLUTION_CACHE_SIZE = 1000;
+    protected static final Map<SolutionKey, Solution> solutioncache =
+        new LinkedHashMap<SolutionKey, Solution>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SolutionKey, Solution> eldest) {
+                return size() > SOLUTION_CACHE_SIZE;
+            }
+        };
+
 
     @Override
     public String getType() { return "Bounce"; }
@@ -132,13 +152,12 @@ public class BouncePath extends Path {
 
     @Override
     public void calcPath() throws JuggleExceptionInternal {
+        clearExtremumCache();
         if (start_coord == null || end_coord == null)
             return;
 
         for (int n = bounces; n > 0; n--) {
-            double[] root = new double[4];
-            boolean[] liftcatch = new boolean[4];
-            int numroots = solveBounceEquation(n, getDuration(), root, liftcatch);
+            int numroots = findBounceSolutions(n, getDuration(), root, liftcatch);
             /*
             System.out.println(numroots + " roots found with " + n + " bounces");
             for (int i = 0; i < numroots; i++)
@@ -213,6 +232,33 @@ public class BouncePath extends Path {
         throw new JuggleExceptionInternal("No root found in BouncePath");
     }
 
+    // Solve the bounce equation (see below), using the shared cache of
+    // solutions if possible
+    protected int findBounceSolutions(int n, double duration, double[] root,
+                            boolean[] liftcatch) {
+        SolutionKey key = new SolutionKey(n, duration, start_coord.z, end_coord.z,
+                                          bounceplane, bouncefrac, g);
+        Solution sol;
+        synchronized (solutioncache) {
+            sol = solutioncache.get(key);
+        }
+
+        if (sol == null) {
+            int numroots = solveBounceEquation(n, duration, root, liftcatch);
+            sol = new Solution(numroots, root, liftcatch);
+            synchronized (solutioncache) {
+                solutioncache.put(key, sol);
+            }
+            return numroots;
+        }
+
+        for (int i = 0; i < sol.numroots; i++) {
+            root[i] = sol.root[i];
+            liftcatch[i] = sol.liftcatch[i];
+        }
+        return sol.numroots;
+    }
+
     // The next method does the real work of figuring out the object's path.
     // It solves a polynomial equation to determine the values of `v0` (upward-
     // directed velocity) that achieve the given number of bounces and total
@@ -251,7 +297,6 @@ public class BouncePath extends Path {
         //
         // When there is only one bounce, c4=0 always and we reduce to a cubic.
 
-        double[] coef = new double[5];
         coef[4] = 1.0 + kk*kk + f2*f2 - 2.0*kk - 2.0*f2 - 2.0*kk*f2;
         coef[3] = -4.0*gt + 4.0*f2*gt + 4.0*kk*gt;
         coef[2] = 6.0*gt*gt + 2.0*kk*kk*u + 2.0*f2*f2*c - 2.0*f2*c - 2.0*f2*gt*gt -
@@ -260,7 +305,6 @@ public class BouncePath extends Path {
         coef[0] = gt*gt*gt*gt + kk*kk*u*u + f2*f2*c*c - 2.0*gt*gt*f2*c -
             2.0*kk*gt*gt*u - 2.0*kk*f2*u*c;
 
-        double[] realroot = new double[4];
         int numrealroots = 0;
 
         if (n > 1) {
@@ -300,8 +344,6 @@ public class BouncePath extends Path {
     }
 
     protected boolean isFeasibleDuration(double duration) {
-        double[] root = new double[4];
-        boolean[] liftcatch = new boolean[4];
         int numroots = solveBounceEquation(bounces, duration, root, liftcatch);
 
         for (int i = 0; i < numroots; i++) {
@@ -367,69 +409,87 @@ public class BouncePath extends Path {
     }
 
     @Override
-    protected Coordinate getMax2(double start, double end) {
-        Coordinate result = null;
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        int i = 0;  // current bounce segment
+
+        for (int k = from; k < to; k++) {
+            double time = t[k];
+            if (time < start_time || time > end_time)
+                continue;
+            time -= start_time;
+
+            if (i > 0 && time < endtime[i-1])
+                i = 0;  // times not in order
+            while (i < numbounces && !(time < endtime[i]))
+                i++;
+
+            x[k] = cx+bx*time;
+            y[k] = cy+by*time;
+            z[k] = cz[i] + time*(bz[i] + az[i]*time);
+        }
+    }
+
+    @Override
+    protected void getMax2(double start, double end, Coordinate result, Coordinate loc) {
         double tlow = Math.max(start_time, start);
         double thigh = Math.min(end_time, end);
 
-        result = check(result, tlow, true);
-        result = check(result, thigh, true);
+        check(result, loc, tlow, true);
+        check(result, loc, thigh, true);
         if (az[0] < 0.0) {
             double te = -bz[0] / (2.0*az[0]) + start_time;
             if ((tlow < te) && (te < Math.min(thigh, start_time+endtime[0])))
-                result = check(result, te, true);
+                check(result, loc, te, true);
         }
         if (az[numbounces] < 0.0) {
             double te = -bz[numbounces] / (2.0*az[numbounces]) + start_time;
             if ((Math.max(tlow,start_time+endtime[numbounces-1]) < te) && (te < thigh))
-                result = check(result, te, true);
+                check(result, loc, te, true);
         }
         if ((tlow < (start_time+endtime[0])) && ((start_time+endtime[0]) < thigh))
-            result = check(result, start_time+endtime[0], true);
+            check(result, loc, start_time+endtime[0], true);
         for (int i = 1; i < numbounces; i++) {
             if (az[i] < 0.0) {
                 double te = -bz[i] / (2.0*az[i]) + start_time;
                 if ((Math.max(tlow,start_time+endtime[i-1]) < te) &&
                                     (te < Math.min(thigh, start_time+endtime[i])))
-                    result = check(result, te, true);
+                    check(result, loc, te, true);
             }
             if ((tlow < (start_time+endtime[i])) && ((start_time+endtime[i]) < thigh))
-                result = check(result, start_time+endtime[i], true);
+                check(result, loc, start_time+endtime[i], true);
         }
-        return result;
     }
 
     @Override
-    protected Coordinate getMin2(double start, double end) {
-        Coordinate result = null;
+    protected void getMin2(double start, double end, Coordinate result, Coordinate loc) {
         double tlow = Math.max(start_time, start);
         double thigh = Math.min(end_time, end);
 
-        result = check(result, tlow, false);
-        result = check(result, thigh, false);
+        check(result, loc, tlow, false);
+        check(result, loc, thigh, false);
         if (az[0] > 0.0) {
             double te = -bz[0] / (2.0*az[0]) + start_time;
             if ((tlow < te) && (te < Math.min(thigh, start_time+endtime[0])))
-                result = check(result, te, false);
+                check(result, loc, te, false);
         }
         if (az[numbounces] > 0.0) {
             double te = -bz[numbounces] / (2.0*az[numbounces]) + start_time;
             if (Math.max(tlow,start_time+endtime[numbounces-1]) < te && te < thigh)
-                result = check(result, te, false);
+                check(result, loc, te, false);
         }
         if (tlow < (start_time+endtime[0]) && (start_time+endtime[0]) < thigh)
-            result = check(result, start_time+endtime[0], false);
+            check(result, loc, start_time+endtime[0], false);
         for (int i = 1; i < numbounces; i++) {
             if (az[i] > 0.0) {
                 double te = -bz[i] / (2.0*az[i]) + start_time;
                 if ((Math.max(tlow,start_time+endtime[i-1]) < te) &&
                     (te < Math.min(thigh, start_time+endtime[i])))
-                    result = check(result, te, false);
+                    check(result, loc, te, false);
             }
             if (tlow < (start_time+endtime[i]) && (start_time+endtime[i]) < thigh)
-                result = check(result, start_time+endtime[i], false);
+                check(result, loc, start_time+endtime[i], false);
         }
-        return result;
     }
 
 
@@ -655,6 +715,14 @@ public class BouncePath extends Path {
         return numroots;
     }
 
+    // Times at which the object hits the bounce plane
+    public double[] getBounceTimes() {
+        double[] result = new double[numbounces];
+        for (int i = 0; i < numbounces; i++)
+            result[i] = start_time + endtime[i];
+        return result;
+    }
+
     // The returned quantity isn't actually used for volume, so just treat it as yes/no
     public double getBounceVolume(double time1, double time2) {
         if ((time2 < start_time) || (time1 > end_time))
@@ -671,4 +739,70 @@ public class BouncePath extends Path {
         }
         return 0.0;
     }
+
+    //-------------------------------------------------------------------------
+    // Classes for the solution cache
+    //-------------------------------------------------------------------------
+
+    // everything solveBounceEquation() depends on
+    protected static class SolutionKey {
+        protected int n;
+        protected double duration;
+        protected double startz, endz;
+        protected double bounceplane, bouncefrac, g;
+
+
+        public SolutionKey(int n, double duration, double startz, double endz,
+                           double bounceplane, double bouncefrac, double g) {
+            this.n = n;
+            this.duration = duration;
+            this.startz = startz;
+            this.endz = endz;
+            this.bounceplane = bounceplane;
+            this.bouncefrac = bouncefrac;
+            this.g = g;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SolutionKey))
+                return false;
+            SolutionKey k = (SolutionKey)obj;
+            return (n == k.n && Double.compare(duration, k.duration) == 0 &&
+                    Double.compare(startz, k.startz) == 0 &&
+                    Double.compare(endz, k.endz) == 0 &&
+                    Double.compare(bounceplane, k.bounceplane) == 0 &&
+                    Double.compare(bouncefrac, k.bouncefrac) == 0 &&
+                    Double.compare(g, k.g) == 0);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = n;
+            h = 31 * h + Double.hashCode(duration);
+            h = 31 * h + Double.hashCode(startz);
+            h = 31 * h + Double.hashCode(endz);
+            h = 31 * h + Double.hashCode(bounceplane);
+            h = 31 * h + Double.hashCode(bouncefrac);
+            h = 31 * h + Double.hashCode(g);
+            return h;
+        }
+    }
+
+    protected static class Solution {
+        protected int numroots;
+        protected double[] root;
+        protected boolean[] liftcatch;
+
+
+        public Solution(int numroots, double[] root, boolean[] liftcatch) {
+            this.numroots = numroots;
+            this.root = new double[numroots];
+            this.liftcatch = new boolean[numroots];
+            for (int i = 0; i < numroots; i++) {
+                this.root[i] = root[i];
+                this.liftcatch[i] = liftcatch[i];
+            }
+        }
+    }
 }
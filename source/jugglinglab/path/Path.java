@@ -20,6 +20,15 @@ public abstract class Path {
     protected Coordinate start_coord;
     protected Coordinate end_coord;
 
+    // Results of the most recent getMax/getMin queries, as arrays
+    // { begin, end, x, y, z }, used while the flags are set. These are
+    // cleared whenever the path changes. Guarded by `this`.
+    protected final double[] maxcache = new double[5];
+    protected final double[] mincache = new double[5];
+    protected boolean maxvalid;
+    protected boolean minvalid;
+    protected final Coordinate extremumloc = new Coordinate();  // scratch
+
     // The built-in path types
     public static final String[] builtinPaths = { "Toss", "Bounce" };
 
@@ -40,11 +49,13 @@ public abstract class Path {
     public void setStart(Coordinate position, double time) {
         start_coord = position;
         start_time = time;
+        clearExtremumCache();
     }
 
     public void setEnd(Coordinate position, double time) {
         end_coord = position;
         end_time = time;
+        clearExtremumCache();
     }
 
     public double getStartTime() {
@@ -68,38 +79,91 @@ public abstract class Path {
     public void translateTime(double deltat) {
         start_time += deltat;
         end_time += deltat;
+        clearExtremumCache();
     }
 
     // for screen layout
     public Coordinate getMax() {
-        return getMax2(start_time, end_time);
+        return getMax(start_time, end_time);
     }
 
     public Coordinate getMin() {
-        return getMin2(start_time, end_time);
+        return getMin(start_time, end_time);
     }
 
     public Coordinate getMax(double begin, double end) {
-        if (end < start_time || begin > end_time)
-            return null;
-        return getMax2(begin, end);
+        Coordinate result = new Coordinate();
+        return (getMax(begin, end, result) ? result : null);
     }
 
     public Coordinate getMin(double begin, double end) {
+        Coordinate result = new Coordinate();
+        return (getMin(begin, end, result) ? result : null);
+    }
+
+    // Versions of the above that store the answer in `result`, returning
+    // false (and leaving `result` unchanged) if the time range doesn't overlap
+    // the path. These don't allocate when the answer is cached.
+    public boolean getMax(double begin, double end, Coordinate result) {
+        return findExtremum(begin, end, true, result);
+    }
+
+    public boolean getMin(double begin, double end, Coordinate result) {
+        return findExtremum(begin, end, false, result);
+    }
+
+    // Called when the path changes; subclasses should call this from
+    // calcPath()
+    protected synchronized void clearExtremumCache() {
+        maxvalid = false;
+        minvalid = false;
+    }
+
+    protected synchronized boolean findExtremum(double begin, double end, boolean findmax,
+                            Coordinate result) {
         if (end < start_time || begin > end_time)
-            return null;
-        return getMin2(begin, end);
+            return false;
+
+        // clip to the path so equivalent queries share a cache entry
+        double tlow = Math.max(start_time, begin);
+        double thigh = Math.min(end_time, end);
+
+        double[] cache = (findmax ? maxcache : mincache);
+        boolean valid = (findmax ? maxvalid : minvalid);
+        if (!valid || cache[0] != tlow || cache[1] != thigh) {
+            double init = (findmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+            result.setCoordinate(init, init, init);
+            if (findmax)
+                getMax2(tlow, thigh, result, extremumloc);
+            else
+                getMin2(tlow, thigh, result, extremumloc);
+
+            cache[0] = tlow;
+            cache[1] = thigh;
+            cache[2] = result.x;
+            cache[3] = result.y;
+            cache[4] = result.z;
+            if (findmax)
+                maxvalid = true;
+            else
+                minvalid = true;
+            return true;
+        }
+
+        result.setCoordinate(cache[2], cache[3], cache[4]);
+        return true;
     }
 
-    // utility for getMax/getMin
-    protected Coordinate check(Coordinate result, double t, boolean findmax) {
-        Coordinate loc = new Coordinate(0.0, 0.0, 0.0);
+    // utility for getMax2/getMin2
+    protected void check(Coordinate result, Coordinate loc, double t, boolean findmax) {
+        loc.setCoordinate(0.0, 0.0, 0.0);
         getCoordinate(t, loc);
         if (findmax)
-            result = Coordinate.max(result, loc);
+            result.setCoordinate(Math.max(result.x, loc.x), Math.max(result.y, loc.y),
+                                 Math.max(result.z, loc.z));
         else
-            result = Coordinate.min(result, loc);
-        return result;
+            result.setCoordinate(Math.min(result.x, loc.x), Math.min(result.y, loc.y),
+                                 Math.min(result.z, loc.z));
     }
 
     // string indicating the type of path
@@ -121,8 +185,27 @@ public abstract class Path {
     // only valid after calcPath()
     public abstract void getCoordinate(double time, Coordinate newPosition);
 
-    // for hand layout, only valid after calcPath()
-    protected abstract Coordinate getMax2(double begin, double end);
+    // Evaluate the path at times t[from], ..., t[to-1], which must be in
+    // nondecreasing order, storing the results in x[], y[], and z[]. As with
+    // getCoordinate(), entries for times outside the path are left unchanged.
+    // Only valid after calcPath().
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        Coordinate loc = new Coordinate();
+        for (int i = from; i < to; i++) {
+            loc.setCoordinate(x[i], y[i], z[i]);
+            getCoordinate(t[i], loc);
+            x[i] = loc.x;
+            y[i] = loc.y;
+            z[i] = loc.z;
+        }
+    }
+
+    // for hand layout, only valid after calcPath(). Candidate times are passed
+    // to check(), which accumulates into `result` using `loc` as scratch space.
+    protected abstract void getMax2(double begin, double end, Coordinate result,
+                                    Coordinate loc);
 
-    protected abstract Coordinate getMin2(double begin, double end);
+    protected abstract void getMin2(double begin, double end, Coordinate result,
+                                    Coordinate loc);
 }
@@ -57,6 +57,7 @@ public class TossPath extends Path {
 
     @Override
     public void calcPath() throws JuggleExceptionInternal {
+        clearExtremumCache();
         if (start_coord == null || end_coord == null)
             throw new JuggleExceptionInternal("Error in parabolic path: endpoints not set");
 
@@ -88,36 +89,46 @@ public class TossPath extends Path {
     }
 
     @Override
-    protected Coordinate getMax2(double begin, double end) {
-        Coordinate result = null;
+    public void getCoordinates(double[] t, int from, int to, double[] x, double[] y,
+                               double[] z) {
+        for (int k = from; k < to; k++) {
+            double time = t[k];
+            if ((time < start_time) || (time > end_time))
+                continue;
+            time -= start_time;
+            x[k] = cx+bx*time;
+            y[k] = cy+by*time;
+            z[k] = cz+time*(bz+az*time);
+        }
+    }
+
+    @Override
+    protected void getMax2(double begin, double end, Coordinate result, Coordinate loc) {
         double tlow = Math.max(start_time, begin);
         double thigh = Math.min(end_time, end);
 
-        result = check(result, tlow, true);
-        result = check(result, thigh, true);
+        check(result, loc, tlow, true);
+        check(result, loc, thigh, true);
 
         if (az < 0.0) {
             double te = -bz / (2.0*az) + start_time;
             if (tlow < te && te < thigh)
-                result = check(result, te, true);
+                check(result, loc, te, true);
         }
-        return result;
     }
 
     @Override
-    protected Coordinate getMin2(double begin, double end) {
-        Coordinate result = null;
+    protected void getMin2(double begin, double end, Coordinate result, Coordinate loc) {
         double tlow = Math.max(start_time, begin);
         double thigh = Math.min(end_time, end);
 
-        result = check(result, tlow, false);
-        result = check(result, thigh, false);
+        check(result, loc, tlow, false);
+        check(result, loc, thigh, false);
 
         if (az > 0.0) {
             double te = -by / (2.0*az) + start_time;
             if (tlow < te && te < thigh)
-                result = check(result, te, false);
+                check(result, loc, te, false);
         }
-        return result;
     }
 }
@@ -59,6 +59,7 @@ public class BallProp extends Prop {
     protected Dimension size;
     protected Dimension center;
     protected Dimension grip;
+    protected SpriteCache.Sprite sprite;
 
 
     // Prop methods
@@ -190,28 +191,35 @@ public class BallProp extends Prop {
     }
 
     @Override
-    public Image getProp2DImage(double zoom, double[] camangle) {
+    public synchronized Image getProp2DImage(double zoom, double[] camangle) {
         if (ballimage == null || zoom != lastzoom)  // first call or display resized?
             recalc2D(zoom);
         return ballimage;
     }
 
     @Override
-    public Dimension getProp2DSize(double zoom) {
+    public synchronized SpriteCache.Sprite getProp2DSprite(double zoom, double[] camangle) {
+        if (sprite == null || zoom != lastzoom)
+            recalc2D(zoom);
+        return sprite;
+    }
+
+    @Override
+    public synchronized Dimension getProp2DSize(double zoom) {
         if (size == null || zoom != lastzoom)       // first call or display resized?
             recalc2D(zoom);
         return size;
     }
 
     @Override
-    public Dimension getProp2DCenter(double zoom) {
+    public synchronized Dimension getProp2DCenter(double zoom) {
         if (center == null || zoom != lastzoom)
             recalc2D(zoom);
         return center;
     }
 
     @Override
-    public Dimension getProp2DGrip(double zoom) {
+    public synchronized Dimension getProp2DGrip(double zoom) {
         if (grip == null || zoom != lastzoom)       // first call or display resized?
             recalc2D(zoom);
         return grip;
@@ -224,6 +232,18 @@ public class BallProp extends Prop {
         int offsetx = -ball_pixel_size / 2;
         int offsety = -ball_pixel_size;
 
+        // the image only depends on these, so look for a shared copy first
+        String key = "Ball " + color.getRGB() + " " + highlight + " " + ball_pixel_size;
+        sprite = SpriteCache.get(key);
+        if (sprite != null) {
+            ballimage = sprite.image;
+            size = sprite.size;
+            center = sprite.center;
+            grip = sprite.grip;
+            lastzoom = zoom;
+            return;
+        }
+
         // Create a ball image of diameter ball_pixel_size, and transparent background
 
         ballimage = new BufferedImage(ball_pixel_size + 1, ball_pixel_size + 1,
@@ -268,6 +288,9 @@ public class BallProp extends Prop {
         size = new Dimension(ball_pixel_size, ball_pixel_size);
         center = new Dimension(ball_pixel_size/2, ball_pixel_size/2);
         grip = new Dimension(ball_pixel_size/2, ball_pixel_size/2);
+        ballg.dispose();
+        sprite = new SpriteCache.Sprite(ballimage, size, center, grip);
+        SpriteCache.put(key, sprite);
 
         lastzoom = zoom;
     }
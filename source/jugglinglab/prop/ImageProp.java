@@ -30,6 +30,7 @@ public class ImageProp extends Prop {
     protected Dimension size;
     protected Dimension center;
     protected Dimension grip;
+    protected SpriteCache.Sprite sprite;
 
     private double last_zoom;
 
@@ -84,6 +85,13 @@ public class ImageProp extends Prop {
 
         last_zoom = zoom;
 
+        String key = "Image " + url + " " + image_pixel_width + " " + image_pixel_height;
+        sprite = SpriteCache.get(key);
+        if (sprite != null) {
+            scaled_image = sprite.image;
+            return;
+        }
+
         scaled_image = new BufferedImage(image_pixel_width, image_pixel_height, image.getType());
         Graphics2D g = scaled_image.createGraphics();
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
@@ -91,6 +99,8 @@ public class ImageProp extends Prop {
         g.drawImage(image, 0, 0, image_pixel_width, image_pixel_height,
                     0, 0, image.getWidth(), image.getHeight(), null);
         g.dispose();
+        sprite = new SpriteCache.Sprite(scaled_image, size, center, grip);
+        SpriteCache.put(key, sprite);
     }
 
     // View methods
@@ -155,12 +165,19 @@ public class ImageProp extends Prop {
     }
 
     @Override
-    public Image getProp2DImage(double zoom, double[] camangle) {
+    public synchronized Image getProp2DImage(double zoom, double[] camangle) {
         if (zoom != last_zoom)
             rescaleImage(zoom);
         return scaled_image;
     }
 
+    @Override
+    public synchronized SpriteCache.Sprite getProp2DSprite(double zoom, double[] camangle) {
+        if (zoom != last_zoom)
+            rescaleImage(zoom);
+        return sprite;
+    }
+
     @Override
     public Coordinate getMax() {
         return new Coordinate(width / 2.0, 0.0, width);
@@ -177,21 +194,21 @@ public class ImageProp extends Prop {
     }
 
     @Override
-    public Dimension getProp2DSize(double zoom) {
+    public synchronized Dimension getProp2DSize(double zoom) {
         if (size == null || zoom != last_zoom)
             rescaleImage(zoom);
         return size;
     }
 
     @Override
-    public Dimension getProp2DCenter(double zoom) {
+    public synchronized Dimension getProp2DCenter(double zoom) {
         if (center == null || zoom != last_zoom)
             rescaleImage(zoom);
         return center;
     }
 
     @Override
-    public Dimension getProp2DGrip(double zoom) {
+    public synchronized Dimension getProp2DGrip(double zoom) {
         if (grip == null || zoom != last_zoom)
             rescaleImage(zoom);
         return grip;
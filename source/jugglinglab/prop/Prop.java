@@ -69,6 +69,11 @@ public abstract class Prop {
 
     public abstract Image getProp2DImage(double zoom, double[] camangle);
 
+    // Image together with its size, center, and grip, as one consistent set
+    // for renderers that may be drawing on several threads at once. Returns
+    // null if there is no image.
+    public abstract SpriteCache.Sprite getProp2DSprite(double zoom, double[] camangle);
+
     public abstract Dimension getProp2DSize(double zoom);
 
     public abstract Dimension getProp2DCenter(double zoom);
@@ -62,6 +62,7 @@ public class RingProp extends Prop {
     protected Dimension size;
     protected Dimension center;
     protected Dimension grip;
+    protected SpriteCache.Sprite sprite;
     protected int[] px;
     protected int[] py;
 
@@ -194,7 +195,7 @@ public class RingProp extends Prop {
     }
 
     @Override
-    public Image getProp2DImage(double zoom, double[] camangle) {
+    public synchronized Image getProp2DImage(double zoom, double[] camangle) {
         if ((image == null) || (zoom != lastzoom) ||
             (camangle[0] != lastcamangle[0]) || (camangle[1] != lastcamangle[1]))  // first call or display resized?
             redrawImage(zoom, camangle);
@@ -202,21 +203,29 @@ public class RingProp extends Prop {
     }
 
     @Override
-    public Dimension getProp2DSize(double zoom) {
+    public synchronized SpriteCache.Sprite getProp2DSprite(double zoom, double[] camangle) {
+        if ((sprite == null) || (zoom != lastzoom) ||
+            (camangle[0] != lastcamangle[0]) || (camangle[1] != lastcamangle[1]))
+            redrawImage(zoom, camangle);
+        return sprite;
+    }
+
+    @Override
+    public synchronized Dimension getProp2DSize(double zoom) {
         if ((size == null) || (zoom != lastzoom))  // first call or display resized?
             redrawImage(zoom, lastcamangle);
         return size;
     }
 
     @Override
-    public Dimension getProp2DCenter(double zoom) {
+    public synchronized Dimension getProp2DCenter(double zoom) {
         if (center == null || zoom != lastzoom)  // first call or display resized?
             redrawImage(zoom, lastcamangle);
         return center;
     }
 
     @Override
-    public Dimension getProp2DGrip(double zoom) {
+    public synchronized Dimension getProp2DGrip(double zoom) {
         if (grip == null || zoom != lastzoom)  // first call or display resized?
             redrawImage(zoom, lastcamangle);
         return grip;
@@ -226,6 +235,20 @@ public class RingProp extends Prop {
         int outside_pixel_diam = (int)(0.5 + zoom * outside_diam);
         int inside_pixel_diam = (int)(0.5 + zoom * inside_diam);
 
+        // the image only depends on these, so look for a shared copy first
+        String key = "Ring " + color.getRGB() + " " + outside_pixel_diam + " " +
+                     inside_pixel_diam + " " + camangle[0] + " " + camangle[1];
+        sprite = SpriteCache.get(key);
+        if (sprite != null) {
+            image = sprite.image;
+            size = sprite.size;
+            center = sprite.center;
+            grip = sprite.grip;
+            lastzoom = zoom;
+            lastcamangle = new double[] {camangle[0], camangle[1]};
+            return;
+        }
+
         double c0 = Math.cos(camangle[0]);
         double s0 = Math.sin(camangle[0]);
         double s1 = Math.sin(camangle[1]);
@@ -311,6 +334,9 @@ public class RingProp extends Prop {
             d = -d;
         int gripy = (int)((double)outside_pixel_diam * d) + bbheight/2;
         grip = new Dimension(gripx, gripy);
+        g.dispose();
+        sprite = new SpriteCache.Sprite(image, size, center, grip);
+        SpriteCache.put(key, sprite);
 
         lastzoom = zoom;
         lastcamangle = new double[] {camangle[0], camangle[1]};
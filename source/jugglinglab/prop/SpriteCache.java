@@ -0,0 +1,130 @@
+// SpriteCache.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.prop;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jugglinglab.core.Constants;
+
+
+// Process-wide cache of rasterized prop images ("sprites"), shared by all
+// props and therefore by all renderers.
+//
+// A prop's image depends only on the prop's parameters, its size in pixels,
+// and for some props the camera angle. Props build a key from these and look
+// here before drawing a new image, so that views showing the same props at
+// the same size (e.g., the panels of the selection view, the two halves of a
+// stereo view, or a window resized back to an earlier size) don't rasterize
+// them again.
+//
+// Entries are evicted in least-recently-used order once the images in the
+// cache exceed Constants.SPRITE_CACHE_MAX_BYTES.
+
+public class SpriteCache {
+    protected static final Map<String, Sprite> cache =
+        new LinkedHashMap<String, Sprite>(16, 0.75f, true);
+    protected static long bytes;
+    protected static long hits;
+    protected static long misses;
+    protected static long evictions;
+
+
+    // Returns the sprite for `key`, or null if it isn't in the cache
+    public static synchronized Sprite get(String key) {
+        Sprite sprite = cache.get(key);
+        if (sprite == null)
+            misses++;
+        else
+            hits++;
+        return sprite;
+    }
+
+    public static synchronized void put(String key, Sprite sprite) {
+        Sprite old = cache.put(key, sprite);
+        if (old != null)
+            bytes -= old.getBytes();
+        bytes += sprite.getBytes();
+
+        // never evict the entry just added, even if it alone exceeds the limit
+        Iterator<Map.Entry<String, Sprite>> iter = cache.entrySet().iterator();
+        while (bytes > Constants.SPRITE_CACHE_MAX_BYTES && cache.size() > 1) {
+            Sprite eldest = iter.next().getValue();
+            iter.remove();
+            bytes -= eldest.getBytes();
+            evictions++;
+        }
+    }
+
+    public static synchronized void clear() {
+        cache.clear();
+        bytes = 0;
+    }
+
+    public static synchronized void resetStatistics() {
+        hits = misses = evictions = 0;
+    }
+
+    public static synchronized int getNumberOfEntries() {
+        return cache.size();
+    }
+
+    public static synchronized long getBytes() {
+        return bytes;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Fraction of lookups that found a sprite, or 0 if there were none
+    public static synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return (lookups == 0 ? 0.0 : (double)hits / lookups);
+    }
+
+    public static synchronized String getStatistics() {
+        return String.format("%d lookups, %.1f%% hits, %d evictions, " +
+                             "%d sprites using %d bytes",
+                             hits + misses, 100.0 * getHitRate(), evictions,
+                             cache.size(), bytes);
+    }
+
+    //-------------------------------------------------------------------------
+    // An image together with its placement information. These are shared so
+    // they should be treated as read-only.
+    //-------------------------------------------------------------------------
+
+    public static class Sprite {
+        public final BufferedImage image;
+        public final Dimension size;
+        public final Dimension center;
+        public final Dimension grip;
+
+
+        public Sprite(BufferedImage image, Dimension size, Dimension center,
+                      Dimension grip) {
+            this.image = image;
+            this.size = size;
+            this.center = center;
+            this.grip = grip;
+        }
+
+        public long getBytes() {
+            return 4L * image.getWidth() * image.getHeight();
+        }
+    }
+}
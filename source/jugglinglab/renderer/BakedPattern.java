@@ -0,0 +1,159 @@
+// BakedPattern.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.renderer;
+
+import jugglinglab.jml.JMLPattern;
+import jugglinglab.util.Coordinate;
+import jugglinglab.util.JuggleExceptionInternal;
+
+
+// Precomputed ("baked") positions of a pattern at a fixed set of equally
+// spaced times, typically one per animation frame over one loop of the
+// pattern.
+//
+// This holds the prop positions for every path, and the juggler body points
+// calculated by Juggler.findJugglerCoordinates(), in primitive arrays. A
+// renderer drawing one of the sampled times can then look up everything it
+// needs instead of evaluating the pattern's paths and hand curves and solving
+// for the juggler's body.
+//
+// The tables are only valid for the layout of the pattern at the time they
+// were built, so they need to be rebuilt whenever the pattern changes.
+
+public class BakedPattern {
+    // number of points per juggler, as in Juggler.findJugglerCoordinates()
+    public static final int NUM_POINTS = 18;
+
+    // tolerance for matching a time to a sample time, as a fraction of the
+    // sampling interval
+    protected static final double TIME_SLOP = 1e-6;
+
+    protected JMLPattern pat;
+    protected double start_time;
+    protected double interval;
+    protected int num_frames;
+    protected int num_paths;
+    protected int num_jugglers;
+
+    // prop positions, indexed by [frame * num_paths + (path - 1)]
+    protected double[] pathx;
+    protected double[] pathy;
+    protected double[] pathz;
+
+    // juggler body points in renderer coordinates, indexed by
+    // [(frame * num_jugglers + (juggler - 1)) * NUM_POINTS + point]
+    protected double[] bodyx;
+    protected double[] bodyy;
+    protected double[] bodyz;
+
+
+    // Sample `pat` (which must be laid out) at times start + i * interval,
+    // for i = 0, 1, ..., frames - 1
+    public BakedPattern(JMLPattern pat, double start, double interval, int frames)
+                        throws JuggleExceptionInternal {
+        this.pat = pat;
+        start_time = start;
+        this.interval = interval;
+        num_frames = frames;
+        num_paths = pat.getNumberOfPaths();
+        num_jugglers = pat.getNumberOfJugglers();
+
+        pathx = new double[num_frames * num_paths];
+        pathy = new double[num_frames * num_paths];
+        pathz = new double[num_frames * num_paths];
+        bodyx = new double[num_frames * num_jugglers * NUM_POINTS];
+        bodyy = new double[num_frames * num_jugglers * NUM_POINTS];
+        bodyz = new double[num_frames * num_jugglers * NUM_POINTS];
+
+        // sample each path at all the times at once
+        double[] t = new double[num_frames];
+        for (int frame = 0; frame < num_frames; frame++)
+            t[frame] = start_time + frame * interval;
+        double[] x = new double[num_frames];
+        double[] y = new double[num_frames];
+        double[] z = new double[num_frames];
+
+        for (int path = 1; path <= num_paths; path++) {
+            pat.getPathCoordinates(path, t, num_frames, x, y, z);
+            for (int frame = 0; frame < num_frames; frame++) {
+                int index = frame * num_paths + (path - 1);
+                pathx[index] = x[frame];
+                pathy[index] = y[frame];
+                pathz[index] = z[frame];
+            }
+        }
+
+        JLVector[][] jugglervec = new JLVector[num_jugglers][NUM_POINTS];
+        Coordinate[] work = { new Coordinate(), new Coordinate(), new Coordinate() };
+
+        for (int frame = 0; frame < num_frames; frame++) {
+            Juggler.findJugglerCoordinates(pat, t[frame], jugglervec, work);
+            for (int j = 0; j < num_jugglers; j++) {
+                int index = (frame * num_jugglers + j) * NUM_POINTS;
+                for (int k = 0; k < NUM_POINTS; k++) {
+                    bodyx[index + k] = jugglervec[j][k].x;
+                    bodyy[index + k] = jugglervec[j][k].y;
+                    bodyz[index + k] = jugglervec[j][k].z;
+                }
+            }
+        }
+    }
+
+    // Approximate size in bytes of the tables for a given pattern
+    public static long getSizeEstimate(JMLPattern pat, int frames) {
+        return 24L * frames * (pat.getNumberOfPaths() +
+                               NUM_POINTS * pat.getNumberOfJugglers());
+    }
+
+    public JMLPattern getPattern() {
+        return pat;
+    }
+
+    public double getStartTime() {
+        return start_time;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    public int getNumberOfFrames() {
+        return num_frames;
+    }
+
+    // Returns the frame number for `time`, or -1 if it isn't one of the
+    // sampled times
+    public int getFrame(double time) {
+        double f = (time - start_time) / interval;
+        int frame = (int)Math.round(f);
+        if (frame < 0 || frame >= num_frames || Math.abs(f - frame) > TIME_SLOP)
+            return -1;
+        return frame;
+    }
+
+    // Equivalent of JMLPattern.getPathCoordinate() at a sampled frame
+    public void getPathCoordinate(int frame, int path, Coordinate result) {
+        int index = frame * num_paths + (path - 1);
+        result.x = pathx[index];
+        result.y = pathy[index];
+        result.z = pathz[index];
+    }
+
+    // Equivalent of Juggler.findJugglerCoordinates() at a sampled frame.
+    // Vectors already in `result` are reused.
+    public void getJugglerCoordinates(int frame, JLVector[][] result) {
+        for (int j = 0; j < num_jugglers; j++) {
+            int index = (frame * num_jugglers + j) * NUM_POINTS;
+            for (int k = 0; k < NUM_POINTS; k++) {
+                JLVector v = result[j][k];
+                if (v == null)
+                    v = result[j][k] = new JLVector();
+                v.x = bodyx[index + k];
+                v.y = bodyy[index + k];
+                v.z = bodyz[index + k];
+            }
+        }
+    }
+}
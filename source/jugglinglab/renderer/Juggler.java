@@ -49,205 +49,185 @@ public class Juggler {
     public final static double wrist_radius = 2;
 
 
+    // Calculate the body points of each juggler at a given time. For juggler
+    // number j (1-based) the points are stored in result[j-1][0..17], in the
+    // order: left hand, right hand, left shoulder, right shoulder, left elbow,
+    // right elbow, left waist, right waist, left head bottom, left head top,
+    // right head bottom, right head top, left foot, right foot, left knee,
+    // right knee, left hip, right hip.
+    //
+    // Vectors already in `result` are overwritten in place.
     public static void findJugglerCoordinates(JMLPattern pat, double time, JLVector[][] result)
                                     throws JuggleExceptionInternal {
+        Coordinate[] work = { new Coordinate(), new Coordinate(), new Coordinate() };
+        findJugglerCoordinates(pat, time, result, work);
+    }
+
+    // Version of the above that uses `work` (at least 3 Coordinates) as
+    // scratch space, so that it doesn't allocate once `result` is filled in.
+    public static void findJugglerCoordinates(JMLPattern pat, double time, JLVector[][] result,
+                                    Coordinate[] work) throws JuggleExceptionInternal {
         for (int juggler = 1; juggler <= pat.getNumberOfJugglers(); juggler++) {
-            JLVector lefthand, righthand;
-            JLVector leftshoulder, rightshoulder;
-            JLVector leftelbow, rightelbow;
-            JLVector leftwaist, rightwaist;
-            JLVector leftheadbottom, leftheadtop;
-            JLVector rightheadbottom, rightheadtop;
+            JLVector[] r = result[juggler - 1];
+            for (int k = 0; k < 18; k++) {
+                if (r[k] == null)
+                    r[k] = new JLVector();
+            }
+
+            JLVector lefthand = r[0], righthand = r[1];
+            JLVector leftshoulder = r[2], rightshoulder = r[3];
+            JLVector leftelbow = r[4], rightelbow = r[5];
+            JLVector leftwaist = r[6], rightwaist = r[7];
+            JLVector leftheadbottom = r[8], leftheadtop = r[9];
+            JLVector rightheadbottom = r[10], rightheadtop = r[11];
             //legs
-            JLVector leftfoot, rightfoot, leftknee, rightknee, lefthip, righthip;
+            JLVector leftfoot = r[12], rightfoot = r[13];
+            JLVector leftknee = r[14], rightknee = r[15];
+            JLVector lefthip = r[16], righthip = r[17];
 
-            Coordinate coord0 = new Coordinate();
-            Coordinate coord1 = new Coordinate();
-            Coordinate coord2 = new Coordinate();
+            Coordinate coord0 = work[0];
+            Coordinate coord1 = work[1];
+            Coordinate coord2 = work[2];
             pat.getHandCoordinate(juggler, HandLink.LEFT_HAND, time, coord0);
             pat.getHandCoordinate(juggler, HandLink.RIGHT_HAND, time, coord1);
-            lefthand = new JLVector(coord0.x,
+            set(lefthand, coord0.x,
                         coord0.z + lower_hand_height, coord0.y);
-            righthand = new JLVector(coord1.x,
+            set(righthand, coord1.x,
                         coord1.z + lower_hand_height, coord1.y);
 
             pat.getJugglerPosition(juggler, time, coord2);
-            double angle = Math.toRadians(pat.getJugglerAngle(juggler, time));
+            double angle = Math.toRadians(pat.getJugglerAngle(juggler, time, coord0));
             double s = Math.sin(angle);
             double c = Math.cos(angle);
 
-            leftshoulder = new JLVector(
+            set(leftshoulder,
                 coord2.x - shoulder_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h,
                 coord2.y - shoulder_hw * s + shoulder_y * c);
-            rightshoulder = new JLVector(
+            set(rightshoulder,
                 coord2.x + shoulder_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h,
                 coord2.y + shoulder_hw * s + shoulder_y * c);
-            leftwaist = new JLVector(
+            set(leftwaist,
                 coord2.x - waist_hw * c - shoulder_y * s,
                 coord2.z + waist_h,
                 coord2.y - waist_hw * s + shoulder_y * c);
-            rightwaist = new JLVector(
+            set(rightwaist,
                 coord2.x + waist_hw * c - shoulder_y * s,
                 coord2.z + waist_h,
                 coord2.y + waist_hw * s + shoulder_y * c);
-            leftheadbottom = new JLVector(
+            set(leftheadbottom,
                 coord2.x - head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h,
                 coord2.y - head_hw * s + shoulder_y * c);
-            leftheadtop = new JLVector(
+            set(leftheadtop,
                 coord2.x - head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h + head_h,
                 coord2.y - head_hw * s + shoulder_y * c);
-            rightheadbottom = new JLVector(
+            set(rightheadbottom,
                 coord2.x + head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h,
                 coord2.y + head_hw * s + shoulder_y * c);
-            rightheadtop = new JLVector(
+            set(rightheadtop,
                 coord2.x + head_hw * c - shoulder_y * s,
                 coord2.z + shoulder_h + neck_h + head_h,
                 coord2.y + head_hw * s + shoulder_y * c);
 
-            double L = lower_arm_total; // length of the lower arm
-            double U = upper_arm_total; // length of the upper arm
-            JLVector deltaL = JLVector.sub(lefthand, leftshoulder);
-            double D = deltaL.length();
-            if (D <= (L+U)) {
-                // Calculate the coordinates of the elbows
-                double Lr = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
-                if (Double.isNaN(Lr))
-                    throw new JuggleExceptionInternal("NaN in renderer 1");
-
-                double factor = Math.sqrt(U*U-Lr*Lr)/D;
-                if (Double.isNaN(factor))
-                    throw new JuggleExceptionInternal("NaN in renderer 2");
-                JLVector Lxsc = JLVector.scale(factor, deltaL);
-                double Lalpha = Math.asin(deltaL.y / D);
-                if (Double.isNaN(Lalpha))
-                    throw new JuggleExceptionInternal("NaN in renderer 3");
-                factor = 1.0 + Lr*Math.tan(Lalpha)/(factor*D);
-                leftelbow = new JLVector(
-                        leftshoulder.x + Lxsc.x * factor,
-                        leftshoulder.y + Lxsc.y - Lr*Math.cos(Lalpha),
-                        leftshoulder.z + Lxsc.z * factor);
-            } else {
-                // if the distance between hand and shoulder is unrealistically far, the elbow is halfway between them
-                leftelbow = new JLVector(
-                    (leftshoulder.x + lefthand.x) / 2,
-                    (leftshoulder.y + lefthand.y) / 2,
-                    (leftshoulder.z + lefthand.z) / 2);
-            }
-
-            JLVector deltaR = JLVector.sub(righthand, rightshoulder);
-            D = deltaR.length();
-            if (D <= (L+U)) {
-                // Calculate the coordinates of the elbows
-                double Rr = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
-                if (Double.isNaN(Rr))
-                    throw new JuggleExceptionInternal("NaN in renderer 4");
-
-                double factor = Math.sqrt(U*U-Rr*Rr)/D;
-                if (Double.isNaN(factor))
-                    throw new JuggleExceptionInternal("NaN in renderer 5");
-                JLVector Rxsc = JLVector.scale(factor, deltaR);
-                double Ralpha = Math.asin(deltaR.y / D);
-                if (Double.isNaN(Ralpha))
-                    throw new JuggleExceptionInternal("NaN in renderer 6");
-                factor = 1.0 + Rr*Math.tan(Ralpha)/(factor*D);
-                rightelbow = new JLVector(
-                        rightshoulder.x + Rxsc.x * factor,
-                        rightshoulder.y + Rxsc.y - Rr*Math.cos(Ralpha),
-                        rightshoulder.z + Rxsc.z * factor);
-            } else {
-                // if the distance between hand and shoulder is unrealistically far, the elbow is halfway between them
-                rightelbow = new JLVector(
-                    (rightshoulder.x + righthand.x) / 2,
-                    (rightshoulder.y + righthand.y) / 2,
-                    (rightshoulder.z + righthand.z) / 2);
-            }
+            findElbow(leftshoulder, lefthand, leftelbow, 1);
+            findElbow(rightshoulder, righthand, rightelbow, 4);
 
             // LEGS
-            // static feet for now 
-            leftfoot = new JLVector(
+            // static feet for now
+            set(leftfoot,
                 leftwaist.x - leg_width,
                 leftwaist.y - upper_leg_length - lower_leg_length,
                 leftwaist.z);
-            rightfoot = new JLVector(
+            set(rightfoot,
                 rightwaist.x + leg_width,
                 rightwaist.y - upper_leg_length - lower_leg_length + 20,
                 rightwaist.z);
-            righthip = new JLVector(
+            set(righthip,
                 rightwaist.x ,
                 rightwaist.y,
                 rightwaist.z);
-            lefthip = new JLVector(
+            set(lefthip,
                 leftwaist.x ,
                 leftwaist.y,
                 leftwaist.z);
 
-            // calculate legs
-            L = lower_leg_length; // length of the lower leg
-            U = upper_leg_length; // length of the upper leg
-            deltaL = JLVector.sub(leftfoot, lefthip);
-            D = deltaL.length();
-            if (D <= (L+U)) {
-                // this doesn't yet account for the juggler themself being non-vertical!
-                // step 1. calculate the angle between the upper leg in the z direction and the juggler using cosine law
-                double angleLeg = Math.acos((U*U + D*D - L*L) / (2*U*D));
-
-                // step 2. apply the SOHCAHTOA rule.
-                leftknee = new JLVector(
-                    (lefthip.x + leftfoot.x) / 2,
-                    lefthip.y - U * Math.cos(angleLeg),
-                    lefthip.z + U * Math.sin(angleLeg));
-            } else {
-                // if the distance between foot and hip is farther than the leg length, the knee is halfway between them
-                leftknee = new JLVector(
-                    (lefthip.x + leftfoot.x) / 2,
-                    (lefthip.y + leftfoot.y) / 2,
-                    (lefthip.z + leftfoot.z) / 2);
-            }
-
-            deltaR = JLVector.sub(rightfoot, righthip);
-            D = deltaR.length();
-            if (D <= (L+U)) {
-                double angleLeg = Math.acos((U*U + D*D - L*L) / (2*U*D));
-
-                // step 2. apply the SOHCAHTOA rule.
-                rightknee = new JLVector(
-                    (righthip.x + rightfoot.x) / 2,
-                    righthip.y - U * Math.cos(angleLeg),
-                    righthip.z + U * Math.sin(angleLeg));
-            } else {
-                // if the distance between foot and hip is unrealistically far, the knee is halfway between them
-                rightknee = new JLVector(
-                    (righthip.x + rightfoot.x) / 2,
-                    (righthip.y + rightfoot.y) / 2,
-                    (righthip.z + rightfoot.z) / 2);
-            }
+            findKnee(lefthip, leftfoot, leftknee);
+            findKnee(righthip, rightfoot, rightknee);
+        }
+    }
 
+    protected static void set(JLVector v, double x, double y, double z) {
+        v.x = x;
+        v.y = y;
+        v.z = z;
+    }
 
-            result[juggler - 1][0] = lefthand;
-            result[juggler - 1][1] = righthand;
-            result[juggler - 1][2] = leftshoulder;
-            result[juggler - 1][3] = rightshoulder;
-            result[juggler - 1][4] = leftelbow;
-            result[juggler - 1][5] = rightelbow;
-            result[juggler - 1][6] = leftwaist;
-            result[juggler - 1][7] = rightwaist;
-            result[juggler - 1][8] = leftheadbottom;
-            result[juggler - 1][9] = leftheadtop;
-            result[juggler - 1][10] = rightheadbottom;
-            result[juggler - 1][11] = rightheadtop;
-            
-            result[juggler - 1][12] = leftfoot;
-            result[juggler - 1][13] = rightfoot;
-            result[juggler - 1][14] = leftknee;
-            result[juggler - 1][15] = rightknee;
-            result[juggler - 1][16] = lefthip;
-            result[juggler - 1][17] = righthip;
+    // Calculate the coordinates of the elbow given the shoulder and hand.
+    // `errnum` numbers the error messages.
+    protected static void findElbow(JLVector shoulder, JLVector hand, JLVector elbow,
+                                    int errnum) throws JuggleExceptionInternal {
+        double L = lower_arm_total; // length of the lower arm
+        double U = upper_arm_total; // length of the upper arm
+        double deltax = hand.x - shoulder.x;
+        double deltay = hand.y - shoulder.y;
+        double deltaz = hand.z - shoulder.z;
+        double D = Math.sqrt(deltax*deltax + deltay*deltay + deltaz*deltaz);
+        if (D <= (L+U)) {
+            double r = Math.sqrt((4.0*U*U*L*L-(U*U+L*L-D*D)*(U*U+L*L-D*D))/(4.0*D*D));
+            if (Double.isNaN(r))
+                throw new JuggleExceptionInternal("NaN in renderer " + errnum);
+
+            double factor = Math.sqrt(U*U-r*r)/D;
+            if (Double.isNaN(factor))
+                throw new JuggleExceptionInternal("NaN in renderer " + (errnum + 1));
+            double xscx = factor * deltax;
+            double xscy = factor * deltay;
+            double xscz = factor * deltaz;
+            double alpha = Math.asin(deltay / D);
+            if (Double.isNaN(alpha))
+                throw new JuggleExceptionInternal("NaN in renderer " + (errnum + 2));
+            factor = 1.0 + r*Math.tan(alpha)/(factor*D);
+            set(elbow,
+                shoulder.x + xscx * factor,
+                shoulder.y + xscy - r*Math.cos(alpha),
+                shoulder.z + xscz * factor);
+        } else {
+            // if the distance between hand and shoulder is unrealistically far, the elbow is halfway between them
+            set(elbow,
+                (shoulder.x + hand.x) / 2,
+                (shoulder.y + hand.y) / 2,
+                (shoulder.z + hand.z) / 2);
         }
     }
 
+    // Calculate the coordinates of the knee given the hip and foot
+    protected static void findKnee(JLVector hip, JLVector foot, JLVector knee) {
+        double L = lower_leg_length; // length of the lower leg
+        double U = upper_leg_length; // length of the upper leg
+        double deltax = foot.x - hip.x;
+        double deltay = foot.y - hip.y;
+        double deltaz = foot.z - hip.z;
+        double D = Math.sqrt(deltax*deltax + deltay*deltay + deltaz*deltaz);
+        if (D <= (L+U)) {
+            // this doesn't yet account for the juggler themself being non-vertical!
+            // step 1. calculate the angle between the upper leg in the z direction and the juggler using cosine law
+            double angleLeg = Math.acos((U*U + D*D - L*L) / (2*U*D));
+
+            // step 2. apply the SOHCAHTOA rule.
+            set(knee,
+                (hip.x + foot.x) / 2,
+                hip.y - U * Math.cos(angleLeg),
+                hip.z + U * Math.sin(angleLeg));
+        } else {
+            // if the distance between foot and hip is farther than the leg length, the knee is halfway between them
+            set(knee,
+                (hip.x + foot.x) / 2,
+                (hip.y + foot.y) / 2,
+                (hip.z + foot.z) / 2);
+        }
+    }
 }
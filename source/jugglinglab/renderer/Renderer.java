@@ -7,6 +7,7 @@ package jugglinglab.renderer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 import jugglinglab.jml.JMLPattern;
 import jugglinglab.util.Coordinate;
@@ -15,11 +16,22 @@ import jugglinglab.util.JuggleExceptionInternal;
 
 public abstract class Renderer {
     protected boolean showground;
+    protected BakedPattern baked;  // precomputed positions, if any
 
     public void setGround(boolean showground) {
         this.showground = showground;
     }
 
+    // Tables of precomputed positions to use when drawing frames at one of
+    // the sampled times (null for none)
+    public void setBakedPattern(BakedPattern bp) {
+        baked = bp;
+    }
+
+    public BakedPattern getBakedPattern() {
+        return baked;
+    }
+
     public abstract void setPattern(JMLPattern pat);
 
     public abstract void initDisplay(Dimension dim, int border,
@@ -50,6 +62,70 @@ public abstract class Renderer {
     public abstract void drawFrame(double time, int[] pnum, int[] hideJugglers, Graphics g)
                 throws JuggleExceptionInternal;
 
+    // Draw the frame as seen by this renderer into `g1`, and as seen by
+    // `other` into `g2`, for a stereo display. Subclasses can override this
+    // to share work between the two views.
+    public void drawStereoFrame(double time, int[] pnum, int[] hideJugglers,
+                                Renderer other, Graphics g1, Graphics g2)
+                throws JuggleExceptionInternal {
+        drawFrame(time, pnum, hideJugglers, g1);
+        other.drawFrame(time, pnum, hideJugglers, g2);
+    }
+
+    // Area of the display that changes going from the last frame drawn to
+    // the frame at `time`, or null if unknown. Subclasses that can tell should
+    // override this. The result may be reused by the next call.
+    public Rectangle getChangedArea(double time, int[] pnum, int[] hideJugglers)
+                throws JuggleExceptionInternal {
+        return null;
+    }
+
+    // Same as getChangedArea() for a stereo display of size `dim`, with this
+    // renderer drawing the left half and `other` the right half. Subclasses
+    // can override this to share work between the two views.
+    public Rectangle getStereoChangedArea(double time, int[] pnum, int[] hideJugglers,
+                                          Renderer other, Dimension dim)
+                throws JuggleExceptionInternal {
+        Rectangle r1 = getChangedArea(time, pnum, hideJugglers);
+        if (r1 == null)
+            return null;
+        Rectangle r2 = other.getChangedArea(time, pnum, hideJugglers);
+        if (r2 == null)
+            return null;
+
+        Rectangle result = new Rectangle();
+        addStereoAreas(r1, r2, dim, result);
+        return result;
+    }
+
+    // Add the changed areas of the two views of a stereo display to `area`.
+    // Each view is drawn clipped to its half of the display.
+    protected static void addStereoAreas(Rectangle r1, Rectangle r2, Dimension dim,
+                                         Rectangle area) {
+        int half = dim.width / 2;
+        if (!r1.isEmpty())
+            addArea(area, Math.max(r1.x, 0), Math.max(r1.y, 0),
+                    Math.min(r1.x + r1.width, half), Math.min(r1.y + r1.height, dim.height));
+        if (!r2.isEmpty())
+            addArea(area, Math.max(r2.x + half, half), Math.max(r2.y, 0),
+                    Math.min(r2.x + half + r2.width, dim.width),
+                    Math.min(r2.y + r2.height, dim.height));
+    }
+
+    // Add the rectangle with corners (x1, y1) and (x2, y2) to `area`, if it
+    // isn't empty. This doesn't allocate, unlike Rectangle.union().
+    protected static void addArea(Rectangle area, int x1, int y1, int x2, int y2) {
+        if (x2 <= x1 || y2 <= y1)
+            return;
+        if (!area.isEmpty()) {
+            x1 = Math.min(x1, area.x);
+            y1 = Math.min(y1, area.y);
+            x2 = Math.max(x2, area.x + area.width);
+            y2 = Math.max(y2, area.y + area.height);
+        }
+        area.setBounds(x1, y1, x2 - x1, y2 - y1);
+    }
+
     public abstract Color getBackground();
 
     public abstract double getZoomLevel();
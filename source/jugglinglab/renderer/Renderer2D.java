@@ -7,9 +7,9 @@ package jugglinglab.renderer;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import jugglinglab.core.Constants;
 import jugglinglab.jml.JMLPattern;
@@ -17,6 +17,7 @@ import jugglinglab.util.Coordinate;
 import jugglinglab.util.JLFunc;
 import jugglinglab.util.JuggleExceptionInternal;
 import jugglinglab.prop.Prop;
+import jugglinglab.prop.SpriteCache;
 
 
 // Class that draws the juggling into the frame
@@ -28,6 +29,7 @@ public class Renderer2D extends Renderer {
     public static final int RENDER_WIRE_FRAME = 1;
     public static final int RENDER_FLAT_SOLID = 2;
     protected int render_type = RENDER_FLAT_SOLID; // One of the above
+    protected static final int PAINT_MARGIN = 3;  // pixels
 
     protected Color background;
     protected Coordinate left;
@@ -54,11 +56,35 @@ public class Renderer2D extends Renderer {
 
     protected DrawObject2D[] obj;
     protected DrawObject2D[] obj2;
+    protected long[] sortkeys;  // scratch for sorting objects in drawFrame()
+    protected int[] drawpass;
+    protected int[] numcovering;
+    protected int[] drawqueue;
+    protected Coordinate[] pathcoord;  // world coordinates of props
     protected JLVector[][] jugglervec;
+    protected Coordinate[] jugglerwork;  // scratch for Juggler.findJugglerCoordinates()
     protected double propmin;  // for drawing floor
-    protected Coordinate tempc;
     protected JLVector tempv1;
     protected JLVector tempv2;
+    protected Rectangle tempr;
+
+    // what was drawn in the last frame, for getChangedArea()
+    protected int lastnumobjects;
+    protected int[][] lastgeom;  // object type and screen points
+    protected SpriteCache.Sprite[] lastsprite;
+    protected Rectangle[] lastbounds;
+    protected int[] lastrank;
+    protected boolean[] changed;  // scratch for getChangedArea()
+    protected Rectangle changedarea;  // results of getChangedArea()
+    protected Rectangle stereoarea;
+
+    // work done by getChangedArea() for the frame drawn next
+    protected boolean prepared;
+    protected int numprepared;
+    protected double prepared_time;
+    protected int[] prepared_pnum;
+    protected int[] prepared_hide;
+    protected int prepared_numhide;  // -1 for none
     
     protected boolean renderLegs;
 
@@ -75,9 +101,12 @@ public class Renderer2D extends Renderer {
             headcos[i] = Math.cos((double)i * 2.0 * Math.PI / polysides);
             headsin[i] = Math.sin((double)i * 2.0 * Math.PI / polysides);
         }
-        tempc = new Coordinate();
+        jugglerwork = new Coordinate[] { new Coordinate(), new Coordinate(), new Coordinate() };
         tempv1 = new JLVector();
         tempv2 = new JLVector();
+        tempr = new Rectangle();
+        changedarea = new Rectangle();
+        stereoarea = new Rectangle();
         zoomfactor = 1;
         
         renderLegs = true;
@@ -86,12 +115,31 @@ public class Renderer2D extends Renderer {
     @Override
     public void setPattern(JMLPattern p) {
         pat = p;
-        int maxobjects = 5*pat.getNumberOfJugglers() + pat.getNumberOfPaths() + 18;
+        baked = null;
+        int maxobjects = 9*pat.getNumberOfJugglers() + pat.getNumberOfPaths() + 18;
         obj = new DrawObject2D[maxobjects];
         for (int i = 0; i < maxobjects; i++)
             obj[i] = new DrawObject2D(maxobjects);
         obj2 = new DrawObject2D[maxobjects];
+        sortkeys = new long[maxobjects];
+        drawpass = new int[maxobjects];
+        numcovering = new int[maxobjects];
+        drawqueue = new int[maxobjects];
+        pathcoord = new Coordinate[pat.getNumberOfPaths()];
+        for (int i = 0; i < pathcoord.length; i++)
+            pathcoord[i] = new Coordinate();
         jugglervec = new JLVector[pat.getNumberOfJugglers()][18];
+
+        lastnumobjects = -1;
+        lastgeom = new int[maxobjects][17];
+        lastsprite = new SpriteCache.Sprite[maxobjects];
+        lastbounds = new Rectangle[maxobjects];
+        for (int i = 0; i < maxobjects; i++)
+            lastbounds[i] = new Rectangle();
+        lastrank = new int[maxobjects];
+        changed = new boolean[maxobjects];
+        prepared = false;
+        prepared_pnum = new int[pat.getNumberOfPaths()];
     }
 
     @Override
@@ -200,6 +248,7 @@ public class Renderer2D extends Renderer {
     }
 
     protected void calculateCameraMatrix() {
+        prepared = false;
         m = JLMatrix.shiftMatrix(-cameracenter.x, -cameracenter.y, -cameracenter.z);
         m.transform(JLMatrix.rotateMatrix(0.0, Math.PI - cameraangle[0], 0.0));
         m.transform(JLMatrix.rotateMatrix(0.5 * Math.PI - cameraangle[1], 0.0, 0.0));
@@ -250,16 +299,292 @@ public class Renderer2D extends Renderer {
     @Override
     public void setRenderLegs(boolean render) {
     	renderLegs = render;
+        prepared = false;
+    }
+
+    @Override
+    public void setGround(boolean showground) {
+        super.setGround(showground);
+        prepared = false;
     }
 
     @Override
     public void drawFrame(double time, int[] pnum, int[] hideJugglers, Graphics g)
                             throws JuggleExceptionInternal {
-        int numobjects = 5 * pat.getNumberOfJugglers() + pat.getNumberOfPaths() + 18;
+        if (!isPreparedFor(time, pnum, hideJugglers)) {
+            findSceneCoordinates(time);
+            prepareScene(this, pnum, hideJugglers);
+        }
+        drawPreparedScene(g);
+    }
+
+    // The prop and juggler positions are the same for both views, so find
+    // them once and draw them from both cameras
+    @Override
+    public void drawStereoFrame(double time, int[] pnum, int[] hideJugglers,
+                                Renderer other, Graphics g1, Graphics g2)
+                            throws JuggleExceptionInternal {
+        if (!(other instanceof Renderer2D) || ((Renderer2D)other).pat != pat) {
+            super.drawStereoFrame(time, pnum, hideJugglers, other, g1, g2);
+            return;
+        }
+
+        Renderer2D ren2 = (Renderer2D)other;
+        if (!isPreparedFor(time, pnum, hideJugglers) ||
+                    !ren2.isPreparedFor(time, pnum, hideJugglers)) {
+            findSceneCoordinates(time);
+            prepareScene(this, pnum, hideJugglers);
+            ren2.prepareScene(this, pnum, hideJugglers);
+        }
+        drawPreparedScene(g1);
+        ren2.drawPreparedScene(g2);
+    }
+
+    // Find the world coordinates of the props and jugglers at the given time,
+    // into `pathcoord` and `jugglervec`
+    protected void findSceneCoordinates(double time) throws JuggleExceptionInternal {
+        // use precomputed positions if we have them for this time
+        int frame = -1;
+        BakedPattern bp = baked;
+        if (bp != null && bp.getPattern() == pat)
+            frame = bp.getFrame(time);
+
+        for (int i = 1; i <= pat.getNumberOfPaths(); i++) {
+            Coordinate c = pathcoord[i - 1];
+            if (frame >= 0)
+                bp.getPathCoordinate(frame, i, c);
+            else
+                pat.getPathCoordinate(i, time, c);
+            if (!c.isValid())
+                c.setCoordinate(0.0, 0.0, 0.0);
+        }
+
+        if (frame >= 0)
+            bp.getJugglerCoordinates(frame, jugglervec);
+        else
+            Juggler.findJugglerCoordinates(pat, time, jugglervec, jugglerwork);
+    }
+
+    // Work out what to draw for the scene whose world coordinates are in
+    // `scene` (this renderer or another one for the same pattern), as seen by
+    // this renderer's camera
+    protected void prepareScene(Renderer2D scene, int[] pnum, int[] hideJugglers) {
+        numprepared = createObjects(scene, pnum, hideJugglers);
+        sortObjects(numprepared);
+    }
+
+    // Draw what prepareScene() worked out
+    protected void drawPreparedScene(Graphics g) {
+        saveObjectGeometry(numprepared);
+        drawObjects(numprepared, g);
+        prepared = false;
+    }
+
+    // Find the order to draw the objects in `obj`, into `obj2`
+    protected void sortObjects(int numobjects) {
+        int index;
+
+
+        // figure out which display elements are covering which other elements.
+        // Only objects with intersecting bounding boxes can cover each other,
+        // so sweep across the objects in order of increasing x and compare
+        // each one only with those that start inside its horizontal extent.
+        for (int i = 0; i < numobjects; i++) {
+            obj[i].index = i;
+            obj[i].drawn = false;
+            sortkeys[i] = ((long)obj[i].boundingbox.x << 32) | i;
+        }
+        Arrays.sort(sortkeys, 0, numobjects);
+
+        for (int i = 0; i < numobjects; i++) {
+            DrawObject2D ob1 = obj[(int)sortkeys[i]];
+            int xmax = ob1.boundingbox.x + ob1.boundingbox.width;
+
+            for (int j = i + 1; j < numobjects; j++) {
+                DrawObject2D ob2 = obj[(int)sortkeys[j]];
+                if (ob2.boundingbox.x >= xmax)
+                    break;
+                if (ob1.isCovering(ob2)) {
+                    ob1.covering.add(ob2);
+                    ob2.coveredby.add(ob1);
+                }
+                if (ob2.isCovering(ob1)) {
+                    ob2.covering.add(ob1);
+                    ob1.coveredby.add(ob2);
+                }
+            }
+        }
+
+        // figure out a drawing order, by topologically sorting the objects so
+        // that each is drawn after everything it covers.
+        //
+        // Among the valid orders we pick the one found by repeatedly sweeping
+        // through the objects in index order and drawing each one that is
+        // ready. An object is drawn in the first sweep in which everything it
+        // covers has already been drawn, i.e. sweep number
+        //     max(drawpass[j] + (j > i ? 1 : 0))
+        // over the objects j it covers. Then the objects are drawn in order of
+        // sweep number, and in index order within each sweep.
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < numobjects; i++) {
+            drawpass[i] = 0;
+            numcovering[i] = obj[i].covering.size();
+            if (numcovering[i] == 0)
+                drawqueue[tail++] = i;
+        }
+        while (head < tail) {
+            int j = drawqueue[head++];
+            ArrayList<DrawObject2D> coveredby = obj[j].coveredby;
+
+            for (int k = 0; k < coveredby.size(); k++) {
+                int i = coveredby.get(k).index;
+                int pass = drawpass[j] + (j > i ? 1 : 0);
+                if (pass > drawpass[i])
+                    drawpass[i] = pass;
+                if (--numcovering[i] == 0)
+                    drawqueue[tail++] = i;
+            }
+        }
+
+        for (int k = 0; k < tail; k++) {
+            int i = drawqueue[k];
+            sortkeys[k] = ((long)drawpass[i] << 32) | i;
+        }
+        Arrays.sort(sortkeys, 0, tail);
+
+        for (index = 0; index < tail; index++) {
+            obj2[index] = obj[(int)sortkeys[index]];
+            obj2[index].drawn = true;
+        }
+
+        // just in case there were some that couldn't be drawn:
+        for (int i = 0; i < numobjects; i++) {
+            if (obj[i].drawn)
+                continue;
+            obj2[index] = obj[i];
+            obj[i].drawn = true;
+            index++;
+            // System.out.println("got undrawable item, type "+obj[i].type);
+        }
 
-        // first reset the objects in the object pool
         for (int i = 0; i < numobjects; i++)
+            obj2[i].rank = i;
+    }
+
+    // Draw the objects in the sorted order
+    protected void drawObjects(int numobjects, Graphics g) {
+        for (int i = 0; i < numobjects; i++) {
+            DrawObject2D ob = obj2[i];
+
+            switch (ob.type) {
+                case DrawObject2D.TYPE_PROP:
+                    int x = (int)Math.round(ob.coord[0].x);
+                    int y = (int)Math.round(ob.coord[0].y);
+                    if (ob.sprite != null) {
+                        Dimension grip = ob.sprite.grip;
+                        g.drawImage(ob.sprite.image, x - grip.width, y - grip.height, null);
+                    } /* else {
+                        g.setColor(pr.getEditorColor());
+                        draw3DProp(ob.object, g);
+                    } */
+
+                    /*
+                    g.setColor(Color.black);
+                    g.drawLine(ob.boundingbox.x, ob.boundingbox.y,
+                               ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y);
+                    g.drawLine(ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y,
+                               ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y + ob.boundingbox.height);
+                    g.drawLine(ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y + ob.boundingbox.height,
+                               ob.boundingbox.x, ob.boundingbox.y + ob.boundingbox.height);
+                    g.drawLine(ob.boundingbox.x, ob.boundingbox.y + ob.boundingbox.height,
+                               ob.boundingbox.x, ob.boundingbox.y);
+                    */
+                    break;
+                case DrawObject2D.TYPE_BODY:
+                    int[] bodyx = new int[4];
+                    int[] bodyy = new int[4];
+                    for (int j = 0; j < 4; j++) {
+                        bodyx[j] = (int)Math.round(ob.coord[j].x);
+                        bodyy[j] = (int)Math.round(ob.coord[j].y);
+                    }
+                    g.setColor(background);
+                    g.fillPolygon(bodyx, bodyy, 4);
+                    g.setColor(Color.black);
+                    g.drawPolygon(bodyx, bodyy, 4);
+
+                    double LheadBx = ob.coord[4].x;
+                    double LheadBy = ob.coord[4].y;
+                    double LheadTx = ob.coord[5].x;
+                    double LheadTy = ob.coord[5].y;
+                    double RheadBx = ob.coord[6].x;
+                    double RheadBy = ob.coord[6].y;
+                    double RheadTx = ob.coord[7].x;
+                    double RheadTy = ob.coord[7].y;
+
+                    if (Math.abs(RheadBx - LheadBx) > 2.0) {
+                        // head is at least 2 pixels wide; draw it as a polygon
+                        for (int j = 0; j < polysides; j++) {
+                            headx[j] = (int)Math.round(0.5 * (LheadBx + RheadBx + headcos[j] * (RheadBx - LheadBx)));
+                            heady[j] = (int)Math.round(0.5 * (LheadBy + LheadTy + headsin[j] * (LheadBy - LheadTy)) +
+                                             (headx[j] - LheadBx) * (RheadBy - LheadBy) / (RheadBx-LheadBx));
+                        }
+
+                        g.setColor(background);
+                        g.fillPolygon(headx, heady, polysides);
+                        g.setColor(Color.black);
+                        g.drawPolygon(headx, heady, polysides);
+                    } else {
+                        // head is edge-on; draw it as a line
+                        double h = Math.sqrt((LheadBy - LheadTy) * (LheadBy - LheadTy) +
+                                             (RheadBy - LheadBy) * (RheadBy - LheadBy));
+                        int headx = (int)Math.round(0.5 * (LheadBx + RheadBx));
+                        int heady1 = (int)Math.round(0.5 * (LheadTy + RheadBy + h));
+                        int heady2 = (int)Math.round(0.5 * (LheadTy + RheadBy - h));
+
+                        g.setColor(Color.black);
+                        g.drawLine(headx, heady1, headx, heady2);
+                    }
+                    break;
+                case DrawObject2D.TYPE_LINE:
+                    g.setColor(Color.black);
+                    if (ob.id == "upper") g.setColor(Color.red);
+                    int x1 = (int)Math.round(ob.coord[0].x);
+                    int y1 = (int)Math.round(ob.coord[0].y);
+                    int x2 = (int)Math.round(ob.coord[1].x);
+                    int y2 = (int)Math.round(ob.coord[1].y);
+                    g.drawLine(x1, y1, x2, y2);
+                    break;
+            }
+
+            /*
+            g.setColor(Color.black);
+            g.drawLine(ob.boundingbox.x, ob.boundingbox.y,
+                       ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y);
+            g.drawLine(ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y,
+                       ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y+ob.boundingbox.height-1);
+            g.drawLine(ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y+ob.boundingbox.height-1,
+                       ob.boundingbox.x, ob.boundingbox.y+ob.boundingbox.height-1);
+            g.drawLine(ob.boundingbox.x, ob.boundingbox.y+ob.boundingbox.height-1,
+                       ob.boundingbox.x, ob.boundingbox.y);
+            */
+        }
+    }
+
+    // Fill in `obj` with the objects to draw for the scene whose world
+    // coordinates are in `scene`, as seen by this renderer's camera. Returns
+    // the number of objects.
+    protected int createObjects(Renderer2D scene, int[] pnum, int[] hideJugglers) {
+        JLVector[][] jugglervec = scene.jugglervec;
+
+        // each juggler is a body, four arm lines, and four leg lines
+        int numobjects = 9 * pat.getNumberOfJugglers() + pat.getNumberOfPaths() + 18;
+
+        // first reset the objects in the object pool
+        for (int i = 0; i < numobjects; i++) {
             obj[i].covering.clear();
+            obj[i].coveredby.clear();
+        }
 
         // first create a list of objects in the display
         int index = 0;
@@ -269,20 +594,18 @@ public class Renderer2D extends Renderer {
         for (int i = 1; i <= pat.getNumberOfPaths(); i++) {
             obj[index].type = DrawObject2D.TYPE_PROP;
             obj[index].number = i;
-            pat.getPathCoordinate(i, time, tempc);
-            if (!tempc.isValid())
-                tempc.setCoordinate(0.0, 0.0, 0.0);
-            getXYZ(JLVector.fromCoordinate(tempc, tempv1), obj[index].coord[0]);
+            getXYZ(JLVector.fromCoordinate(scene.pathcoord[i - 1], tempv1),
+                   obj[index].coord[0]);
             int x = (int)Math.round(obj[index].coord[0].x);
             int y = (int)Math.round(obj[index].coord[0].y);
             Prop pr = pat.getProp(pnum[i-1]);
-            if (pr.getProp2DImage(zoom, cameraangle) != null) {
-                Dimension center = pr.getProp2DCenter(zoom);
-                Dimension size = pr.getProp2DSize(zoom);
-                obj[index].boundingbox.x = x - center.width;
-                obj[index].boundingbox.y = y - center.height;
-                obj[index].boundingbox.width = size.width;
-                obj[index].boundingbox.height = size.height;
+            SpriteCache.Sprite sprite = pr.getProp2DSprite(zoom, cameraangle);
+            obj[index].sprite = sprite;
+            if (sprite != null) {
+                obj[index].boundingbox.x = x - sprite.center.width;
+                obj[index].boundingbox.y = y - sprite.center.height;
+                obj[index].boundingbox.width = sprite.size.width;
+                obj[index].boundingbox.height = sprite.size.height;
             }
             propmin = Math.min(propmin, pr.getMin().z);
             index++;
@@ -332,8 +655,6 @@ public class Renderer2D extends Renderer {
         }
 
         // jugglers
-        Juggler.findJugglerCoordinates(pat, time, jugglervec);
-
         for (int i = 1; i <= pat.getNumberOfJugglers(); i++) {
             if (hideJugglers != null) {
                 boolean hide = false;
@@ -477,153 +798,177 @@ public class Renderer2D extends Renderer {
 	            }
             }
         }
-        numobjects = index;
+        return index;
+    }
 
-        // figure out which display elements are covering which other elements
-        for (int i = 0; i < numobjects; i++) {
-            for (int j = 0; j < numobjects; j++) {
-                if (j == i)
-                    continue;
-                if (obj[i].isCovering(obj[j]))
-                    obj[i].covering.add(obj[j]);
-            }
-            obj[i].drawn = false;
-        }
+    //-------------------------------------------------------------------------
+    // Tracking which parts of the display change from frame to frame
+    //-------------------------------------------------------------------------
 
-        // figure out a drawing order
-        index = 0;
-        boolean changed = true;
-        while (changed) {
-            changed = false;
+    // Returns the area of the display that changes going from the last frame
+    // drawn to the frame at `time`, or null if unknown (e.g., nothing has been
+    // drawn yet, or a juggler has been hidden since).
+    @Override
+    public Rectangle getChangedArea(double time, int[] pnum, int[] hideJugglers)
+                            throws JuggleExceptionInternal {
+        // the frame is drawn next, so keep the work done here for it
+        findSceneCoordinates(time);
+        prepareScene(this, pnum, hideJugglers);
+        setPrepared(time, pnum, hideJugglers);
 
-            for (int i = 0; i < numobjects; i++) {
-                if (obj[i].drawn)
-                    continue;
+        changedarea.setBounds(0, 0, 0, 0);
+        return (findChangedArea(changedarea) ? changedarea : null);
+    }
 
-                boolean candraw = true;
-                for (int j = 0; j < obj[i].covering.size(); j++) {
-                    DrawObject2D temp = obj[i].covering.get(j);
-                    if (!temp.drawn) {
-                        candraw = false;
-                        break;
-                    }
-                }
-                if (candraw) {
-                    obj2[index] = obj[i];
-                    obj[i].drawn = true;
-                    index++;
-                    changed = true;
-                }
-            }
-        }
-        // just in case there were some that couldn't be drawn:
-        for (int i = 0; i < numobjects; i++) {
-            if (obj[i].drawn)
-                continue;
-            obj2[index] = obj[i];
-            obj[i].drawn = true;
-            index++;
-            // System.out.println("got undrawable item, type "+obj[i].type);
-        }
+    // As in drawStereoFrame(), the scene is found once for both views
+    @Override
+    public Rectangle getStereoChangedArea(double time, int[] pnum, int[] hideJugglers,
+                                          Renderer other, Dimension dim)
+                            throws JuggleExceptionInternal {
+        if (!(other instanceof Renderer2D) || ((Renderer2D)other).pat != pat)
+            return super.getStereoChangedArea(time, pnum, hideJugglers, other, dim);
+
+        Renderer2D ren2 = (Renderer2D)other;
+        findSceneCoordinates(time);
+        prepareScene(this, pnum, hideJugglers);
+        setPrepared(time, pnum, hideJugglers);
+        ren2.prepareScene(this, pnum, hideJugglers);
+        ren2.setPrepared(time, pnum, hideJugglers);
+
+        changedarea.setBounds(0, 0, 0, 0);
+        ren2.changedarea.setBounds(0, 0, 0, 0);
+        if (!findChangedArea(changedarea) || !ren2.findChangedArea(ren2.changedarea))
+            return null;
+
+        stereoarea.setBounds(0, 0, 0, 0);
+        addStereoAreas(changedarea, ren2.changedarea, dim, stereoarea);
+        return stereoarea;
+    }
 
-        // draw the objects in the sorted order
+    // Add the area that changes going from the last frame drawn to the
+    // prepared one to `area`. Returns false if that isn't known.
+    protected boolean findChangedArea(Rectangle area) {
+        int numobjects = numprepared;
+        if (numobjects != lastnumobjects)
+            return false;
+
+        int numsame = 0;
         for (int i = 0; i < numobjects; i++) {
-            DrawObject2D ob = obj2[i];
+            DrawObject2D ob = obj[i];
+            int[] geom = lastgeom[i];
+            int points = getNumberOfPoints(ob.type);
+            boolean same = (ob.type == geom[0] && ob.sprite == lastsprite[i]);
+            for (int j = 0; same && j < points; j++) {
+                same = ((int)Math.round(ob.coord[j].x) == geom[2 * j + 1] &&
+                        (int)Math.round(ob.coord[j].y) == geom[2 * j + 2]);
+            }
+            changed[i] = !same;
+            if (same) {
+                sortkeys[numsame++] = ((long)lastbounds[i].x << 32) | i;
+                continue;
+            }
 
-            switch (ob.type) {
-                case DrawObject2D.TYPE_PROP:
-                    Prop pr = pat.getProp(pnum[ob.number-1]);
-                    int x = (int)Math.round(ob.coord[0].x);
-                    int y = (int)Math.round(ob.coord[0].y);
-                    Image propimage = pr.getProp2DImage(zoom, cameraangle);
-                    if (propimage != null) {
-                        Dimension grip = pr.getProp2DGrip(zoom);
-                        g.drawImage(propimage, x - grip.width, y - grip.height, null);
-                    } /* else {
-                        g.setColor(pr.getEditorColor());
-                        draw3DProp(ob.object, g);
-                    } */
+            // repaint where it was, and where it is now
+            getPaintBounds(ob, tempr);
+            addArea(area, lastbounds[i]);
+            addArea(area, tempr);
+        }
 
-                    /*
-                    g.setColor(Color.black);
-                    g.drawLine(ob.boundingbox.x, ob.boundingbox.y,
-                               ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y);
-                    g.drawLine(ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y,
-                               ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y + ob.boundingbox.height);
-                    g.drawLine(ob.boundingbox.x + ob.boundingbox.width, ob.boundingbox.y + ob.boundingbox.height,
-                               ob.boundingbox.x, ob.boundingbox.y + ob.boundingbox.height);
-                    g.drawLine(ob.boundingbox.x, ob.boundingbox.y + ob.boundingbox.height,
-                               ob.boundingbox.x, ob.boundingbox.y);
-                    */
+        // Objects that haven't moved can still change where they overlap, if
+        // their drawing order swaps (e.g., two lines that cross). Where a
+        // moved object is involved the overlap is already included above.
+        // Only objects whose bounds intersect can overlap, so as in
+        // sortObjects() sweep across them in order of increasing x.
+        Arrays.sort(sortkeys, 0, numsame);
+        for (int a = 0; a < numsame; a++) {
+            int i = (int)sortkeys[a];
+            Rectangle bi = lastbounds[i];
+            int xmax = bi.x + bi.width;
+
+            for (int b = a + 1; b < numsame; b++) {
+                int j = (int)sortkeys[b];
+                Rectangle bj = lastbounds[j];
+                if (bj.x >= xmax)
                     break;
-                case DrawObject2D.TYPE_BODY:
-                    int[] bodyx = new int[4];
-                    int[] bodyy = new int[4];
-                    for (int j = 0; j < 4; j++) {
-                        bodyx[j] = (int)Math.round(ob.coord[j].x);
-                        bodyy[j] = (int)Math.round(ob.coord[j].y);
-                    }
-                    g.setColor(background);
-                    g.fillPolygon(bodyx, bodyy, 4);
-                    g.setColor(Color.black);
-                    g.drawPolygon(bodyx, bodyy, 4);
+                if ((obj[i].rank < obj[j].rank) == (lastrank[i] < lastrank[j]))
+                    continue;
+                addArea(area, bj.x, Math.max(bi.y, bj.y), Math.min(xmax, bj.x + bj.width),
+                        Math.min(bi.y + bi.height, bj.y + bj.height));
+            }
+        }
+        return true;
+    }
 
-                    double LheadBx = ob.coord[4].x;
-                    double LheadBy = ob.coord[4].y;
-                    double LheadTx = ob.coord[5].x;
-                    double LheadTy = ob.coord[5].y;
-                    double RheadBx = ob.coord[6].x;
-                    double RheadBy = ob.coord[6].y;
-                    double RheadTx = ob.coord[7].x;
-                    double RheadTy = ob.coord[7].y;
+    protected void setPrepared(double time, int[] pnum, int[] hideJugglers) {
+        prepared = true;
+        prepared_time = time;
+        System.arraycopy(pnum, 0, prepared_pnum, 0, prepared_pnum.length);
+        if (hideJugglers == null) {
+            prepared_numhide = -1;
+            return;
+        }
+        if (prepared_hide == null || prepared_hide.length < hideJugglers.length)
+            prepared_hide = new int[hideJugglers.length];
+        System.arraycopy(hideJugglers, 0, prepared_hide, 0, hideJugglers.length);
+        prepared_numhide = hideJugglers.length;
+    }
 
-                    if (Math.abs(RheadBx - LheadBx) > 2.0) {
-                        // head is at least 2 pixels wide; draw it as a polygon
-                        for (int j = 0; j < polysides; j++) {
-                            headx[j] = (int)Math.round(0.5 * (LheadBx + RheadBx + headcos[j] * (RheadBx - LheadBx)));
-                            heady[j] = (int)Math.round(0.5 * (LheadBy + LheadTy + headsin[j] * (LheadBy - LheadTy)) +
-                                             (headx[j] - LheadBx) * (RheadBy - LheadBy) / (RheadBx-LheadBx));
-                        }
+    protected boolean isPreparedFor(double time, int[] pnum, int[] hideJugglers) {
+        if (!prepared || time != prepared_time || !Arrays.equals(pnum, prepared_pnum))
+            return false;
+        if (hideJugglers == null)
+            return (prepared_numhide == -1);
+        return (hideJugglers.length == prepared_numhide &&
+                Arrays.equals(hideJugglers, 0, prepared_numhide, prepared_hide, 0,
+                              prepared_numhide));
+    }
 
-                        g.setColor(background);
-                        g.fillPolygon(headx, heady, polysides);
-                        g.setColor(Color.black);
-                        g.drawPolygon(headx, heady, polysides);
-                    } else {
-                        // head is edge-on; draw it as a line
-                        double h = Math.sqrt((LheadBy - LheadTy) * (LheadBy - LheadTy) +
-                                             (RheadBy - LheadBy) * (RheadBy - LheadBy));
-                        int headx = (int)Math.round(0.5 * (LheadBx + RheadBx));
-                        int heady1 = (int)Math.round(0.5 * (LheadTy + RheadBy + h));
-                        int heady2 = (int)Math.round(0.5 * (LheadTy + RheadBy - h));
+    protected static void addArea(Rectangle area, Rectangle r) {
+        addArea(area, r.x, r.y, r.x + r.width, r.y + r.height);
+    }
 
-                        g.setColor(Color.black);
-                        g.drawLine(headx, heady1, headx, heady2);
-                    }
-                    break;
-                case DrawObject2D.TYPE_LINE:
-                    g.setColor(Color.black);
-                    if (ob.id == "upper") g.setColor(Color.red);
-                    int x1 = (int)Math.round(ob.coord[0].x);
-                    int y1 = (int)Math.round(ob.coord[0].y);
-                    int x2 = (int)Math.round(ob.coord[1].x);
-                    int y2 = (int)Math.round(ob.coord[1].y);
-                    g.drawLine(x1, y1, x2, y2);
-                    break;
-            }
+    protected static int getNumberOfPoints(int type) {
+        switch (type) {
+            case DrawObject2D.TYPE_PROP:
+                return 1;
+            case DrawObject2D.TYPE_BODY:
+                return 8;
+            default:
+                return 2;
+        }
+    }
 
-            /*
-            g.setColor(Color.black);
-            g.drawLine(ob.boundingbox.x, ob.boundingbox.y,
-                       ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y);
-            g.drawLine(ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y,
-                       ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y+ob.boundingbox.height-1);
-            g.drawLine(ob.boundingbox.x+ob.boundingbox.width-1, ob.boundingbox.y+ob.boundingbox.height-1,
-                       ob.boundingbox.x, ob.boundingbox.y+ob.boundingbox.height-1);
-            g.drawLine(ob.boundingbox.x, ob.boundingbox.y+ob.boundingbox.height-1,
-                       ob.boundingbox.x, ob.boundingbox.y);
-            */
+    // Record what is about to be drawn, for getChangedArea()
+    protected void saveObjectGeometry(int numobjects) {
+        for (int i = 0; i < numobjects; i++) {
+            DrawObject2D ob = obj[i];
+            int[] geom = lastgeom[i];
+            geom[0] = ob.type;
+            for (int j = 0; j < getNumberOfPoints(ob.type); j++) {
+                geom[2 * j + 1] = (int)Math.round(ob.coord[j].x);
+                geom[2 * j + 2] = (int)Math.round(ob.coord[j].y);
+            }
+            lastsprite[i] = ob.sprite;
+            lastrank[i] = ob.rank;
+            getPaintBounds(ob, lastbounds[i]);
         }
+        lastnumobjects = numobjects;
+    }
+
+    // Area that drawing the object can touch, allowing for antialiasing and
+    // the head drawn around the body's points
+    protected void getPaintBounds(DrawObject2D ob, Rectangle r) {
+        if (ob.type == DrawObject2D.TYPE_PROP) {
+            if (ob.sprite == null) {
+                r.setBounds(0, 0, 0, 0);
+                return;
+            }
+            r.setBounds((int)Math.round(ob.coord[0].x) - ob.sprite.grip.width,
+                        (int)Math.round(ob.coord[0].y) - ob.sprite.grip.height,
+                        ob.sprite.image.getWidth(), ob.sprite.image.getHeight());
+        } else
+            r.setBounds(ob.boundingbox);
+        r.grow(PAINT_MARGIN, PAINT_MARGIN);
     }
 
     @Override
@@ -675,6 +1020,10 @@ public class Renderer2D extends Renderer {
         public JLVector[] coord;
         public Rectangle boundingbox;
         public ArrayList<DrawObject2D> covering;
+        public ArrayList<DrawObject2D> coveredby;  // reverse of `covering`
+        public int index;  // position in `obj`
+        public int rank;  // position in `obj2`, the drawing order
+        public SpriteCache.Sprite sprite;  // for props
         public boolean drawn;
         public JLVector tempv;
         public String id; // to be removed
@@ -686,6 +1035,7 @@ public class Renderer2D extends Renderer {
                 coord[i] = new JLVector();
             boundingbox = new Rectangle();
             covering = new ArrayList<DrawObject2D>(numobjects);
+            coveredby = new ArrayList<DrawObject2D>(numobjects);
             tempv = new JLVector();
         }
 
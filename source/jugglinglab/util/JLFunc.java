@@ -8,6 +8,9 @@ import java.awt.Component;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.MessageFormat;
@@ -177,7 +180,9 @@ public class JLFunc {
 
     protected static NumberFormat nf;
 
-    public static NumberFormat nf() {
+    // NumberFormat isn't thread-safe, and patterns may be set up on several
+    // threads at once (e.g., in batch mode), so uses synchronize on it
+    public static synchronized NumberFormat nf() {
         if (nf == null) {
             // use US-style number formatting for interoperability of JML
             // files across Locales
@@ -187,8 +192,11 @@ public class JLFunc {
     }
 
     public static double parseDouble(String s) throws NumberFormatException {
+        NumberFormat f = nf();
         try {
-            return nf().parse(s).doubleValue();
+            synchronized (f) {
+                return f.parse(s).doubleValue();
+            }
         } catch (ParseException pe) {
             throw new NumberFormatException();
         }
@@ -207,6 +215,21 @@ public class JLFunc {
         return result;
     }
 
+    // SHA-256 hash of a string's UTF-8 bytes, as hex digits. Used as a key for
+    // cached renderings.
+    public static String sha256Hex(String s) throws JuggleExceptionInternal {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new JuggleExceptionInternal("JLFunc: no SHA-256");
+        }
+    }
+
     //-------------------------------------------------------------------------
     // Helpers for GridBagLayout
     //-------------------------------------------------------------------------
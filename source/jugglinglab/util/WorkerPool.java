@@ -0,0 +1,134 @@
+// WorkerPool.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.util;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Shared pool of worker threads for running independent pieces of a
+// calculation in parallel (e.g., fitting the hand curves during pattern
+// layout).
+//
+// The calling thread works through the task list alongside the pool threads,
+// so runAll() makes progress even if every pool thread is busy, including
+// when it is called from a task that is itself running on the pool.
+
+public class WorkerPool {
+    public interface Task {
+        public void run() throws JuggleExceptionUser, JuggleExceptionInternal;
+    }
+
+    protected static ExecutorService pool;
+    protected static int numthreads;
+
+
+    public static synchronized ExecutorService getSharedPool() {
+        if (pool == null) {
+            numthreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(numthreads, new ThreadFactory() {
+                protected AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Juggling Lab worker " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    public static int getNumberOfThreads() {
+        getSharedPool();
+        return numthreads;
+    }
+
+    // Run the tasks in parallel and wait for all of them to finish.
+    //
+    // If any tasks throw an exception, the one from the lowest-numbered task
+    // is rethrown, so the outcome doesn't depend on thread scheduling.
+    public static void runAll(List<? extends Task> tasks) throws
+                            JuggleExceptionUser, JuggleExceptionInternal {
+        int n = tasks.size();
+        if (n == 0)
+            return;
+        if (n == 1 || getNumberOfThreads() == 1) {
+            for (Task task : tasks)
+                task.run();
+            return;
+        }
+
+        Batch batch = new Batch(tasks);
+        int helpers = Math.min(n - 1, getNumberOfThreads());
+        for (int i = 0; i < helpers; i++)
+            getSharedPool().execute(batch);
+
+        batch.run();  // caller works too
+
+        try {
+            batch.done.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new JuggleExceptionInternal("WorkerPool: interrupted");
+        }
+
+        batch.rethrow();
+    }
+
+    //-------------------------------------------------------------------------
+    // Internal class to hand out tasks to threads
+    //-------------------------------------------------------------------------
+
+    protected static class Batch implements Runnable {
+        protected List<? extends Task> tasks;
+        protected AtomicInteger next = new AtomicInteger();
+        protected CountDownLatch done;
+        protected Throwable[] errors;
+
+
+        public Batch(List<? extends Task> tasks) {
+            this.tasks = tasks;
+            done = new CountDownLatch(tasks.size());
+            errors = new Throwable[tasks.size()];
+        }
+
+        @Override
+        public void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < tasks.size()) {
+                try {
+                    tasks.get(i).run();
+                } catch (Throwable t) {
+                    errors[i] = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        // called after `done` has reached zero
+        public void rethrow() throws JuggleExceptionUser, JuggleExceptionInternal {
+            for (Throwable t : errors) {
+                if (t == null)
+                    continue;
+                if (t instanceof JuggleExceptionUser)
+                    throw (JuggleExceptionUser)t;
+                if (t instanceof JuggleExceptionInternal)
+                    throw (JuggleExceptionInternal)t;
+                if (t instanceof RuntimeException)
+                    throw (RuntimeException)t;
+                if (t instanceof Error)
+                    throw (Error)t;
+                throw new JuggleExceptionInternal("WorkerPool: " + t.toString());
+            }
+        }
+    }
+}
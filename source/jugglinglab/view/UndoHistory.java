@@ -0,0 +1,190 @@
+// UndoHistory.java
+//
+// Copyright 2002-2022 Jack Boyce and the Juggling Lab contributors
+
+package jugglinglab.view;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import jugglinglab.core.Constants;
+import jugglinglab.jml.JMLPattern;
+import jugglinglab.util.*;
+
+
+// Undo/redo history for a pattern being edited.
+//
+// Rather than holding complete JMLPattern objects (with their event lists,
+// path links and spline curves), each entry stores the pattern's JML
+// representation split into lines. The JML only contains the master events,
+// positions, symmetries and props, and lines that are unchanged from the
+// previous entry share the same String object, so an entry for a typical
+// edit costs little more than an array of references. A full JMLPattern is
+// only rebuilt on undo or redo.
+//
+// The history has a memory budget; when it is exceeded the oldest entries
+// are evicted. The memory in use is kept up to date as entries come and go,
+// by counting the references to each line.
+
+public class UndoHistory {
+    protected ArrayList<String[]> entries = new ArrayList<String[]>();
+    protected int index = -1;  // entry for the current state of the pattern
+    protected long budget_bytes = Constants.UNDO_HISTORY_MAX_BYTES;
+    protected long used_bytes;
+    // number of references to each line from all the entries
+    protected IdentityHashMap<String, int[]> refcount = new IdentityHashMap<String, int[]>();
+
+
+    public UndoHistory() {}
+
+    public UndoHistory(long budget) {
+        budget_bytes = budget;
+    }
+
+    // Add a snapshot of the pattern after the current entry, discarding any
+    // entries that could have been reached with redo
+    public void add(JMLPattern pat) {
+        String[] lines = pat.toString().split("\n", -1);
+
+        if (index >= 0) {
+            // share unchanged lines with the current entry
+            String[] prev = entries.get(index);
+            HashMap<String, String> prevlines = new HashMap<String, String>(2 * prev.length);
+            for (String line : prev)
+                prevlines.put(line, line);
+
+            for (int i = 0; i < lines.length; i++) {
+                String shared = prevlines.get(lines[i]);
+                if (shared != null)
+                    lines[i] = shared;
+            }
+        }
+
+        while (index + 1 < entries.size())
+            removeUsage(entries.remove(entries.size() - 1));
+        entries.add(lines);
+        index++;
+        addUsage(lines);
+
+        evict();
+    }
+
+    public boolean canUndo() {
+        return (index > 0);
+    }
+
+    public boolean canRedo() {
+        return (index < entries.size() - 1);
+    }
+
+    // Step back one entry and return a new copy of the pattern at that point
+    public JMLPattern undo() throws JuggleExceptionUser, JuggleExceptionInternal {
+        if (!canUndo())
+            throw new JuggleExceptionInternal("UndoHistory: nothing to undo");
+        index--;
+        return getPattern(index);
+    }
+
+    // Step forward one entry and return a new copy of the pattern at that point
+    public JMLPattern redo() throws JuggleExceptionUser, JuggleExceptionInternal {
+        if (!canRedo())
+            throw new JuggleExceptionInternal("UndoHistory: nothing to redo");
+        index++;
+        return getPattern(index);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getMemoryBudget() {
+        return budget_bytes;
+    }
+
+    public void setMemoryBudget(long budget) {
+        budget_bytes = budget;
+        evict();
+    }
+
+    // Approximate memory used by the history, in bytes
+    public long getMemoryUsage() {
+        return used_bytes;
+    }
+
+    //-------------------------------------------------------------------------
+    // Internal methods
+    //-------------------------------------------------------------------------
+
+    protected JMLPattern getPattern(int i) throws JuggleExceptionUser,
+                            JuggleExceptionInternal {
+        return new JMLPattern(new StringReader(String.join("\n", entries.get(i))));
+    }
+
+    // Remove the oldest entries until we're within budget. The current entry
+    // is never removed.
+    protected void evict() {
+        int n = 0;
+        while (used_bytes > budget_bytes && index - n > 0) {
+            removeUsage(entries.get(n));
+            n++;
+        }
+        entries.subList(0, n).clear();
+        index -= n;
+
+        if (Constants.DEBUG_UNDO) {
+            System.out.println("undo history: " + entries.size() + " entries, index " +
+                               index + ", " + used_bytes + " bytes");
+            long check = calcMemoryUsage();
+            if (check != used_bytes)
+                System.out.println("undo history: memory usage should be " + check);
+        }
+    }
+
+    // Count the memory for a new entry, with lines already in the history
+    // counted only once
+    protected void addUsage(String[] lines) {
+        used_bytes += 16 + 4 * lines.length;
+        for (String line : lines) {
+            int[] count = refcount.get(line);
+            if (count == null) {
+                refcount.put(line, new int[] { 1 });
+                used_bytes += 40 + line.length();
+            } else
+                count[0]++;
+        }
+    }
+
+    // Reverse of addUsage(), for an entry being removed
+    protected void removeUsage(String[] lines) {
+        used_bytes -= 16 + 4 * lines.length;
+        for (String line : lines) {
+            int[] count = refcount.get(line);
+            if (--count[0] == 0) {
+                refcount.remove(line);
+                used_bytes -= 40 + line.length();
+            }
+        }
+    }
+
+    // Estimate memory use from scratch, counting each shared line only once.
+    // This is only used to check the running total.
+    protected long calcMemoryUsage() {
+        IdentityHashMap<String, Boolean> seen = new IdentityHashMap<String, Boolean>();
+        long total = 0;
+
+        for (String[] lines : entries) {
+            total += 16 + 4 * lines.length;
+            for (String line : lines) {
+                if (seen.put(line, Boolean.TRUE) == null)
+                    total += 40 + line.length();
+            }
+        }
+        return total;
+    }
+}
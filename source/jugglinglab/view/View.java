@@ -7,7 +7,6 @@ package jugglinglab.view;
 import java.awt.Dimension;
 import java.io.*;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.ResourceBundle;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.JFileChooser;
@@ -49,8 +48,7 @@ public abstract class View extends JPanel {
         };
 
     protected PatternWindow parent;
-    protected ArrayList<JMLPattern> undo;
-    protected int undo_index;
+    protected UndoHistory undo;
 
 
     public void setParent(PatternWindow p) {
@@ -71,41 +69,27 @@ public abstract class View extends JPanel {
     //-------------------------------------------------------------------------
 
     // For the PatternWindow to pass into a newly-initialized view
-    public void setUndoList(ArrayList<JMLPattern> u, int u_index) {
+    public void setUndoList(UndoHistory u) {
         undo = u;
-        undo_index = u_index;
     }
 
     // Add a pattern to the undo list
     public void addToUndoList(JMLPattern p) {
-        try {
-            JMLPattern pcopy = new JMLPattern(p);  // add copy so it won't change
-            undo_index++;
-            undo.add(undo_index, pcopy);
-            while (undo_index + 1 < undo.size())
-                undo.remove(undo_index + 1);
-
-            if (parent != null)
-                parent.updateUndoMenu();
-        } catch (JuggleExceptionUser jeu) {
-            ErrorDialog.handleFatalException(new JuggleExceptionInternal(jeu.getMessage()));
-        } catch (JuggleExceptionInternal jei) {
-            ErrorDialog.handleFatalException(jei);
-        }
+        undo.add(p);  // stores a snapshot so it won't change
+
+        if (parent != null)
+            parent.updateUndoMenu();
     }
 
     // Undo to the previous save state
     public void undoEdit() throws JuggleExceptionInternal {
-        if (undo_index > 0) {
+        if (undo.canUndo()) {
             try {
-                undo_index--;
-                JMLPattern pcopy = new JMLPattern(undo.get(undo_index));
+                JMLPattern pcopy = undo.undo();
                 restartView(pcopy, null);
 
-                if (undo_index == 0 || undo_index == undo.size() - 2) {
-                    if (parent != null)
-                        parent.updateUndoMenu();
-                }
+                if (parent != null)
+                    parent.updateUndoMenu();
             } catch (JuggleExceptionUser jeu) {
                 // errors here aren't user errors since pattern was successfully
                 // animated before
@@ -116,27 +100,19 @@ public abstract class View extends JPanel {
 
     // Redo to the next save state
     public void redoEdit() throws JuggleExceptionInternal {
-        if (undo_index < undo.size() - 1) {
+        if (undo.canRedo()) {
             try {
-                undo_index++;
-                JMLPattern pcopy = new JMLPattern(undo.get(undo_index));
+                JMLPattern pcopy = undo.redo();
                 restartView(pcopy, null);
 
-                if (undo_index == 1 || undo_index == undo.size() - 1) {
-                    if (parent != null)
-                        parent.updateUndoMenu();
-                }
+                if (parent != null)
+                    parent.updateUndoMenu();
             } catch (JuggleExceptionUser jeu) {
                 throw new JuggleExceptionInternal(jeu.getMessage());
             }
         }
     }
 
-    // For the PatternWindow to retain state when the view changes
-    public int getUndoIndex() {
-        return undo_index;
-    }
-
     //-------------------------------------------------------------------------
     // Abstract methods for subclasses to define
     //-------------------------------------------------------------------------